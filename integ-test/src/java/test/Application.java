@@ -20,5 +20,6 @@ public class Application extends ApplicationFilter {
     @Override
     protected void releaseAndStop() {
         Background.getHolder().stopAll();
+        ServiceDispatcherServlet.getOperations().shutdown();
     }
 }
@@ -0,0 +1,372 @@
+package org.s1.web.formats;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * CBOR (RFC 7049) codec of Map/List data model.
+ * <br>
+ * Dates are written with tag 1 (epoch seconds), BigInteger - with tags 2/3, BigDecimal - with tag 4.
+ * Integers are read as Integer, Long or BigInteger like in {@link JsonReader}, keys are shared with {@link KeyTable#getShared()}.
+ *
+ * @author Grigory Pykhov
+ */
+public class CborCodec implements Codec {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final BigInteger MAX_UINT64 = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+    private static final int MAX_DEPTH = 512;
+    private static final Object BREAK = new Object();
+
+    @Override
+    public String getMediaType() {
+        return "application/cbor";
+    }
+
+    @Override
+    public Object read(InputStream in, String encoding) throws IOException {
+        DataInputStream din = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in));
+        int b = din.read();
+        if (b < 0)
+            return null;
+        Object o = read(din, b, 0);
+        if (o == BREAK)
+            throw new IllegalArgumentException("Unexpected CBOR break");
+        return o;
+    }
+
+    @Override
+    public <T> T read(InputStream in, String encoding, Class<T> type) throws IOException {
+        return (T) JsonBinding.convert(read(in, encoding), type);
+    }
+
+    @Override
+    public void write(Object value, OutputStream out, String encoding) throws IOException {
+        DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out, 8192));
+        write(dout, value);
+        dout.flush();
+    }
+
+    private Object read(DataInputStream in, int b, int depth) throws IOException {
+        if (depth > MAX_DEPTH)
+            throw new IllegalArgumentException("CBOR is too deep");
+        int major = b >>> 5;
+        int info = b & 0x1F;
+        if (major == 7)
+            return readSimple(in, info);
+        if (info == 31) {
+            switch (major) {
+                case 2:
+                case 3:
+                    return readChunks(in, major);
+                case 4:
+                    List<Object> l = new CompactList<Object>();
+                    Object o;
+                    while ((o = read(in, next(in), depth + 1)) != BREAK) {
+                        l.add(o);
+                    }
+                    return l;
+                case 5:
+                    Map<String, Object> m = new CompactMap<String, Object>();
+                    Object k;
+                    while ((k = read(in, next(in), depth + 1)) != BREAK) {
+                        m.put(KeyTable.getShared().intern(String.valueOf(k)), value(read(in, next(in), depth + 1)));
+                    }
+                    return m;
+                default:
+                    throw new IllegalArgumentException("Unexpected CBOR indefinite length of type " + major);
+            }
+        }
+        long n = readLength(in, info);
+        switch (major) {
+            case 0:
+                return toNumber(n, false);
+            case 1:
+                return toNumber(n, true);
+            case 2:
+                return readBytes(in, n);
+            case 3:
+                return new String(readBytes(in, n), UTF8);
+            case 4: {
+                int size = size(n);
+                List<Object> l = new CompactList<Object>();
+                for (int i = 0; i < size; i++) {
+                    l.add(value(read(in, next(in), depth + 1)));
+                }
+                return l;
+            }
+            case 5: {
+                int size = size(n);
+                Map<String, Object> m = new CompactMap<String, Object>();
+                for (int i = 0; i < size; i++) {
+                    String k = KeyTable.getShared().intern(String.valueOf(value(read(in, next(in), depth + 1))));
+                    m.put(k, value(read(in, next(in), depth + 1)));
+                }
+                return m;
+            }
+            default:
+                return readTag(n, value(read(in, next(in), depth + 1)));
+        }
+    }
+
+    private Object readTag(long tag, Object v) {
+        if (tag == 1 && v instanceof Number) {
+            if (v instanceof Double || v instanceof Float)
+                return new Date(Math.round(((Number) v).doubleValue() * 1000));
+            return new Date(((Number) v).longValue() * 1000);
+        }
+        if ((tag == 2 || tag == 3) && v instanceof byte[]) {
+            BigInteger i = new BigInteger(1, (byte[]) v);
+            return tag == 2 ? i : BigInteger.ONE.negate().subtract(i);
+        }
+        if (tag == 4 && v instanceof List && ((List) v).size() == 2
+                && ((List) v).get(0) instanceof Number && ((List) v).get(1) instanceof Number) {
+            Object e = ((List) v).get(0);
+            Object m = ((List) v).get(1);
+            BigInteger mantissa = m instanceof BigInteger ? (BigInteger) m : BigInteger.valueOf(((Number) m).longValue());
+            return new BigDecimal(mantissa, -((Number) e).intValue());
+        }
+        return v;
+    }
+
+    private Object readSimple(DataInputStream in, int info) throws IOException {
+        switch (info) {
+            case 20:
+                return Boolean.FALSE;
+            case 21:
+                return Boolean.TRUE;
+            case 22:
+            case 23:
+                return null;
+            case 24:
+                in.readUnsignedByte();
+                return null;
+            case 25:
+                return halfToFloat(in.readUnsignedShort());
+            case 26:
+                return in.readFloat();
+            case 27:
+                return in.readDouble();
+            case 31:
+                return BREAK;
+            default:
+                if (info < 20)
+                    return null;
+                throw new IllegalArgumentException("Unexpected CBOR simple value " + info);
+        }
+    }
+
+    private Object readChunks(DataInputStream in, int major) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        while (true) {
+            int b = next(in);
+            if (b == 0xFF)
+                break;
+            if (b >>> 5 != major || (b & 0x1F) == 31)
+                throw new IllegalArgumentException("Unexpected CBOR chunk");
+            bos.write(readBytes(in, readLength(in, b & 0x1F)));
+        }
+        return major == 2 ? bos.toByteArray() : new String(bos.toByteArray(), UTF8);
+    }
+
+    private static float halfToFloat(int h) {
+        int exp = (h >> 10) & 0x1F;
+        int mant = h & 0x3FF;
+        float v;
+        if (exp == 0)
+            v = (float) (mant * Math.pow(2, -24));
+        else if (exp == 31)
+            v = mant == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+        else
+            v = (float) ((mant + 1024) * Math.pow(2, exp - 25));
+        return (h & 0x8000) != 0 ? -v : v;
+    }
+
+    private static Object value(Object o) {
+        if (o == BREAK)
+            throw new IllegalArgumentException("Unexpected CBOR break");
+        return o;
+    }
+
+    private static int next(DataInputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0)
+            throw new IllegalArgumentException("Unexpected end of CBOR");
+        return b;
+    }
+
+    private static int size(long n) {
+        if (n < 0 || n > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("CBOR length is too big: " + n);
+        return (int) n;
+    }
+
+    //unsigned 64-bit value is returned as is (may be negative)
+    private static long readLength(DataInputStream in, int info) throws IOException {
+        if (info < 24)
+            return info;
+        switch (info) {
+            case 24:
+                return in.readUnsignedByte();
+            case 25:
+                return in.readUnsignedShort();
+            case 26:
+                return in.readInt() & 0xFFFFFFFFL;
+            case 27:
+                return in.readLong();
+            default:
+                throw new IllegalArgumentException("Unexpected CBOR length " + info);
+        }
+    }
+
+    private static Object toNumber(long n, boolean negative) {
+        if (n < 0) {
+            BigInteger i = BigInteger.valueOf(n).add(BigInteger.ONE.shiftLeft(64));
+            return negative ? BigInteger.ONE.negate().subtract(i) : i;
+        }
+        long v = negative ? -1 - n : n;
+        if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE)
+            return (int) v;
+        return v;
+    }
+
+    private static byte[] readBytes(DataInputStream in, long n) throws IOException {
+        int size = size(n);
+        if (size <= 65536) {
+            byte[] b = new byte[size];
+            in.readFully(b);
+            return b;
+        }
+        //don't trust declared length
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(65536);
+        byte[] buf = new byte[65536];
+        while (size > 0) {
+            int r = in.read(buf, 0, Math.min(size, buf.length));
+            if (r < 0)
+                throw new EOFException();
+            bos.write(buf, 0, r);
+            size -= r;
+        }
+        return bos.toByteArray();
+    }
+
+    private void write(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.write(0xF6);
+        } else if (value instanceof String) {
+            writeString(out, (String) value);
+        } else if (value instanceof Map) {
+            Map<?, ?> m = (Map<?, ?>) value;
+            writeHead(out, 5, m.size());
+            for (Map.Entry<?, ?> e : m.entrySet()) {
+                writeString(out, String.valueOf(e.getKey()));
+                write(out, e.getValue());
+            }
+        } else if (value instanceof Collection) {
+            Collection<?> c = (Collection<?>) value;
+            writeHead(out, 4, c.size());
+            for (Object o : c) {
+                write(out, o);
+            }
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            writeLong(out, ((Number) value).longValue());
+        } else if (value instanceof Double) {
+            out.write(0xFB);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.write(0xFA);
+            out.writeFloat((Float) value);
+        } else if (value instanceof BigInteger) {
+            writeBigInteger(out, (BigInteger) value);
+        } else if (value instanceof BigDecimal) {
+            BigDecimal d = (BigDecimal) value;
+            writeHead(out, 6, 4);
+            writeHead(out, 4, 2);
+            writeLong(out, -d.scale());
+            writeBigInteger(out, d.unscaledValue());
+        } else if (value instanceof Number) {
+            out.write(0xFB);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? 0xF5 : 0xF4);
+        } else if (value instanceof Date) {
+            long t = ((Date) value).getTime();
+            writeHead(out, 6, 1);
+            if (t % 1000 == 0) {
+                writeLong(out, t / 1000);
+            } else {
+                out.write(0xFB);
+                out.writeDouble(t / 1000.0);
+            }
+        } else if (value instanceof byte[]) {
+            byte[] b = (byte[]) value;
+            writeHead(out, 2, b.length);
+            out.write(b);
+        } else if (value instanceof Enum || value instanceof Character || value instanceof CharSequence) {
+            writeString(out, value.toString());
+        } else if (value.getClass().isArray()) {
+            int l = Array.getLength(value);
+            writeHead(out, 4, l);
+            for (int i = 0; i < l; i++) {
+                write(out, Array.get(value, i));
+            }
+        } else {
+            write(out, JsonBinding.toMap(value));
+        }
+    }
+
+    private static void writeBigInteger(DataOutputStream out, BigInteger i) throws IOException {
+        if (i.bitLength() < 64) {
+            writeLong(out, i.longValue());
+        } else if (i.signum() >= 0 && i.compareTo(MAX_UINT64) <= 0) {
+            out.write(0x1B);
+            out.writeLong(i.longValue());
+        } else {
+            boolean negative = i.signum() < 0;
+            if (negative)
+                i = BigInteger.ONE.negate().subtract(i);
+            byte[] b = i.toByteArray();
+            int off = b[0] == 0 ? 1 : 0;
+            writeHead(out, 6, negative ? 3 : 2);
+            writeHead(out, 2, b.length - off);
+            out.write(b, off, b.length - off);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(UTF8);
+        writeHead(out, 3, b.length);
+        out.write(b);
+    }
+
+    private static void writeLong(DataOutputStream out, long v) throws IOException {
+        if (v >= 0)
+            writeHead(out, 0, v);
+        else
+            writeHead(out, 1, -1 - v);
+    }
+
+    private static void writeHead(DataOutputStream out, int major, long n) throws IOException {
+        int m = major << 5;
+        if (n < 24) {
+            out.write(m | (int) n);
+        } else if (n < 0x100) {
+            out.write(m | 24);
+            out.write((int) n);
+        } else if (n < 0x10000) {
+            out.write(m | 25);
+            out.writeShort((int) n);
+        } else if (n < 0x100000000L) {
+            out.write(m | 26);
+            out.writeInt((int) n);
+        } else {
+            out.write(m | 27);
+            out.writeLong(n);
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+package org.s1.web.formats;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Wire format of Map/List data model (see {@link Codecs})
+ *
+ * @author Grigory Pykhov
+ */
+public interface Codec {
+
+    /**
+     * @return Media type written to Content-Type
+     */
+    String getMediaType();
+
+    /**
+     * Read one value
+     *
+     * @param in       Stream
+     * @param encoding Encoding (only for text formats)
+     * @return Value (Map, List, String, Number, Boolean, Date, byte[] or null)
+     * @throws IOException IOException
+     */
+    Object read(InputStream in, String encoding) throws IOException;
+
+    /**
+     * Read one value and bind it to bean (see {@link JsonBinding})
+     *
+     * @param in       Stream
+     * @param encoding Encoding (only for text formats)
+     * @param type     Bean class
+     * @param <T>      Type
+     * @return Bean
+     * @throws IOException IOException
+     */
+    <T> T read(InputStream in, String encoding, Class<T> type) throws IOException;
+
+    /**
+     * Write value, beans are written as maps
+     *
+     * @param value    Value
+     * @param out      Stream (it is flushed, but not closed)
+     * @param encoding Encoding (only for text formats)
+     * @throws IOException IOException
+     */
+    void write(Object value, OutputStream out, String encoding) throws IOException;
+
+}
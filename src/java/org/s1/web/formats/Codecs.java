@@ -0,0 +1,195 @@
+package org.s1.web.formats;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of wire formats by media type.
+ * <br>
+ * JSON (<code>application/json</code>, default format), CBOR (<code>application/cbor</code>)
+ * and MessagePack (<code>application/msgpack</code>) are registered by default.
+ * <br>
+ * Resolved Content-Type and Accept headers are cached, so negotiation is one map lookup.
+ *
+ * @author Grigory Pykhov
+ */
+public class Codecs {
+
+    /**
+     * JSON media type
+     */
+    public static final String JSON = "application/json";
+
+    private static final int MAX_CACHE_SIZE = 1024;
+
+    //cached "not found" result
+    private static final Codec NONE = new Codec() {
+        @Override
+        public String getMediaType() {
+            return null;
+        }
+
+        @Override
+        public Object read(InputStream in, String encoding) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T> T read(InputStream in, String encoding, Class<T> type) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void write(Object value, OutputStream out, String encoding) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    private static final Map<String, Codec> codecs = new ConcurrentHashMap<String, Codec>();
+    private static final Map<String, Codec> contentTypes = new ConcurrentHashMap<String, Codec>();
+    private static final Map<String, Codec> accepts = new ConcurrentHashMap<String, Codec>();
+
+    static {
+        register(new JsonCodec());
+        register(new CborCodec());
+        MessagePackCodec msgpack = new MessagePackCodec();
+        register(msgpack);
+        register("application/x-msgpack", msgpack);
+        register("application/vnd.msgpack", msgpack);
+    }
+
+    private Codecs() {
+    }
+
+    /**
+     * Register codec with its media type
+     *
+     * @param codec Codec
+     */
+    public static void register(Codec codec) {
+        register(codec.getMediaType(), codec);
+    }
+
+    /**
+     * Register codec
+     *
+     * @param mediaType Media type
+     * @param codec     Codec
+     */
+    public static void register(String mediaType, Codec codec) {
+        codecs.put(mediaType.toLowerCase(Locale.ENGLISH), codec);
+        contentTypes.clear();
+        accepts.clear();
+    }
+
+    /**
+     * Unregister codec
+     *
+     * @param mediaType Media type
+     */
+    public static void unregister(String mediaType) {
+        codecs.remove(mediaType.toLowerCase(Locale.ENGLISH));
+        contentTypes.clear();
+        accepts.clear();
+    }
+
+    /**
+     * @param mediaType Media type
+     * @return Codec (or null)
+     */
+    public static Codec get(String mediaType) {
+        return codecs.get(mediaType.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * @return Default codec (JSON)
+     */
+    public static Codec getDefault() {
+        return get(JSON);
+    }
+
+    /**
+     * @param codec Codec
+     * @return True if codec is default (JSON)
+     */
+    public static boolean isDefault(Codec codec) {
+        return codec == null || codec == getDefault();
+    }
+
+    /**
+     * Codec for request body
+     *
+     * @param contentType Content-Type header
+     * @return Codec (null - not registered)
+     */
+    public static Codec forContentType(String contentType) {
+        if (contentType == null)
+            return null;
+        Codec c = contentTypes.get(contentType);
+        if (c == null) {
+            c = codecs.get(mediaType(contentType));
+            if (c == null)
+                c = NONE;
+            if (contentTypes.size() < MAX_CACHE_SIZE)
+                contentTypes.put(contentType, c);
+        }
+        return c == NONE ? null : c;
+    }
+
+    /**
+     * Codec for response: registered media type with highest quality
+     *
+     * @param accept Accept header
+     * @return Codec (null - any format is accepted, or no registered format is accepted)
+     */
+    public static Codec forAccept(String accept) {
+        if (accept == null)
+            return null;
+        Codec c = accepts.get(accept);
+        if (c == null) {
+            c = negotiate(accept);
+            if (accepts.size() < MAX_CACHE_SIZE)
+                accepts.put(accept, c);
+        }
+        return c == NONE ? null : c;
+    }
+
+    private static Codec negotiate(String accept) {
+        Codec best = NONE;
+        double q = -1;
+        for (String it : accept.split(",")) {
+            String type = mediaType(it);
+            double quality = 1;
+            for (String p : it.split(";")) {
+                p = p.trim();
+                if (p.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(p.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (quality <= 0 || quality <= q)
+                continue;
+            Codec c = codecs.get(type);
+            if (c != null) {
+                best = c;
+                q = quality;
+            } else if (type.equals("*/*") || type.equals("application/*")) {
+                best = NONE;
+                q = quality;
+            }
+        }
+        return best;
+    }
+
+    private static String mediaType(String header) {
+        int i = header.indexOf(';');
+        return (i < 0 ? header : header.substring(0, i)).trim().toLowerCase(Locale.ENGLISH);
+    }
+
+}
@@ -0,0 +1,165 @@
+package org.s1.web.formats;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * List of data model values.
+ * <br>
+ * While all elements are Integer, Long or Double of one type, they are stored unboxed in <code>long[]</code>
+ * or <code>double[]</code> (element types are not changed: Integer list returns Integer).
+ * List is upgraded to <code>Object[]</code> when element of another type is added.
+ *
+ * @author Grigory Pykhov
+ */
+public class CompactList<E> extends AbstractList<E> implements RandomAccess, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int EMPTY = 0;
+    private static final int INT = 1;
+    private static final int LONG = 2;
+    private static final int DOUBLE = 3;
+    private static final int OBJECT = 4;
+
+    private int mode = EMPTY;
+    private long[] longs;
+    private double[] doubles;
+    private Object[] objects;
+    private int size;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public E get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        return (E) box(index);
+    }
+
+    @Override
+    public E set(int index, E element) {
+        E old = get(index);
+        if (!fits(element))
+            upgrade();
+        if (mode == OBJECT)
+            objects[index] = element;
+        else if (mode == DOUBLE)
+            doubles[index] = (Double) element;
+        else
+            longs[index] = ((Number) element).longValue();
+        return old;
+    }
+
+    @Override
+    public void add(int index, E element) {
+        if (index < 0 || index > size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        if (mode == EMPTY)
+            mode = element instanceof Integer ? INT : element instanceof Long ? LONG : element instanceof Double ? DOUBLE : OBJECT;
+        else if (!fits(element))
+            upgrade();
+        ensureCapacity(size + 1);
+        if (mode == OBJECT) {
+            System.arraycopy(objects, index, objects, index + 1, size - index);
+            objects[index] = element;
+        } else if (mode == DOUBLE) {
+            System.arraycopy(doubles, index, doubles, index + 1, size - index);
+            doubles[index] = (Double) element;
+        } else {
+            System.arraycopy(longs, index, longs, index + 1, size - index);
+            longs[index] = ((Number) element).longValue();
+        }
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public E remove(int index) {
+        E old = get(index);
+        int n = size - index - 1;
+        if (mode == OBJECT) {
+            System.arraycopy(objects, index + 1, objects, index, n);
+            objects[size - 1] = null;
+        } else if (mode == DOUBLE) {
+            System.arraycopy(doubles, index + 1, doubles, index, n);
+        } else {
+            System.arraycopy(longs, index + 1, longs, index, n);
+        }
+        size--;
+        modCount++;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        mode = EMPTY;
+        longs = null;
+        doubles = null;
+        objects = null;
+        size = 0;
+        modCount++;
+    }
+
+    private Object box(int i) {
+        switch (mode) {
+            case INT:
+                return (int) longs[i];
+            case LONG:
+                return longs[i];
+            case DOUBLE:
+                return doubles[i];
+            default:
+                return objects[i];
+        }
+    }
+
+    private boolean fits(Object o) {
+        switch (mode) {
+            case INT:
+                return o instanceof Integer;
+            case LONG:
+                return o instanceof Long;
+            case DOUBLE:
+                return o instanceof Double;
+            default:
+                return true;
+        }
+    }
+
+    private void upgrade() {
+        Object[] a = new Object[Math.max(size, 4)];
+        for (int i = 0; i < size; i++) {
+            a[i] = box(i);
+        }
+        objects = a;
+        longs = null;
+        doubles = null;
+        mode = OBJECT;
+    }
+
+    private void ensureCapacity(int n) {
+        if (mode == OBJECT) {
+            if (objects == null)
+                objects = new Object[Math.max(n, 4)];
+            else if (n > objects.length)
+                objects = Arrays.copyOf(objects, Math.max(n, objects.length * 2));
+        } else if (mode == DOUBLE) {
+            if (doubles == null)
+                doubles = new double[Math.max(n, 4)];
+            else if (n > doubles.length)
+                doubles = Arrays.copyOf(doubles, Math.max(n, doubles.length * 2));
+        } else {
+            if (longs == null)
+                longs = new long[Math.max(n, 4)];
+            else if (n > longs.length)
+                longs = Arrays.copyOf(longs, Math.max(n, longs.length * 2));
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+package org.s1.web.formats;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Insertion-ordered map of data model objects.
+ * <br>
+ * Small maps (up to {@link #MAX_ARRAY_SIZE} entries) are stored in two arrays and searched linearly,
+ * map is upgraded to {@link LinkedHashMap} when it grows bigger.
+ * Iterators are fail-fast, entries stay bound to their keys after map is modified or upgraded.
+ *
+ * @author Grigory Pykhov
+ */
+public class CompactMap<K, V> extends AbstractMap<K, V> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Bigger maps are stored in {@link LinkedHashMap}
+     */
+    public static final int MAX_ARRAY_SIZE = 8;
+
+    private Object[] keys;
+    private Object[] values;
+    private int size;
+    private LinkedHashMap<K, V> map;
+    private transient int modCount;
+
+    /**
+     *
+     */
+    public CompactMap() {
+    }
+
+    /**
+     * @param m Map to copy
+     */
+    public CompactMap(Map<? extends K, ? extends V> m) {
+        putAll(m);
+    }
+
+    @Override
+    public int size() {
+        return map != null ? map.size() : size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return map != null ? map.containsKey(key) : indexOf(key) >= 0;
+    }
+
+    @Override
+    public V get(Object key) {
+        if (map != null)
+            return map.get(key);
+        int i = indexOf(key);
+        return i < 0 ? null : (V) values[i];
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if (map != null)
+            return map.put(key, value);
+        int i = indexOf(key);
+        if (i >= 0) {
+            V old = (V) values[i];
+            values[i] = value;
+            return old;
+        }
+        if (size == MAX_ARRAY_SIZE) {
+            map = new LinkedHashMap<K, V>(MAX_ARRAY_SIZE * 4);
+            for (int j = 0; j < size; j++) {
+                map.put((K) keys[j], (V) values[j]);
+            }
+            keys = null;
+            values = null;
+            size = 0;
+            modCount++;
+            return map.put(key, value);
+        }
+        if (keys == null) {
+            keys = new Object[4];
+            values = new Object[4];
+        } else if (size == keys.length) {
+            keys = Arrays.copyOf(keys, MAX_ARRAY_SIZE);
+            values = Arrays.copyOf(values, MAX_ARRAY_SIZE);
+        }
+        keys[size] = key;
+        values[size] = value;
+        size++;
+        modCount++;
+        return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (map != null)
+            return map.remove(key);
+        int i = indexOf(key);
+        if (i < 0)
+            return null;
+        V old = (V) values[i];
+        removeAt(i);
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        map = null;
+        keys = null;
+        values = null;
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                if (map != null)
+                    return map.entrySet().iterator();
+                return new ArrayIterator();
+            }
+
+            @Override
+            public int size() {
+                return CompactMap.this.size();
+            }
+        };
+    }
+
+    private int indexOf(Object key) {
+        Object[] k = keys;
+        for (int i = 0; i < size; i++) {
+            if (k[i] == key || (key != null && key.equals(k[i])))
+                return i;
+        }
+        return -1;
+    }
+
+    private void removeAt(int i) {
+        int n = size - i - 1;
+        if (n > 0) {
+            System.arraycopy(keys, i + 1, keys, i, n);
+            System.arraycopy(values, i + 1, values, i, n);
+        }
+        size--;
+        keys[size] = null;
+        values[size] = null;
+        modCount++;
+    }
+
+    private class ArrayIterator implements Iterator<Entry<K, V>> {
+        private int next;
+        private int last = -1;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return next != size();
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            checkModCount();
+            if (next >= size)
+                throw new NoSuchElementException();
+            last = next++;
+            final int i = last;
+            final int entryModCount = modCount;
+            return new SimpleEntry<K, V>((K) keys[i], (V) values[i]) {
+                @Override
+                public V setValue(V value) {
+                    if (map == null && modCount == entryModCount)
+                        values[i] = value;
+                    else if (containsKey(getKey()))
+                        put(getKey(), value);
+                    return super.setValue(value);
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0)
+                throw new IllegalStateException();
+            checkModCount();
+            removeAt(last);
+            next = last;
+            last = -1;
+            expectedModCount = modCount;
+        }
+
+        private void checkModCount() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+}
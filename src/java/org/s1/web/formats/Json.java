@@ -0,0 +1,185 @@
+package org.s1.web.formats;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.ReaderInputStream;
+import org.apache.commons.io.output.WriterOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.Date;
+
+/**
+ * JSON helper, reads and writes Map/List model with {@link JsonReader} and {@link JsonWriter}.
+ * <br>
+ * Dates are converted on wire: <code>"/Date(1234567890)/"</code>
+ *
+ * @author Grigory Pykhov
+ */
+public class Json {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private Json() {
+    }
+
+    /**
+     * Read one JSON value from stream
+     *
+     * @param in       Stream
+     * @param encoding Encoding (null - UTF-8)
+     * @param <T>      Type
+     * @return Value
+     * @throws IOException IOException
+     */
+    public static <T> T read(InputStream in, String encoding) throws IOException {
+        if (isUTF8(encoding))
+            return read(new JsonReader(in));
+        return read(new String(IOUtils.toByteArray(in), encoding).getBytes(UTF8));
+    }
+
+    /**
+     * Read one JSON value from stream and bind it to bean (see {@link JsonBinding})
+     *
+     * @param in       Stream
+     * @param encoding Encoding (null - UTF-8)
+     * @param type     Bean class
+     * @param <T>      Type
+     * @return Bean
+     * @throws IOException IOException
+     */
+    public static <T> T read(InputStream in, String encoding, Class<T> type) throws IOException {
+        if (!isUTF8(encoding))
+            in = new ReaderInputStream(new InputStreamReader(in, Charset.forName(encoding)), UTF8);
+        JsonReader r = new JsonReader(in);
+        T t = (T) JsonBinding.read(r, r.next(), type);
+        if (r.next() != JsonReader.END)
+            throw new IllegalArgumentException("Unexpected data after JSON value at " + r.getTokenStart());
+        return t;
+    }
+
+    /**
+     * Read one JSON value from bytes
+     *
+     * @param json UTF-8 JSON
+     * @param <T>  Type
+     * @return Value
+     */
+    public static <T> T read(byte[] json) {
+        try {
+            return read(new JsonReader(json));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Read one JSON value from string
+     *
+     * @param json JSON
+     * @param <T>  Type
+     * @return Value
+     */
+    public static <T> T read(String json) {
+        return read(json.getBytes(UTF8));
+    }
+
+    /**
+     * Write value to stream
+     *
+     * @param value    Value
+     * @param out      Stream
+     * @param encoding Encoding (null - UTF-8)
+     * @throws IOException IOException
+     */
+    public static void write(Object value, OutputStream out, String encoding) throws IOException {
+        JsonWriter w = newWriter(out, encoding);
+        w.writeValue(value);
+        w.flush();
+    }
+
+    /**
+     * Writer to stream in encoding, non-ASCII characters are escaped in ASCII-compatible encodings
+     * and transcoded in others (UTF-16 etc.)
+     *
+     * @param out      Stream
+     * @param encoding Encoding (null - UTF-8)
+     * @return Writer
+     */
+    public static JsonWriter newWriter(OutputStream out, String encoding) {
+        if (isUTF8(encoding))
+            return new JsonWriter(out);
+        if (isASCIICompatible(encoding))
+            return new JsonWriter(out, true);
+        return new JsonWriter(new WriterOutputStream(new OutputStreamWriter(out, Charset.forName(encoding)), UTF8));
+    }
+
+    /**
+     * @param value Value
+     * @return UTF-8 JSON
+     */
+    public static byte[] toBytes(Object value) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            JsonWriter w = new JsonWriter(bos);
+            w.writeValue(value);
+            w.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * @param value Value
+     * @return JSON
+     */
+    public static String toJSON(Object value) {
+        return new String(toBytes(value), UTF8);
+    }
+
+    /**
+     * Convert wire string to Date if it looks like <code>/Date(1234567890)/</code>
+     *
+     * @param s String
+     * @return Date or the same string
+     */
+    public static Object fromWire(String s) {
+        int l = s.length();
+        if (l < 9 || s.charAt(0) != '/' || s.charAt(l - 1) != '/' || s.charAt(l - 2) != ')'
+                || !s.regionMatches(true, 1, "Date(", 0, 5))
+            return s;
+        try {
+            return new Date(Long.parseLong(s.substring(6, l - 2)));
+        } catch (NumberFormatException e) {
+            return s;
+        }
+    }
+
+    /**
+     * @param encoding Encoding
+     * @return True for UTF-8 (and null)
+     */
+    public static boolean isUTF8(String encoding) {
+        return encoding == null || "UTF-8".equalsIgnoreCase(encoding) || "UTF8".equalsIgnoreCase(encoding);
+    }
+
+    private static <T> T read(JsonReader r) throws IOException {
+        r.setDates(true);
+        Object o = r.readValue();
+        if (r.next() != JsonReader.END)
+            throw new IllegalArgumentException("Unexpected data after JSON value at " + r.getTokenStart());
+        return (T) o;
+    }
+
+    private static boolean isASCIICompatible(String encoding) {
+        String e = encoding.toUpperCase();
+        return !e.startsWith("UTF-16") && !e.startsWith("UTF-32") && !e.startsWith("UTF16") && !e.startsWith("UTF32")
+                && !e.startsWith("UNICODE") && !e.contains("EBCDIC") && !e.startsWith("IBM0") && !e.startsWith("CP0");
+    }
+
+}
@@ -0,0 +1,243 @@
+package org.s1.web.formats;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parallel parser of large top-level JSON array.
+ * <br>
+ * Element boundaries are found with one quick pass (strings are skipped, nothing is decoded),
+ * then ranges of elements are decoded on fork-join pool, each element with its own {@link JsonReader}
+ * (keys are shared with {@link KeyTable#getShared()}).
+ * Elements are returned in original order, as Map/List model or beans (see {@link JsonBinding}).
+ * <br>
+ * Small arrays (less than {@link #getMinParallelSize()} bytes) are parsed in calling thread.
+ *
+ * @author Grigory Pykhov
+ */
+public class JsonArrayParser {
+
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    private static volatile ForkJoinPool pool;
+    private static ForkJoinPool defaultPool;
+    private static volatile int minParallelSize = 1024 * 1024;
+
+    private JsonArrayParser() {
+    }
+
+    /**
+     * @return Arrays smaller than this size (in bytes) are parsed in calling thread
+     */
+    public static int getMinParallelSize() {
+        return minParallelSize;
+    }
+
+    /**
+     * @param minParallelSize Arrays smaller than this size (in bytes) are parsed in calling thread
+     */
+    public static void setMinParallelSize(int minParallelSize) {
+        JsonArrayParser.minParallelSize = minParallelSize;
+    }
+
+    /**
+     * @param pool Pool for parsing (by default pool with parallelism equal to processors count is created)
+     */
+    public static void setPool(ForkJoinPool pool) {
+        JsonArrayParser.pool = pool;
+    }
+
+    /**
+     * @return Pool for parsing
+     */
+    public static ForkJoinPool getPool() {
+        if (pool == null) {
+            synchronized (JsonArrayParser.class) {
+                if (pool == null)
+                    pool = defaultPool = new ForkJoinPool();
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Stop default pool (pool passed to {@link #setPool(ForkJoinPool)} is not stopped),
+     * it is called from {@link org.s1.web.services.ServiceDispatcherServlet.Operations#shutdown()}
+     */
+    public static void shutdown() {
+        ForkJoinPool p;
+        synchronized (JsonArrayParser.class) {
+            p = defaultPool;
+            defaultPool = null;
+            if (pool == p)
+                pool = null;
+        }
+        if (p != null)
+            p.shutdown();
+    }
+
+    /**
+     * Parse top-level JSON array
+     *
+     * @param json UTF-8 JSON
+     * @param type Bean class (null - Map/List model)
+     * @param <T>  Type
+     * @return Elements
+     */
+    public static <T> List<T> parse(byte[] json, Class<T> type) {
+        return parse(json, 0, json.length, type);
+    }
+
+    /**
+     * Parse top-level JSON array
+     *
+     * @param json   UTF-8 JSON
+     * @param off    Start
+     * @param length Length
+     * @param type   Bean class (null - Map/List model)
+     * @param <T>    Type
+     * @return Elements
+     */
+    public static <T> List<T> parse(byte[] json, int off, int length, Class<T> type) {
+        int[] bounds = scan(json, off, off + length);
+        int n = bounds.length / 2;
+        Object[] result = new Object[n];
+        if (length < minParallelSize)
+            parse(json, bounds, type, result, 0, n);
+        else
+            getPool().invoke(new Task(json, bounds, type, result, 0, n));
+        List<T> list = new CompactList<T>();
+        for (Object o : result) {
+            list.add((T) o);
+        }
+        return list;
+    }
+
+    /**
+     * @return Start and end of every element
+     */
+    private static int[] scan(byte[] data, int p, int end) {
+        p = skipWhitespace(data, p, end);
+        if (p >= end || data[p] != '[')
+            throw new IllegalArgumentException("JSON array expected");
+        p++;
+        int[] bounds = new int[256];
+        int size = 0;
+        int depth = 0;
+        int start = -1;
+        while (p < end) {
+            int c = data[p];
+            if (c == '"') {
+                if (start < 0)
+                    start = p;
+                p++;
+                while (true) {
+                    if (p >= end)
+                        throw new IllegalArgumentException("Unexpected end of JSON");
+                    int b = data[p++];
+                    if (b == '\\')
+                        p++;
+                    else if (b == '"')
+                        break;
+                }
+                continue;
+            }
+            if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (depth == 0) {
+                    if (c != ']')
+                        throw new IllegalArgumentException("Unexpected character '" + (char) c + "' at " + p);
+                    if (start >= 0 || size > 0) {
+                        if (start < 0)
+                            throw new IllegalArgumentException("Expected value at " + p);
+                        size = add(bounds = grow(bounds, size), size, start, p);
+                    }
+                    if (skipWhitespace(data, p + 1, end) != end)
+                        throw new IllegalArgumentException("Unexpected data after JSON value at " + (p + 1));
+                    return Arrays.copyOf(bounds, size);
+                }
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                if (start < 0)
+                    throw new IllegalArgumentException("Expected value at " + p);
+                size = add(bounds = grow(bounds, size), size, start, p);
+                start = -1;
+                p++;
+                continue;
+            }
+            if (start < 0 && c != ' ' && c != '\n' && c != '\r' && c != '\t')
+                start = p;
+            p++;
+        }
+        throw new IllegalArgumentException("Unexpected end of JSON");
+    }
+
+    private static void parse(byte[] data, int[] bounds, Class<?> type, Object[] result, int from, int to) {
+        try {
+            for (int i = from; i < to; i++) {
+                int start = bounds[i * 2];
+                JsonReader r = new JsonReader(data, start, bounds[i * 2 + 1] - start)
+                        .setDates(true).setKeyTable(KeyTable.getShared());
+                int t = r.next();
+                result[i] = type == null ? r.readValue(t) : JsonBinding.read(r, t, type);
+                if (r.next() != JsonReader.END)
+                    throw new IllegalArgumentException("Unexpected data after JSON value at " + r.getTokenStart());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int[] grow(int[] bounds, int size) {
+        return size + 2 > bounds.length ? Arrays.copyOf(bounds, bounds.length * 2) : bounds;
+    }
+
+    private static int add(int[] bounds, int size, int start, int end) {
+        bounds[size] = start;
+        bounds[size + 1] = end;
+        return size + 2;
+    }
+
+    private static int skipWhitespace(byte[] data, int p, int end) {
+        while (p < end && (data[p] == ' ' || data[p] == '\n' || data[p] == '\r' || data[p] == '\t'))
+            p++;
+        return p;
+    }
+
+    /**
+     * Parse range of elements, splits range until it is smaller than chunk
+     */
+    private static class Task extends RecursiveAction {
+        private final byte[] data;
+        private final int[] bounds;
+        private final Class<?> type;
+        private final Object[] result;
+        private final int from;
+        private final int to;
+
+        private Task(byte[] data, int[] bounds, Class<?> type, Object[] result, int from, int to) {
+            this.data = data;
+            this.bounds = bounds;
+            this.type = type;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1 && bounds[to * 2 - 1] - bounds[from * 2] > CHUNK_SIZE) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Task(data, bounds, type, result, from, mid),
+                        new Task(data, bounds, type, result, mid, to));
+                return;
+            }
+            parse(data, bounds, type, result, from, to);
+        }
+    }
+
+}
@@ -0,0 +1,409 @@
+package org.s1.web.formats;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binding between JSON and beans without intermediate maps.
+ * <br>
+ * Bean properties are setters/getters and public fields, property types may be generic List, Set, Map or arrays.
+ * Binding plan of every class is computed once and cached.
+ * Unknown JSON keys are skipped, conversion errors are thrown as IllegalArgumentException.
+ *
+ * @author Grigory Pykhov
+ */
+public class JsonBinding {
+
+    private static final Map<Class<?>, Plan> plans = new ConcurrentHashMap<Class<?>, Plan>();
+
+    private JsonBinding() {
+    }
+
+    /**
+     * Read bean from JSON
+     *
+     * @param json UTF-8 JSON
+     * @param type Bean class
+     * @param <T>  Type
+     * @return Bean
+     */
+    public static <T> T read(byte[] json, Class<T> type) {
+        return read(json, 0, json.length, type);
+    }
+
+    /**
+     * Read bean from JSON
+     *
+     * @param json   UTF-8 JSON
+     * @param off    Start
+     * @param length Length
+     * @param type   Bean class
+     * @param <T>    Type
+     * @return Bean
+     */
+    public static <T> T read(byte[] json, int off, int length, Class<T> type) {
+        try {
+            JsonReader r = new JsonReader(json, off, length);
+            T t = (T) read(r, r.next(), type);
+            if (r.next() != JsonReader.END)
+                throw new IllegalArgumentException("Unexpected data after JSON value at " + r.getTokenStart());
+            return t;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Read value of type starting from current token
+     *
+     * @param r     Reader
+     * @param token Current token
+     * @param type  Type (Class or ParameterizedType)
+     * @return Value
+     * @throws IOException IOException
+     */
+    public static Object read(JsonReader r, int token, Type type) throws IOException {
+        Class<?> cls = rawClass(type);
+        if (token == JsonReader.NULL)
+            return cls.isPrimitive() ? Types.cast(null, cls) : null;
+        if (cls == Object.class)
+            return r.setDates(true).readValue(token);
+        if (token == JsonReader.BEGIN_OBJECT) {
+            if (Map.class.isAssignableFrom(cls)) {
+                Type vt = typeArgument(type, 1);
+                Map<Object, Object> m = cls.isInterface() ? new HashMap<Object, Object>() : (Map<Object, Object>) newInstance(cls);
+                while (r.next() == JsonReader.NAME) {
+                    String name = r.getString();
+                    m.put(name, read(r, r.next(), vt));
+                }
+                return m;
+            }
+            if (!isBean(cls))
+                throw new IllegalArgumentException("Cannot bind JSON object to " + type);
+            Plan plan = getPlan(cls);
+            Object bean = newInstance(cls);
+            while (r.next() == JsonReader.NAME) {
+                Property p = plan.properties.get(r.getString());
+                int t = r.next();
+                if (p == null || !p.isWritable()) {
+                    r.skipValue();
+                    continue;
+                }
+                p.set(bean, read(r, t, p.type));
+            }
+            return bean;
+        }
+        if (token == JsonReader.BEGIN_ARRAY) {
+            Type et = cls.isArray() ? cls.getComponentType() : typeArgument(type, 0);
+            Collection<Object> c;
+            if (cls.isArray() || cls.isAssignableFrom(ArrayList.class))
+                c = new ArrayList<Object>();
+            else if (cls.isAssignableFrom(HashSet.class))
+                c = new HashSet<Object>();
+            else if (Collection.class.isAssignableFrom(cls) && !cls.isInterface())
+                c = (Collection<Object>) newInstance(cls);
+            else
+                throw new IllegalArgumentException("Cannot bind JSON array to " + type);
+            int t;
+            while ((t = r.next()) != JsonReader.END_ARRAY) {
+                c.add(read(r, t, et));
+            }
+            if (cls.isArray()) {
+                Object a = Array.newInstance(cls.getComponentType(), c.size());
+                int i = 0;
+                for (Object o : c) {
+                    Array.set(a, i++, o);
+                }
+                return a;
+            }
+            return c;
+        }
+        Object v = r.readValue(token);
+        if (v instanceof String && cls == Date.class)
+            v = Json.fromWire((String) v);
+        return convertScalar(v, cls);
+    }
+
+    /**
+     * Write bean properties as JSON object
+     *
+     * @param w    Writer
+     * @param bean Bean
+     * @throws IOException IOException
+     */
+    public static void write(JsonWriter w, Object bean) throws IOException {
+        Plan plan = getPlan(bean.getClass());
+        w.beginObject();
+        for (Property p : plan.list) {
+            if (p.isReadable()) {
+                w.name(p.name);
+                w.writeValue(p.get(bean));
+            }
+        }
+        w.endObject();
+    }
+
+    /**
+     * Convert Map/List model to type
+     *
+     * @param value Model value
+     * @param type  Type
+     * @return Value
+     */
+    public static Object convert(Object value, Type type) {
+        Class<?> cls = rawClass(type);
+        if (value == null)
+            return cls.isPrimitive() ? Types.cast(null, cls) : null;
+        if (cls == Object.class)
+            return value;
+        if (value instanceof Map) {
+            if (Map.class.isAssignableFrom(cls)) {
+                Type vt = typeArgument(type, 1);
+                Map<Object, Object> m = cls.isInterface() ? new HashMap<Object, Object>() : (Map<Object, Object>) newInstance(cls);
+                for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                    m.put(e.getKey(), convert(e.getValue(), vt));
+                }
+                return m;
+            }
+            if (!isBean(cls))
+                throw new IllegalArgumentException("Cannot convert map to " + type);
+            Plan plan = getPlan(cls);
+            Object bean = newInstance(cls);
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                Property p = plan.properties.get(String.valueOf(e.getKey()));
+                if (p != null && p.isWritable())
+                    p.set(bean, convert(e.getValue(), p.type));
+            }
+            return bean;
+        }
+        if (value instanceof Collection) {
+            Type et = cls.isArray() ? cls.getComponentType() : typeArgument(type, 0);
+            Collection<?> src = (Collection<?>) value;
+            if (cls.isArray()) {
+                Object a = Array.newInstance(cls.getComponentType(), src.size());
+                int i = 0;
+                for (Object o : src) {
+                    Array.set(a, i++, convert(o, et));
+                }
+                return a;
+            }
+            Collection<Object> c;
+            if (cls.isAssignableFrom(ArrayList.class))
+                c = new ArrayList<Object>(src.size());
+            else if (cls.isAssignableFrom(HashSet.class))
+                c = new HashSet<Object>();
+            else if (Collection.class.isAssignableFrom(cls) && !cls.isInterface())
+                c = (Collection<Object>) newInstance(cls);
+            else
+                throw new IllegalArgumentException("Cannot convert list to " + type);
+            for (Object o : src) {
+                c.add(convert(o, et));
+            }
+            return c;
+        }
+        return convertScalar(value, cls);
+    }
+
+    /**
+     * @param cls Class
+     * @return False for primitives, arrays, enums, abstract classes, collections, maps, scalars and other JDK classes
+     */
+    public static boolean isBean(Class<?> cls) {
+        if (cls.isPrimitive() || cls.isArray() || cls.isEnum() || cls.isInterface() || Modifier.isAbstract(cls.getModifiers()))
+            return false;
+        if (Map.class.isAssignableFrom(cls) || Collection.class.isAssignableFrom(cls))
+            return false;
+        return !cls.getName().startsWith("java.") && !cls.getName().startsWith("javax.");
+    }
+
+    /**
+     * Convert bean to Map/List model
+     *
+     * @param bean Bean
+     * @return Map
+     */
+    public static Map<String, Object> toMap(Object bean) {
+        Plan plan = getPlan(bean.getClass());
+        Map<String, Object> m = new HashMap<String, Object>();
+        for (Property p : plan.list) {
+            if (p.isReadable())
+                m.put(p.name, toModel(p.get(bean)));
+        }
+        return m;
+    }
+
+    private static Object toModel(Object val) {
+        if (val == null || val instanceof String || val instanceof Number || val instanceof Boolean || val instanceof Date)
+            return val;
+        if (val instanceof Map) {
+            Map<Object, Object> m = new HashMap<Object, Object>();
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) val).entrySet()) {
+                m.put(e.getKey(), toModel(e.getValue()));
+            }
+            return m;
+        }
+        if (val instanceof Collection) {
+            List<Object> l = new ArrayList<Object>(((Collection<?>) val).size());
+            for (Object o : (Collection<?>) val) {
+                l.add(toModel(o));
+            }
+            return l;
+        }
+        if (val.getClass().isArray()) {
+            int n = Array.getLength(val);
+            List<Object> l = new ArrayList<Object>(n);
+            for (int i = 0; i < n; i++) {
+                l.add(toModel(Array.get(val, i)));
+            }
+            return l;
+        }
+        if (val instanceof Enum || val instanceof Character || val instanceof CharSequence)
+            return val.toString();
+        return toMap(val);
+    }
+
+    private static Object convertScalar(Object v, Class<?> cls) {
+        if (cls.isInstance(v))
+            return v;
+        try {
+            return Types.cast(v, cls);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Cannot convert " + v + " to " + cls.getName(), e);
+        }
+    }
+
+    private static Plan getPlan(Class<?> cls) {
+        Plan p = plans.get(cls);
+        if (p == null) {
+            p = new Plan(cls);
+            plans.put(cls, p);
+        }
+        return p;
+    }
+
+    private static Object newInstance(Class<?> cls) {
+        try {
+            return cls.newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Cannot instantiate " + cls.getName(), e);
+        }
+    }
+
+    private static Class<?> rawClass(Type type) {
+        if (type instanceof Class)
+            return (Class<?>) type;
+        if (type instanceof ParameterizedType)
+            return rawClass(((ParameterizedType) type).getRawType());
+        if (type instanceof GenericArrayType)
+            return Array.newInstance(rawClass(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        if (type instanceof WildcardType)
+            return rawClass(((WildcardType) type).getUpperBounds()[0]);
+        return Object.class;
+    }
+
+    private static Type typeArgument(Type type, int i) {
+        if (type instanceof ParameterizedType) {
+            Type[] args = ((ParameterizedType) type).getActualTypeArguments();
+            if (i < args.length)
+                return args[i];
+        }
+        if (type instanceof GenericArrayType)
+            return ((GenericArrayType) type).getGenericComponentType();
+        return Object.class;
+    }
+
+    /**
+     * Binding plan of class
+     */
+    private static class Plan {
+        private final Map<String, Property> properties = new HashMap<String, Property>();
+        private final List<Property> list = new ArrayList<Property>();
+
+        private Plan(Class<?> cls) {
+            BeanInfo info;
+            try {
+                info = Introspector.getBeanInfo(cls);
+            } catch (IntrospectionException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+            for (PropertyDescriptor pd : info.getPropertyDescriptors()) {
+                if ("class".equals(pd.getName()))
+                    continue;
+                Method w = pd.getWriteMethod();
+                Method r = pd.getReadMethod();
+                if (w == null && r == null)
+                    continue;
+                Type t = w != null ? w.getGenericParameterTypes()[0] : r.getGenericReturnType();
+                add(new Property(pd.getName(), t, w, r, null));
+            }
+            for (Field f : cls.getFields()) {
+                int mod = f.getModifiers();
+                if (Modifier.isStatic(mod) || Modifier.isTransient(mod) || properties.containsKey(f.getName()))
+                    continue;
+                add(new Property(f.getName(), f.getGenericType(), null, null, f));
+            }
+        }
+
+        private void add(Property p) {
+            properties.put(p.name, p);
+            list.add(p);
+        }
+    }
+
+    /**
+     * Bean property
+     */
+    private static class Property {
+        private final String name;
+        private final Type type;
+        private final Method setter;
+        private final Method getter;
+        private final Field field;
+
+        private Property(String name, Type type, Method setter, Method getter, Field field) {
+            this.name = name;
+            this.type = type;
+            this.setter = setter;
+            this.getter = getter;
+            this.field = field;
+        }
+
+        private boolean isWritable() {
+            return setter != null || (field != null && !Modifier.isFinal(field.getModifiers()));
+        }
+
+        private boolean isReadable() {
+            return getter != null || field != null;
+        }
+
+        private void set(Object bean, Object value) {
+            try {
+                if (setter != null)
+                    setter.invoke(bean, value);
+                else
+                    field.set(bean, value);
+            } catch (InvocationTargetException e) {
+                throw new IllegalArgumentException("Cannot set property " + name + " of " + bean.getClass().getName(), e.getCause());
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Cannot set property " + name + " of " + bean.getClass().getName(), e);
+            }
+        }
+
+        private Object get(Object bean) {
+            try {
+                return getter != null ? getter.invoke(bean) : field.get(bean);
+            } catch (InvocationTargetException e) {
+                throw new IllegalArgumentException("Cannot get property " + name + " of " + bean.getClass().getName(), e.getCause());
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Cannot get property " + name + " of " + bean.getClass().getName(), e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,34 @@
+package org.s1.web.formats;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * JSON codec (see {@link Json}), beans are bound directly from tokens
+ *
+ * @author Grigory Pykhov
+ */
+public class JsonCodec implements Codec {
+
+    @Override
+    public String getMediaType() {
+        return Codecs.JSON;
+    }
+
+    @Override
+    public Object read(InputStream in, String encoding) throws IOException {
+        return Json.read(in, encoding);
+    }
+
+    @Override
+    public <T> T read(InputStream in, String encoding, Class<T> type) throws IOException {
+        return Json.read(in, encoding, type);
+    }
+
+    @Override
+    public void write(Object value, OutputStream out, String encoding) throws IOException {
+        Json.write(value, out, encoding);
+    }
+
+}
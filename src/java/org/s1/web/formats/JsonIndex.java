@@ -0,0 +1,288 @@
+package org.s1.web.formats;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Structural index over raw UTF-8 JSON.
+ * <br>
+ * Only token offsets are stored (<code>int[]</code>), values are decoded when they are requested
+ * with Maps-style path (<code>a.b[2].c</code>, see {@link Maps#get(java.util.Map, String)}).
+ * Index is built with one pass without decoding strings and numbers,
+ * so syntax errors inside values are reported only when they are read.
+ *
+ * @author Grigory Pykhov
+ */
+public class JsonIndex {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final byte[] data;
+    private final int start;
+    private final int end;
+    private int[] offsets = new int[64];
+    //index of the token after value (next sibling)
+    private int[] next = new int[64];
+    private int size;
+
+    /**
+     * @param data UTF-8 JSON
+     */
+    public JsonIndex(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    /**
+     * @param data   UTF-8 JSON
+     * @param off    Start
+     * @param length Length
+     */
+    public JsonIndex(byte[] data, int off, int length) {
+        this.data = data;
+        this.start = off;
+        this.end = off + length;
+        scan();
+    }
+
+    /**
+     * @return Raw JSON
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return Start of JSON in {@link #getData()}
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * @return Length of JSON in {@link #getData()}
+     */
+    public int getLength() {
+        return end - start;
+    }
+
+    /**
+     * @return Tokens count (keys and values)
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return True if top-level value is object
+     */
+    public boolean isObject() {
+        return data[offsets[0]] == '{';
+    }
+
+    /**
+     * Decode value from path
+     *
+     * @param path Path
+     * @param def  Default (if value is not found or null)
+     * @param <T>  Type
+     * @return Value
+     */
+    public <T> T get(String path, T def) {
+        int t = find(path);
+        if (t < 0)
+            return def;
+        Object o = read(t);
+        return o == null ? def : (T) o;
+    }
+
+    /**
+     * Find token of value
+     *
+     * @param path Path
+     * @return Token index (or -1 if not found)
+     */
+    public int find(String path) {
+        int t = 0;
+        for (String part : Maps.tokenizePath(path)) {
+            t = child(t, Maps.getLocalName(part));
+            int[] n = Maps.getNumber(part);
+            if (n != null) {
+                for (int i = 0; i < n.length && t >= 0; i++) {
+                    t = element(t, n[i]);
+                }
+            }
+            if (t < 0)
+                return -1;
+        }
+        return t;
+    }
+
+    /**
+     * Decode whole document
+     *
+     * @param <T> Type
+     * @return Value
+     */
+    public <T> T read() {
+        return (T) read(0);
+    }
+
+    /**
+     * Decode value
+     *
+     * @param token Token index
+     * @return Value
+     */
+    public Object read(int token) {
+        try {
+            return new JsonReader(data, offsets[token], end - offsets[token]).setDates(true).readValue();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int child(int t, String name) {
+        if (data[offsets[t]] != '{')
+            return -1;
+        byte[] key = null;
+        for (int i = t + 1; i < next[t]; i = next[i + 1]) {
+            if (key == null)
+                key = name.getBytes(UTF8);
+            if (keyEquals(offsets[i], key, name))
+                return i + 1;
+        }
+        return -1;
+    }
+
+    private int element(int t, int index) {
+        if (data[offsets[t]] != '[' || index < 0)
+            return -1;
+        int n = 0;
+        for (int i = t + 1; i < next[t]; i = next[i]) {
+            if (n++ == index)
+                return i;
+        }
+        return -1;
+    }
+
+    private boolean keyEquals(int off, byte[] key, String name) {
+        int p = off + 1;
+        for (int i = 0; i < key.length; i++, p++) {
+            if (p >= end || data[p] == '\\')
+                return name.equals(decodeKey(off));
+            if (data[p] != key[i])
+                return false;
+        }
+        if (p < end && data[p] == '\\')
+            return name.equals(decodeKey(off));
+        return p < end && data[p] == '"';
+    }
+
+    private String decodeKey(int off) {
+        try {
+            JsonReader r = new JsonReader(data, off, end - off);
+            r.next();
+            return r.getString();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void scan() {
+        int[] stack = new int[32];
+        //children count of containers
+        int[] counts = new int[32];
+        int depth = 0;
+        int p = start;
+        //value was just completed, separator or end of container is expected
+        boolean afterValue = false;
+        while (p < end) {
+            int c = data[p];
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                p++;
+                continue;
+            }
+            if (c == ',' || c == ':') {
+                //':' after object key, ',' after array element or object value
+                if (depth == 0 || !afterValue)
+                    throw error(p);
+                boolean key = data[offsets[stack[depth - 1]]] == '{' && counts[depth - 1] % 2 != 0;
+                if (c != (key ? ':' : ','))
+                    throw error(p);
+                afterValue = false;
+                p++;
+                continue;
+            }
+            if (c == '}' || c == ']') {
+                if (depth == 0 || data[offsets[stack[depth - 1]]] != (c == '}' ? '{' : '['))
+                    throw error(p);
+                if (c == '}' && counts[depth - 1] % 2 != 0)
+                    throw error(p);
+                if (!afterValue && counts[depth - 1] > 0)
+                    throw error(p);
+                depth--;
+                next[stack[depth]] = size;
+                afterValue = true;
+                p++;
+                continue;
+            }
+            if (afterValue)
+                throw error(p);
+            if (depth > 0) {
+                //object keys are strings
+                if (data[offsets[stack[depth - 1]]] == '{' && counts[depth - 1] % 2 == 0 && c != '"')
+                    throw error(p);
+                counts[depth - 1]++;
+            }
+            int t = add(p);
+            afterValue = c != '{' && c != '[';
+            if (c == '{' || c == '[') {
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                    counts = Arrays.copyOf(counts, depth * 2);
+                }
+                stack[depth] = t;
+                counts[depth] = 0;
+                depth++;
+                p++;
+            } else if (c == '"') {
+                p++;
+                while (true) {
+                    if (p >= end)
+                        throw error(p);
+                    int b = data[p++];
+                    if (b == '\\')
+                        p++;
+                    else if (b == '"')
+                        break;
+                }
+                next[t] = size;
+            } else {
+                while (p < end) {
+                    int b = data[p];
+                    if (b == ',' || b == ']' || b == '}' || b == ':' || b == ' ' || b == '\n' || b == '\r' || b == '\t')
+                        break;
+                    p++;
+                }
+                next[t] = size;
+            }
+        }
+        if (depth > 0 || size == 0)
+            throw error(p);
+    }
+
+    private int add(int offset) {
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            next = Arrays.copyOf(next, size * 2);
+        }
+        offsets[size] = offset;
+        return size++;
+    }
+
+    private IllegalArgumentException error(int p) {
+        return new IllegalArgumentException(p >= end ? "Unexpected end of JSON" : "Unexpected character '" + (char) (data[p] & 0xFF) + "' at " + p);
+    }
+
+}
@@ -0,0 +1,582 @@
+package org.s1.web.formats;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * Streaming JSON pull parser, reads UTF-8 bytes directly from stream (or byte array).
+ * <br>
+ * Call {@link #next()} to get next token, {@link #getString()} and {@link #getNumber()} for its value,
+ * or {@link #readValue()} to read whole value as Map/List model.
+ * Several top-level values may follow each other (e.g. newline-delimited JSON), {@link #END} is returned at the end of input.
+ * <br>
+ * Numbers are Integer, Long, BigInteger (integers) or BigDecimal, like in JsonSlurper.
+ * If {@link #setDates(boolean)} is set, string values like <code>/Date(1234567890)/</code> are converted to Date.
+ * <br>
+ * Input is strict JSON: raw control characters (below 0x20) inside strings are rejected, they must be escaped
+ * (JsonSlurper accepted them).
+ *
+ * @author Grigory Pykhov
+ */
+public class JsonReader implements Closeable {
+
+    /**
+     * End of input
+     */
+    public static final int END = 0;
+
+    /**
+     * <code>{</code>
+     */
+    public static final int BEGIN_OBJECT = 1;
+
+    /**
+     * <code>}</code>
+     */
+    public static final int END_OBJECT = 2;
+
+    /**
+     * <code>[</code>
+     */
+    public static final int BEGIN_ARRAY = 3;
+
+    /**
+     * <code>]</code>
+     */
+    public static final int END_ARRAY = 4;
+
+    /**
+     * Object key
+     */
+    public static final int NAME = 5;
+
+    /**
+     * String value
+     */
+    public static final int STRING = 6;
+
+    /**
+     * Number value
+     */
+    public static final int NUMBER = 7;
+
+    /**
+     * <code>true</code>
+     */
+    public static final int TRUE = 8;
+
+    /**
+     * <code>false</code>
+     */
+    public static final int FALSE = 9;
+
+    /**
+     * <code>null</code>
+     */
+    public static final int NULL = 10;
+
+    private static final int TOP = 0;
+    private static final int EMPTY_OBJECT = 1;
+    private static final int NONEMPTY_OBJECT = 2;
+    private static final int DANGLING_NAME = 3;
+    private static final int EMPTY_ARRAY = 4;
+    private static final int NONEMPTY_ARRAY = 5;
+
+    private final InputStream in;
+    private byte[] buf;
+    private int pos;
+    private int limit;
+    private long offset;
+
+    private char[] chars = new char[64];
+    private int charsLength;
+
+    private int[] stack = new int[32];
+    private int depth = 1;
+
+    private int token = -1;
+    private long tokenStart;
+    private String string;
+    private Number number;
+    private boolean dates;
+    private KeyTable keys;
+
+    /**
+     * @param in UTF-8 stream
+     */
+    public JsonReader(InputStream in) {
+        this.in = in;
+        this.buf = new byte[8192];
+    }
+
+    /**
+     * @param data UTF-8 bytes
+     */
+    public JsonReader(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    /**
+     * @param data   UTF-8 bytes
+     * @param off    Start
+     * @param length Length
+     */
+    public JsonReader(byte[] data, int off, int length) {
+        this.in = null;
+        this.buf = data;
+        this.pos = off;
+        this.limit = off + length;
+    }
+
+    /**
+     * Object keys are resolved to shared strings with per-reader table by default
+     *
+     * @param keys Key table (e.g. {@link KeyTable#getShared()} to reuse keys learned from other payloads)
+     * @return JsonReader
+     */
+    public JsonReader setKeyTable(KeyTable keys) {
+        this.keys = keys;
+        return this;
+    }
+
+    /**
+     * Convert <code>/Date(n)/</code> string values to Date
+     *
+     * @param dates Convert dates
+     * @return JsonReader
+     */
+    public JsonReader setDates(boolean dates) {
+        this.dates = dates;
+        return this;
+    }
+
+    /**
+     * @return Current token
+     */
+    public int getToken() {
+        return token;
+    }
+
+    /**
+     * @return Current token offset in bytes from start of input
+     */
+    public long getTokenStart() {
+        return tokenStart;
+    }
+
+    /**
+     * @return Nesting depth (0 - top level)
+     */
+    public int getDepth() {
+        return depth - 1;
+    }
+
+    /**
+     * @return Value of {@link #NAME} or {@link #STRING} token
+     */
+    public String getString() {
+        return string;
+    }
+
+    /**
+     * @return Value of {@link #NUMBER} token
+     */
+    public Number getNumber() {
+        return number;
+    }
+
+    /**
+     * Read next token
+     *
+     * @return Token
+     * @throws IOException IOException
+     */
+    public int next() throws IOException {
+        string = null;
+        number = null;
+        int c = skipWhitespace();
+        switch (stack[depth - 1]) {
+            case EMPTY_OBJECT:
+                if (c == '}')
+                    return pop(END_OBJECT);
+                return readName(c);
+            case NONEMPTY_OBJECT:
+                if (c == '}')
+                    return pop(END_OBJECT);
+                if (c != ',')
+                    throw error(c, "',' or '}'");
+                return readName(skipWhitespace());
+            case DANGLING_NAME:
+                if (c != ':')
+                    throw error(c, "':'");
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                return readValueToken(skipWhitespace());
+            case EMPTY_ARRAY:
+                if (c == ']')
+                    return pop(END_ARRAY);
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                return readValueToken(c);
+            case NONEMPTY_ARRAY:
+                if (c == ']')
+                    return pop(END_ARRAY);
+                if (c != ',')
+                    throw error(c, "',' or ']'");
+                return readValueToken(skipWhitespace());
+            default:
+                if (c < 0) {
+                    tokenStart = offset + pos;
+                    return token = END;
+                }
+                return readValueToken(c);
+        }
+    }
+
+    /**
+     * Read next value
+     *
+     * @return Map, List, String, Number, Boolean, Date or null
+     * @throws IOException IOException
+     */
+    public Object readValue() throws IOException {
+        return readValue(next());
+    }
+
+    /**
+     * Read value starting from token
+     *
+     * @param t Current token
+     * @return Map, List, String, Number, Boolean, Date or null
+     * @throws IOException IOException
+     */
+    public Object readValue(int t) throws IOException {
+        switch (t) {
+            case BEGIN_OBJECT: {
+                Map<String, Object> m = newMap();
+                while ((t = next()) == NAME) {
+                    String name = string;
+                    m.put(name, readValue(next()));
+                }
+                return m;
+            }
+            case BEGIN_ARRAY: {
+                List<Object> l = newList();
+                while ((t = next()) != END_ARRAY) {
+                    l.add(readValue(t));
+                }
+                return l;
+            }
+            case STRING:
+                return dates ? Json.fromWire(string) : string;
+            case NUMBER:
+                return number;
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case NULL:
+                return null;
+            default:
+                throw new IllegalArgumentException("Unexpected " + (t == END ? "end of input" : "token") + " at " + tokenStart);
+        }
+    }
+
+    /**
+     * Skip current value (if current token begins object or array - skip till its end)
+     *
+     * @throws IOException IOException
+     */
+    public void skipValue() throws IOException {
+        if (token == BEGIN_OBJECT || token == BEGIN_ARRAY) {
+            int d = depth;
+            while (depth >= d) {
+                if (next() == END)
+                    throw new IllegalArgumentException("Unexpected end of input");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null)
+            in.close();
+    }
+
+    protected Map<String, Object> newMap() {
+        return new CompactMap<String, Object>();
+    }
+
+    protected List<Object> newList() {
+        return new CompactList<Object>();
+    }
+
+    private int pop(int t) {
+        depth--;
+        return token = t;
+    }
+
+    private void push(int state) {
+        if (depth == stack.length)
+            stack = Arrays.copyOf(stack, depth * 2);
+        stack[depth++] = state;
+    }
+
+    private int readName(int c) throws IOException {
+        if (c != '"')
+            throw error(c, "'\"'");
+        tokenStart = offset + pos - 1;
+        stack[depth - 1] = DANGLING_NAME;
+        if (keys == null)
+            keys = new KeyTable(256);
+        //plain ASCII key inside buffer is resolved from bytes
+        byte[] b = buf;
+        int l = Math.min(limit, pos + KeyTable.MAX_KEY_LENGTH + 1);
+        for (int p = pos; p < l; p++) {
+            int ch = b[p];
+            if (ch == '"') {
+                string = keys.get(b, pos, p - pos);
+                pos = p + 1;
+                return token = NAME;
+            }
+            if (ch == '\\' || ch < 0x20)
+                break;
+        }
+        string = keys.intern(readString());
+        return token = NAME;
+    }
+
+    private int readValueToken(int c) throws IOException {
+        tokenStart = offset + pos - 1;
+        switch (c) {
+            case '{':
+                push(EMPTY_OBJECT);
+                return token = BEGIN_OBJECT;
+            case '[':
+                push(EMPTY_ARRAY);
+                return token = BEGIN_ARRAY;
+            case '"':
+                string = readString();
+                return token = STRING;
+            case 't':
+                readLiteral("rue");
+                return token = TRUE;
+            case 'f':
+                readLiteral("alse");
+                return token = FALSE;
+            case 'n':
+                readLiteral("ull");
+                return token = NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    number = readNumber(c);
+                    return token = NUMBER;
+                }
+                throw error(c, "value");
+        }
+    }
+
+    private void readLiteral(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            int c = read();
+            if (c != rest.charAt(i))
+                throw error(c, "'" + rest.charAt(i) + "'");
+        }
+    }
+
+    private Number readNumber(int c) throws IOException {
+        charsLength = 0;
+        boolean negative = c == '-';
+        boolean decimal = false;
+        long value = 0;
+        int digits = 0;
+        append((char) c);
+        if (!negative) {
+            value = c - '0';
+            digits = 1;
+        }
+        while (true) {
+            if (pos == limit && !fill())
+                break;
+            c = buf[pos];
+            if (c >= '0' && c <= '9') {
+                if (!decimal) {
+                    value = value * 10 + (c - '0');
+                    digits++;
+                }
+            } else if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                decimal = true;
+            } else {
+                break;
+            }
+            append((char) c);
+            pos++;
+        }
+        if (charsLength == 1 && negative)
+            throw error(-1, "digit");
+        if (decimal) {
+            try {
+                return new BigDecimal(chars, 0, charsLength);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number '" + new String(chars, 0, charsLength) + "' at " + tokenStart);
+            }
+        }
+        if (digits <= 18) {
+            if (negative)
+                value = -value;
+            if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE)
+                return (int) value;
+            return value;
+        }
+        BigInteger b = new BigInteger(new String(chars, 0, charsLength));
+        if (b.bitLength() < 64)
+            return b.longValue();
+        return b;
+    }
+
+    private String readString() throws IOException {
+        charsLength = 0;
+        while (true) {
+            //ASCII fast path
+            int p = pos;
+            int l = limit;
+            byte[] b = buf;
+            while (p < l) {
+                int c = b[p];
+                if (c == '"' || c == '\\' || c < 0x20)
+                    break;
+                if (charsLength == chars.length)
+                    chars = Arrays.copyOf(chars, chars.length * 2);
+                chars[charsLength++] = (char) c;
+                p++;
+            }
+            pos = p;
+            int c = read();
+            if (c == '"') {
+                return new String(chars, 0, charsLength);
+            } else if (c == '\\') {
+                readEscape();
+            } else if (c < 0) {
+                throw error(c, "'\"'");
+            } else if (c < 0x20) {
+                throw error(c, "string character");
+            } else if (c < 0x80) {
+                append((char) c);
+            } else {
+                readUtf8(c);
+            }
+        }
+    }
+
+    private void readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                append((char) c);
+                break;
+            case 'b':
+                append('\b');
+                break;
+            case 'f':
+                append('\f');
+                break;
+            case 'n':
+                append('\n');
+                break;
+            case 'r':
+                append('\r');
+                break;
+            case 't':
+                append('\t');
+                break;
+            case 'u':
+                int v = 0;
+                for (int i = 0; i < 4; i++) {
+                    c = read();
+                    int d = Character.digit(c, 16);
+                    if (c < 0 || d < 0)
+                        throw error(c, "hex digit");
+                    v = (v << 4) | d;
+                }
+                append((char) v);
+                break;
+            default:
+                throw error(c, "escape character");
+        }
+    }
+
+    private void readUtf8(int c) throws IOException {
+        int cp;
+        int n;
+        if ((c >> 5) == 0x6) {
+            cp = c & 0x1F;
+            n = 1;
+        } else if ((c >> 4) == 0xE) {
+            cp = c & 0x0F;
+            n = 2;
+        } else if ((c >> 3) == 0x1E) {
+            cp = c & 0x07;
+            n = 3;
+        } else {
+            append('\uFFFD');
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            int b = read();
+            if (b < 0 || (b & 0xC0) != 0x80)
+                throw new IllegalArgumentException("Invalid UTF-8 sequence at " + (offset + pos - 1));
+            cp = (cp << 6) | (b & 0x3F);
+        }
+        if (cp >= 0x10000) {
+            append(Character.highSurrogate(cp));
+            append(Character.lowSurrogate(cp));
+        } else {
+            append((char) cp);
+        }
+    }
+
+    private void append(char c) {
+        if (charsLength == chars.length)
+            chars = Arrays.copyOf(chars, chars.length * 2);
+        chars[charsLength++] = c;
+    }
+
+    private int skipWhitespace() throws IOException {
+        while (true) {
+            if (pos == limit && !fill())
+                return -1;
+            int c = buf[pos++] & 0xFF;
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+                return c;
+        }
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill())
+            return -1;
+        return buf[pos++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        if (in == null)
+            return false;
+        offset += limit;
+        pos = 0;
+        limit = 0;
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0)
+            return false;
+        limit = n;
+        return true;
+    }
+
+    private IllegalArgumentException error(int c, String expected) {
+        String found = c < 0 ? "end of input" : c < 0x20 || c > 0x7E ? "byte " + c : "'" + (char) c + "'";
+        return new IllegalArgumentException("Expected " + expected + " but found " + found + " at " + (offset + pos - 1));
+    }
+
+}
@@ -0,0 +1,444 @@
+package org.s1.web.formats;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.util.*;
+
+/**
+ * Streaming JSON writer, writes UTF-8 bytes directly to stream.
+ * <br>
+ * Dates are written as <code>"/Date(1234567890)/"</code>, beans - as objects (see {@link JsonBinding}).
+ * Several top-level values are separated with new line (newline-delimited JSON).
+ * <br>
+ * Output is buffered, call {@link #flush()} when done.
+ *
+ * @author Grigory Pykhov
+ */
+public class JsonWriter implements Closeable, Flushable {
+
+    private static final int TOP = 0;
+    private static final int EMPTY_OBJECT = 1;
+    private static final int NONEMPTY_OBJECT = 2;
+    private static final int DANGLING_NAME = 3;
+    private static final int EMPTY_ARRAY = 4;
+    private static final int NONEMPTY_ARRAY = 5;
+    private static final int NONEMPTY_TOP = 6;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] NULL = "null".getBytes();
+    private static final byte[] TRUE = "true".getBytes();
+    private static final byte[] FALSE = "false".getBytes();
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes();
+
+    private final OutputStream out;
+    private final boolean ascii;
+    private final byte[] buf = new byte[8192];
+    private int pos;
+
+    private int[] stack = new int[32];
+    private int depth = 1;
+
+    /**
+     * @param out Stream
+     */
+    public JsonWriter(OutputStream out) {
+        this(out, false);
+    }
+
+    /**
+     * @param out   Stream
+     * @param ascii Escape all non-ASCII characters (output is valid in any ASCII-compatible encoding)
+     */
+    public JsonWriter(OutputStream out, boolean ascii) {
+        this.out = out;
+        this.ascii = ascii;
+    }
+
+    /**
+     * @return JsonWriter
+     * @throws IOException IOException
+     */
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        push(EMPTY_OBJECT);
+        write('{');
+        return this;
+    }
+
+    /**
+     * @return JsonWriter
+     * @throws IOException IOException
+     */
+    public JsonWriter endObject() throws IOException {
+        int s = stack[depth - 1];
+        if (s != EMPTY_OBJECT && s != NONEMPTY_OBJECT)
+            throw new IllegalStateException("Not in object");
+        depth--;
+        write('}');
+        return this;
+    }
+
+    /**
+     * @return JsonWriter
+     * @throws IOException IOException
+     */
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        push(EMPTY_ARRAY);
+        write('[');
+        return this;
+    }
+
+    /**
+     * @return JsonWriter
+     * @throws IOException IOException
+     */
+    public JsonWriter endArray() throws IOException {
+        int s = stack[depth - 1];
+        if (s != EMPTY_ARRAY && s != NONEMPTY_ARRAY)
+            throw new IllegalStateException("Not in array");
+        depth--;
+        write(']');
+        return this;
+    }
+
+    /**
+     * @param name Object key
+     * @return JsonWriter
+     * @throws IOException IOException
+     */
+    public JsonWriter name(String name) throws IOException {
+        int s = stack[depth - 1];
+        if (s == NONEMPTY_OBJECT)
+            write(',');
+        else if (s != EMPTY_OBJECT)
+            throw new IllegalStateException("Name is not expected");
+        stack[depth - 1] = DANGLING_NAME;
+        writeString(name);
+        write(':');
+        return this;
+    }
+
+    /**
+     * @param value String
+     * @return JsonWriter
+     * @throws IOException IOException
+     */
+    public JsonWriter value(String value) throws IOException {
+        if (value == null)
+            return nullValue();
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+    /**
+     * @param value Value
+     * @return JsonWriter
+     * @throws IOException IOException
+     */
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        writeLong(value);
+        return this;
+    }
+
+    /**
+     * @param value Value (must be finite)
+     * @return JsonWriter
+     * @throws IOException IOException
+     */
+    public JsonWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            throw new IllegalArgumentException("Number " + value + " can't be written to JSON");
+        beforeValue();
+        writeAscii(Double.toString(value));
+        return this;
+    }
+
+    /**
+     * @param value Value
+     * @return JsonWriter
+     * @throws IOException IOException
+     */
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        write(value ? TRUE : FALSE);
+        return this;
+    }
+
+    /**
+     * @param value Number
+     * @return JsonWriter
+     * @throws IOException IOException
+     */
+    public JsonWriter value(Number value) throws IOException {
+        if (value == null)
+            return nullValue();
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+            return value(value.longValue());
+        if (value instanceof Double || value instanceof Float)
+            return value(value.doubleValue());
+        beforeValue();
+        writeAscii(value.toString());
+        return this;
+    }
+
+    /**
+     * @param value Date
+     * @return JsonWriter
+     * @throws IOException IOException
+     */
+    public JsonWriter value(Date value) throws IOException {
+        if (value == null)
+            return nullValue();
+        beforeValue();
+        write('"');
+        writeAscii("/Date(");
+        writeLong(value.getTime());
+        writeAscii(")/");
+        write('"');
+        return this;
+    }
+
+    /**
+     * @return JsonWriter
+     * @throws IOException IOException
+     */
+    public JsonWriter nullValue() throws IOException {
+        beforeValue();
+        write(NULL);
+        return this;
+    }
+
+    /**
+     * Write already serialized JSON value as is
+     *
+     * @param json UTF-8 JSON bytes
+     * @return JsonWriter
+     * @throws IOException IOException
+     */
+    public JsonWriter rawValue(byte[] json) throws IOException {
+        beforeValue();
+        write(json);
+        return this;
+    }
+
+    /**
+     * Write any value: Map, Collection, array, String, Number, Boolean, Date, Enum, bean or null
+     *
+     * @param value Value
+     * @return JsonWriter
+     * @throws IOException IOException
+     */
+    public JsonWriter writeValue(Object value) throws IOException {
+        if (value == null) {
+            nullValue();
+        } else if (value instanceof String) {
+            value((String) value);
+        } else if (value instanceof Map) {
+            beginObject();
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                name(String.valueOf(e.getKey()));
+                writeValue(e.getValue());
+            }
+            endObject();
+        } else if (value instanceof Collection) {
+            beginArray();
+            for (Object o : (Collection<?>) value) {
+                writeValue(o);
+            }
+            endArray();
+        } else if (value instanceof Number) {
+            value((Number) value);
+        } else if (value instanceof Boolean) {
+            value(((Boolean) value).booleanValue());
+        } else if (value instanceof Date) {
+            value((Date) value);
+        } else if (value instanceof Enum || value instanceof Character || value instanceof CharSequence) {
+            value(value.toString());
+        } else if (value.getClass().isArray()) {
+            beginArray();
+            int l = Array.getLength(value);
+            for (int i = 0; i < l; i++) {
+                writeValue(Array.get(value, i));
+            }
+            endArray();
+        } else {
+            JsonBinding.write(this, value);
+        }
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushBuffer();
+        out.close();
+    }
+
+    private void push(int state) {
+        if (depth == stack.length)
+            stack = Arrays.copyOf(stack, depth * 2);
+        stack[depth++] = state;
+    }
+
+    private void beforeValue() throws IOException {
+        switch (stack[depth - 1]) {
+            case DANGLING_NAME:
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                break;
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                break;
+            case NONEMPTY_ARRAY:
+                write(',');
+                break;
+            case TOP:
+                stack[depth - 1] = NONEMPTY_TOP;
+                break;
+            case NONEMPTY_TOP:
+                write('\n');
+                break;
+            default:
+                throw new IllegalStateException("Name is expected");
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        write('"');
+        int l = s.length();
+        for (int i = 0; i < l; i++) {
+            if (buf.length - pos < 12)
+                flushBuffer();
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    buf[pos++] = (byte) c;
+                    continue;
+                }
+                buf[pos++] = '\\';
+                switch (c) {
+                    case '"':
+                    case '\\':
+                        buf[pos++] = (byte) c;
+                        break;
+                    case '\n':
+                        buf[pos++] = 'n';
+                        break;
+                    case '\r':
+                        buf[pos++] = 'r';
+                        break;
+                    case '\t':
+                        buf[pos++] = 't';
+                        break;
+                    case '\b':
+                        buf[pos++] = 'b';
+                        break;
+                    case '\f':
+                        buf[pos++] = 'f';
+                        break;
+                    default:
+                        writeUnicodeEscape(c);
+                }
+            } else if (ascii) {
+                buf[pos++] = '\\';
+                writeUnicodeEscape(c);
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < l && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        write('"');
+    }
+
+    private void writeUnicodeEscape(char c) {
+        buf[pos++] = 'u';
+        buf[pos++] = HEX[(c >> 12) & 0xF];
+        buf[pos++] = HEX[(c >> 8) & 0xF];
+        buf[pos++] = HEX[(c >> 4) & 0xF];
+        buf[pos++] = HEX[c & 0xF];
+    }
+
+    private void writeLong(long v) throws IOException {
+        if (v == Long.MIN_VALUE) {
+            write(MIN_LONG);
+            return;
+        }
+        if (buf.length - pos < 20)
+            flushBuffer();
+        if (v < 0) {
+            buf[pos++] = '-';
+            v = -v;
+        }
+        int start = pos;
+        do {
+            buf[pos++] = (byte) ('0' + (v % 10));
+            v /= 10;
+        } while (v > 0);
+        //reverse digits
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            byte t = buf[i];
+            buf[i] = buf[j];
+            buf[j] = t;
+        }
+    }
+
+    private void writeAscii(String s) throws IOException {
+        int l = s.length();
+        if (buf.length - pos < l)
+            flushBuffer();
+        if (l > buf.length) {
+            out.write(s.getBytes("US-ASCII"));
+            return;
+        }
+        for (int i = 0; i < l; i++) {
+            buf[pos++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void write(int b) throws IOException {
+        if (pos == buf.length)
+            flushBuffer();
+        buf[pos++] = (byte) b;
+    }
+
+    private void write(byte[] b) throws IOException {
+        if (buf.length - pos < b.length)
+            flushBuffer();
+        if (b.length > buf.length) {
+            out.write(b);
+            return;
+        }
+        System.arraycopy(b, 0, buf, pos, b.length);
+        pos += b.length;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (pos > 0) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+    }
+
+}
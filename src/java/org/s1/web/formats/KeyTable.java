@@ -0,0 +1,116 @@
+package org.s1.web.formats;
+
+import java.nio.charset.Charset;
+
+/**
+ * Bounded symbol table of object keys.
+ * <br>
+ * Repeated keys are resolved to one shared String instance, ASCII keys are looked up
+ * directly by their bytes without decoding (see {@link JsonReader#setKeyTable(KeyTable)}).
+ * <br>
+ * Table has fixed number of slots, a new key replaces old one on collision, keys longer than
+ * {@link #MAX_KEY_LENGTH} are not stored. Table may be shared between threads:
+ * every hit is verified against the bytes, so races only cause misses.
+ *
+ * @author Grigory Pykhov
+ */
+public class KeyTable {
+
+    /**
+     * Longer keys are not stored
+     */
+    public static final int MAX_KEY_LENGTH = 64;
+
+    private static final int PROBES = 4;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final KeyTable shared = new KeyTable(4096);
+
+    private final String[] slots;
+    private final int mask;
+
+    /**
+     * @param size Slots count (rounded up to power of two)
+     */
+    public KeyTable(int size) {
+        int n = Integer.highestOneBit(Math.max(size, PROBES) - 1) << 1;
+        this.slots = new String[n];
+        this.mask = n - 1;
+    }
+
+    /**
+     * Table shared by all parsers, it learns keys of all payloads
+     *
+     * @return Shared table
+     */
+    public static KeyTable getShared() {
+        return shared;
+    }
+
+    /**
+     * Key from ASCII bytes
+     *
+     * @param b   Bytes (all bytes must be less than 0x80)
+     * @param off Start
+     * @param len Length
+     * @return Shared string
+     */
+    public String get(byte[] b, int off, int len) {
+        if (len > MAX_KEY_LENGTH)
+            return new String(b, off, len, ASCII);
+        int h = 0;
+        for (int i = off; i < off + len; i++) {
+            h = 31 * h + b[i];
+        }
+        int home = spread(h) & mask;
+        for (int i = 0; i < PROBES; i++) {
+            String s = slots[(home + i) & mask];
+            if (s == null) {
+                s = new String(b, off, len, ASCII);
+                slots[(home + i) & mask] = s;
+                return s;
+            }
+            if (equals(s, b, off, len))
+                return s;
+        }
+        String s = new String(b, off, len, ASCII);
+        slots[home] = s;
+        return s;
+    }
+
+    /**
+     * @param s Decoded key
+     * @return Shared equal string
+     */
+    public String intern(String s) {
+        if (s.length() > MAX_KEY_LENGTH)
+            return s;
+        int home = spread(s.hashCode()) & mask;
+        for (int i = 0; i < PROBES; i++) {
+            String it = slots[(home + i) & mask];
+            if (it == null) {
+                slots[(home + i) & mask] = s;
+                return s;
+            }
+            if (it.equals(s))
+                return it;
+        }
+        slots[home] = s;
+        return s;
+    }
+
+    private static boolean equals(String s, byte[] b, int off, int len) {
+        if (s.length() != len)
+            return false;
+        for (int i = 0; i < len; i++) {
+            if (s.charAt(i) != b[off + i])
+                return false;
+        }
+        return true;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+}
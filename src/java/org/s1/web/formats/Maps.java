@@ -185,7 +185,7 @@ public class Maps {
 
     /**
      * @param args Key, Value array
-     * @return HashMap
+     * @return Map (see {@link CompactMap})
      */
     public static Map<String, Object> newSOHashMap(Object... args) {
         return newHashMap(args);
@@ -195,17 +195,17 @@ public class Maps {
      * @param args Key, Value array
      * @param <K>  Key type
      * @param <V>  Value type
-     * @return HashMap
+     * @return Map (see {@link CompactMap})
      */
     public static <K, V> Map<K, V> newHashMap(Object... args) {
-        Map<K, V> m = new HashMap<K, V>();
+        Map<K, V> m = new CompactMap<K, V>();
         for (int i = 0; i < args.length; i += 2) {
             m.put((K) args[i], i + 1 >= args.length ? null : (V) args[i + 1]);
         }
         return m;
     }
 
-    private static String[] tokenizePath(String path) {
+    static String[] tokenizePath(String path) {
         String s = path;
         s = s.replace("&", "&amp;");
         s = s.replace("\\\\", "&backslash;");
@@ -221,7 +221,7 @@ public class Maps {
         return p2;
     }
 
-    private static int[] getNumber(String name) {
+    static int[] getNumber(String name) {
         String s = name;
         s = s.replace("&", "&amp;");
         s = s.replace("\\\\", "&backslash;");
@@ -239,7 +239,7 @@ public class Maps {
         return null;
     }
 
-    private static String getLocalName(String name) {
+    static String getLocalName(String name) {
         String s = name;
         s = s.replace("&", "&amp;");
         s = s.replace("\\\\", "&backslash;");
@@ -262,7 +262,7 @@ public class Maps {
 
     private static Object iterateNamedObjectFromLeaf(String name, String path, Object o, IterateFunction closure) {
         if (o instanceof Map) {
-            final Map<String, Object> m1 = new HashMap<String, Object>();
+            final Map<String, Object> m1 = new CompactMap<String, Object>();
             Map<String, Object> m = (Map<String, Object>) o;
             for (Map.Entry<String, Object> e : m.entrySet()) {
                 m1.put(e.getKey(),
@@ -270,7 +270,7 @@ public class Maps {
             }
             return closure.call(name, m1, path);
         } else if (o instanceof List) {
-            List l = new ArrayList();
+            List l = new CompactList();
             for (int i = 0; i < ((List) o).size(); i++) {
                 l.add(iterateNamedObjectFromLeaf(null, path + "[" + i + "]", ((List) o).get(i), closure));
             }
@@ -0,0 +1,414 @@
+package org.s1.web.formats;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * MessagePack codec of Map/List data model.
+ * <br>
+ * Dates are written as timestamp extension (type -1), other extensions are read as byte[].
+ * MessagePack has no decimal type: BigDecimal is written as extension {@link #EXT_BIG_DECIMAL}
+ * (4-byte scale and unscaled value), BigInteger out of 64-bit range - as extension {@link #EXT_BIG_INTEGER}
+ * (two's-complement big-endian bytes), so they are read back without precision loss.
+ * Integers are read as Integer, Long or BigInteger like in {@link JsonReader}, keys are shared with {@link KeyTable#getShared()}.
+ *
+ * @author Grigory Pykhov
+ */
+public class MessagePackCodec implements Codec {
+
+    /**
+     * Extension type of BigInteger out of 64-bit range
+     */
+    public static final int EXT_BIG_INTEGER = 1;
+
+    /**
+     * Extension type of BigDecimal
+     */
+    public static final int EXT_BIG_DECIMAL = 2;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final BigInteger MAX_UINT64 = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+    private static final int MAX_DEPTH = 512;
+
+    @Override
+    public String getMediaType() {
+        return "application/msgpack";
+    }
+
+    @Override
+    public Object read(InputStream in, String encoding) throws IOException {
+        DataInputStream din = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in));
+        int b = din.read();
+        if (b < 0)
+            return null;
+        return read(din, b, 0);
+    }
+
+    @Override
+    public <T> T read(InputStream in, String encoding, Class<T> type) throws IOException {
+        return (T) JsonBinding.convert(read(in, encoding), type);
+    }
+
+    @Override
+    public void write(Object value, OutputStream out, String encoding) throws IOException {
+        DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out, 8192));
+        write(dout, value);
+        dout.flush();
+    }
+
+    private Object read(DataInputStream in, int b, int depth) throws IOException {
+        if (depth > MAX_DEPTH)
+            throw new IllegalArgumentException("MessagePack is too deep");
+        if (b <= 0x7F)
+            return b;
+        if (b >= 0xE0)
+            return b - 0x100;
+        if (b <= 0x8F)
+            return readMap(in, b & 0x0F, depth);
+        if (b <= 0x9F)
+            return readArray(in, b & 0x0F, depth);
+        if (b <= 0xBF)
+            return readString(in, b & 0x1F);
+        switch (b) {
+            case 0xC0:
+                return null;
+            case 0xC2:
+                return Boolean.FALSE;
+            case 0xC3:
+                return Boolean.TRUE;
+            case 0xC4:
+                return readBytes(in, in.readUnsignedByte());
+            case 0xC5:
+                return readBytes(in, in.readUnsignedShort());
+            case 0xC6:
+                return readBytes(in, in.readInt() & 0xFFFFFFFFL);
+            case 0xC7:
+                return readExt(in, in.readUnsignedByte());
+            case 0xC8:
+                return readExt(in, in.readUnsignedShort());
+            case 0xC9:
+                return readExt(in, in.readInt() & 0xFFFFFFFFL);
+            case 0xCA:
+                return in.readFloat();
+            case 0xCB:
+                return in.readDouble();
+            case 0xCC:
+                return in.readUnsignedByte();
+            case 0xCD:
+                return in.readUnsignedShort();
+            case 0xCE:
+                return toNumber(in.readInt() & 0xFFFFFFFFL);
+            case 0xCF: {
+                long n = in.readLong();
+                return n < 0 ? BigInteger.valueOf(n).add(BigInteger.ONE.shiftLeft(64)) : toNumber(n);
+            }
+            case 0xD0:
+                return (int) in.readByte();
+            case 0xD1:
+                return (int) in.readShort();
+            case 0xD2:
+                return in.readInt();
+            case 0xD3:
+                return toNumber(in.readLong());
+            case 0xD4:
+                return readExt(in, 1);
+            case 0xD5:
+                return readExt(in, 2);
+            case 0xD6:
+                return readExt(in, 4);
+            case 0xD7:
+                return readExt(in, 8);
+            case 0xD8:
+                return readExt(in, 16);
+            case 0xD9:
+                return readString(in, in.readUnsignedByte());
+            case 0xDA:
+                return readString(in, in.readUnsignedShort());
+            case 0xDB:
+                return readString(in, in.readInt() & 0xFFFFFFFFL);
+            case 0xDC:
+                return readArray(in, in.readUnsignedShort(), depth);
+            case 0xDD:
+                return readArray(in, in.readInt() & 0xFFFFFFFFL, depth);
+            case 0xDE:
+                return readMap(in, in.readUnsignedShort(), depth);
+            case 0xDF:
+                return readMap(in, in.readInt() & 0xFFFFFFFFL, depth);
+            default:
+                throw new IllegalArgumentException("Unexpected MessagePack byte 0x" + Integer.toHexString(b));
+        }
+    }
+
+    private List<Object> readArray(DataInputStream in, long n, int depth) throws IOException {
+        int size = size(n);
+        List<Object> l = new CompactList<Object>();
+        for (int i = 0; i < size; i++) {
+            l.add(read(in, next(in), depth + 1));
+        }
+        return l;
+    }
+
+    private Map<String, Object> readMap(DataInputStream in, long n, int depth) throws IOException {
+        int size = size(n);
+        Map<String, Object> m = new CompactMap<String, Object>();
+        for (int i = 0; i < size; i++) {
+            String k = KeyTable.getShared().intern(String.valueOf(read(in, next(in), depth + 1)));
+            m.put(k, read(in, next(in), depth + 1));
+        }
+        return m;
+    }
+
+    private Object readExt(DataInputStream in, long n) throws IOException {
+        int type = in.readByte();
+        byte[] b = readBytes(in, n);
+        if (type == EXT_BIG_INTEGER && b.length > 0)
+            return new BigInteger(b);
+        if (type == EXT_BIG_DECIMAL && b.length > 4) {
+            int scale = ((b[0] & 0xFF) << 24) | ((b[1] & 0xFF) << 16) | ((b[2] & 0xFF) << 8) | (b[3] & 0xFF);
+            return new BigDecimal(new BigInteger(Arrays.copyOfRange(b, 4, b.length)), scale);
+        }
+        if (type != -1)
+            return b;
+        DataInputStream d = new DataInputStream(new ByteArrayInputStream(b));
+        long seconds;
+        long nanos;
+        if (b.length == 4) {
+            seconds = d.readInt() & 0xFFFFFFFFL;
+            nanos = 0;
+        } else if (b.length == 8) {
+            long v = d.readLong();
+            nanos = v >>> 34;
+            seconds = v & 0x3FFFFFFFFL;
+        } else if (b.length == 12) {
+            nanos = d.readInt() & 0xFFFFFFFFL;
+            seconds = d.readLong();
+        } else {
+            throw new IllegalArgumentException("Unexpected MessagePack timestamp length " + b.length);
+        }
+        return new Date(seconds * 1000 + nanos / 1000000);
+    }
+
+    private static String readString(DataInputStream in, long n) throws IOException {
+        return new String(readBytes(in, n), UTF8);
+    }
+
+    private static Object toNumber(long v) {
+        if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE)
+            return (int) v;
+        return v;
+    }
+
+    private static int next(DataInputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0)
+            throw new IllegalArgumentException("Unexpected end of MessagePack");
+        return b;
+    }
+
+    private static int size(long n) {
+        if (n < 0 || n > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("MessagePack length is too big: " + n);
+        return (int) n;
+    }
+
+    private static byte[] readBytes(DataInputStream in, long n) throws IOException {
+        int size = size(n);
+        if (size <= 65536) {
+            byte[] b = new byte[size];
+            in.readFully(b);
+            return b;
+        }
+        //don't trust declared length
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(65536);
+        byte[] buf = new byte[65536];
+        while (size > 0) {
+            int r = in.read(buf, 0, Math.min(size, buf.length));
+            if (r < 0)
+                throw new EOFException();
+            bos.write(buf, 0, r);
+            size -= r;
+        }
+        return bos.toByteArray();
+    }
+
+    private void write(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.write(0xC0);
+        } else if (value instanceof String) {
+            writeString(out, (String) value);
+        } else if (value instanceof Map) {
+            Map<?, ?> m = (Map<?, ?>) value;
+            writeHead(out, m.size(), 0x80, 0xDE, 0xDF);
+            for (Map.Entry<?, ?> e : m.entrySet()) {
+                writeString(out, String.valueOf(e.getKey()));
+                write(out, e.getValue());
+            }
+        } else if (value instanceof Collection) {
+            Collection<?> c = (Collection<?>) value;
+            writeHead(out, c.size(), 0x90, 0xDC, 0xDD);
+            for (Object o : c) {
+                write(out, o);
+            }
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            writeLong(out, ((Number) value).longValue());
+        } else if (value instanceof Float) {
+            out.write(0xCA);
+            out.writeFloat((Float) value);
+        } else if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64) {
+            writeLong(out, ((BigInteger) value).longValue());
+        } else if (value instanceof BigInteger && ((BigInteger) value).signum() > 0 && ((BigInteger) value).compareTo(MAX_UINT64) <= 0) {
+            out.write(0xCF);
+            out.writeLong(((BigInteger) value).longValue());
+        } else if (value instanceof BigInteger) {
+            writeExt(out, EXT_BIG_INTEGER, ((BigInteger) value).toByteArray(), 0);
+        } else if (value instanceof BigDecimal) {
+            BigDecimal d = (BigDecimal) value;
+            writeExt(out, EXT_BIG_DECIMAL, d.unscaledValue().toByteArray(), d.scale());
+        } else if (value instanceof Number) {
+            out.write(0xCB);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? 0xC3 : 0xC2);
+        } else if (value instanceof Date) {
+            writeTimestamp(out, ((Date) value).getTime());
+        } else if (value instanceof byte[]) {
+            byte[] b = (byte[]) value;
+            if (b.length < 0x100) {
+                out.write(0xC4);
+                out.write(b.length);
+            } else if (b.length < 0x10000) {
+                out.write(0xC5);
+                out.writeShort(b.length);
+            } else {
+                out.write(0xC6);
+                out.writeInt(b.length);
+            }
+            out.write(b);
+        } else if (value instanceof Enum || value instanceof Character || value instanceof CharSequence) {
+            writeString(out, value.toString());
+        } else if (value.getClass().isArray()) {
+            int l = Array.getLength(value);
+            writeHead(out, l, 0x90, 0xDC, 0xDD);
+            for (int i = 0; i < l; i++) {
+                write(out, Array.get(value, i));
+            }
+        } else {
+            write(out, JsonBinding.toMap(value));
+        }
+    }
+
+    private static void writeTimestamp(DataOutputStream out, long time) throws IOException {
+        long seconds = time / 1000;
+        long millis = time % 1000;
+        if (millis < 0) {
+            seconds--;
+            millis += 1000;
+        }
+        long nanos = millis * 1000000;
+        if (nanos == 0 && seconds >= 0 && seconds <= 0xFFFFFFFFL) {
+            out.write(0xD6);
+            out.write(-1);
+            out.writeInt((int) seconds);
+        } else if (seconds >= 0 && seconds <= 0x3FFFFFFFFL) {
+            out.write(0xD7);
+            out.write(-1);
+            out.writeLong((nanos << 34) | seconds);
+        } else {
+            out.write(0xC7);
+            out.write(12);
+            out.write(-1);
+            out.writeInt((int) nanos);
+            out.writeLong(seconds);
+        }
+    }
+
+    private static void writeExt(DataOutputStream out, int type, byte[] b, int scale) throws IOException {
+        int l = type == EXT_BIG_DECIMAL ? b.length + 4 : b.length;
+        if (l == 1 || l == 2 || l == 4 || l == 8 || l == 16) {
+            out.write(0xD4 + Integer.numberOfTrailingZeros(l));
+        } else if (l < 0x100) {
+            out.write(0xC7);
+            out.write(l);
+        } else if (l < 0x10000) {
+            out.write(0xC8);
+            out.writeShort(l);
+        } else {
+            out.write(0xC9);
+            out.writeInt(l);
+        }
+        out.write(type);
+        if (type == EXT_BIG_DECIMAL)
+            out.writeInt(scale);
+        out.write(b);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(UTF8);
+        if (b.length < 32) {
+            out.write(0xA0 | b.length);
+        } else if (b.length < 0x100) {
+            out.write(0xD9);
+            out.write(b.length);
+        } else if (b.length < 0x10000) {
+            out.write(0xDA);
+            out.writeShort(b.length);
+        } else {
+            out.write(0xDB);
+            out.writeInt(b.length);
+        }
+        out.write(b);
+    }
+
+    private static void writeLong(DataOutputStream out, long v) throws IOException {
+        if (v >= 0) {
+            if (v < 0x80) {
+                out.write((int) v);
+            } else if (v < 0x100) {
+                out.write(0xCC);
+                out.write((int) v);
+            } else if (v < 0x10000) {
+                out.write(0xCD);
+                out.writeShort((int) v);
+            } else if (v < 0x100000000L) {
+                out.write(0xCE);
+                out.writeInt((int) v);
+            } else {
+                out.write(0xCF);
+                out.writeLong(v);
+            }
+        } else {
+            if (v >= -32) {
+                out.write((int) v);
+            } else if (v >= Byte.MIN_VALUE) {
+                out.write(0xD0);
+                out.write((int) v);
+            } else if (v >= Short.MIN_VALUE) {
+                out.write(0xD1);
+                out.writeShort((int) v);
+            } else if (v >= Integer.MIN_VALUE) {
+                out.write(0xD2);
+                out.writeInt((int) v);
+            } else {
+                out.write(0xD3);
+                out.writeLong(v);
+            }
+        }
+    }
+
+    private static void writeHead(DataOutputStream out, int n, int fix, int b16, int b32) throws IOException {
+        if (n < 16) {
+            out.write(fix | n);
+        } else if (n < 0x10000) {
+            out.write(b16);
+            out.writeShort(n);
+        } else {
+            out.write(b32);
+            out.writeInt(n);
+        }
+    }
+
+}
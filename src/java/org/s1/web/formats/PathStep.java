@@ -0,0 +1,57 @@
+package org.s1.web.formats;
+
+import java.util.Map;
+
+/**
+ * One step of Xml path (<code>ns:name[index]</code>, <code>*</code> or <code>@attribute</code>)
+ *
+ * @author Grigory Pykhov
+ */
+class PathStep {
+
+    final String localName;
+    final String namespaceURI;
+    final boolean attribute;
+    final boolean indexed;
+    final int index;
+
+    private PathStep(String part, Map<String, String> namespaces) {
+        String name = Xml.getLocalName(part);
+        this.attribute = part.startsWith("@");
+        this.localName = !attribute && name.equals("*") ? null : name;
+        //namespace of '*' is ignored (see Xml#getChildElementList)
+        this.namespaceURI = localName == null ? null : Xml.getNamespaceURI(part, namespaces);
+        this.indexed = part.contains("[");
+        this.index = Xml.getNumber(part);
+    }
+
+    /**
+     * @param path       Path
+     * @param namespaces Namespaces (prefix - URI)
+     * @return Steps
+     */
+    static PathStep[] parse(String path, Map<String, String> namespaces) {
+        String[] parts = Xml.tokenizePath(path);
+        PathStep[] steps = new PathStep[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                steps[i] = new PathStep(parts[i], namespaces);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid path: " + path, e);
+            }
+        }
+        return steps;
+    }
+
+    /**
+     * @param localName    Local name
+     * @param namespaceURI Namespace URI
+     * @return true if element name matches step (index is not checked)
+     */
+    boolean matches(String localName, String namespaceURI) {
+        if (this.localName != null && !this.localName.equals(localName))
+            return false;
+        return this.namespaceURI == null || this.namespaceURI.equals(namespaceURI);
+    }
+
+}
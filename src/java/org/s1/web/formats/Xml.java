@@ -2,23 +2,81 @@ package org.s1.web.formats;
 
 import org.w3c.dom.*;
 
+import org.xml.sax.*;
+
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.*;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * XML Format helper. Contains useful methods
+ * <br>
+ * Factories are created once, document builders and transformers are pooled and reused.
+ * External DTDs and entities are never loaded.
  *
  * @author Grigory Pykhov
  */
 public class Xml {
 
+    //external DTDs and entities are never loaded
+    private static final EntityResolver NO_ENTITIES = new EntityResolver() {
+        @Override
+        public InputSource resolveEntity(String publicId, String systemId) {
+            return new InputSource(new StringReader(""));
+        }
+    };
+
+    //the same for StAX
+    private static final XMLResolver NO_STREAM_ENTITIES = new XMLResolver() {
+        @Override
+        public Object resolveEntity(String publicID, String systemID, String baseURI, String namespace) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+    };
+
+    //errors are thrown, not printed to stderr
+    private static final ErrorHandler ERRORS = new ErrorHandler() {
+        @Override
+        public void warning(SAXParseException exception) {
+        }
+
+        @Override
+        public void error(SAXParseException exception) throws SAXException {
+            throw exception;
+        }
+
+        @Override
+        public void fatalError(SAXParseException exception) throws SAXException {
+            throw exception;
+        }
+    };
+
+    private static final DocumentBuilderFactory builderFactory = newDocumentBuilderFactory();
+    private static final TransformerFactory transformerFactory = newTransformerFactory();
+    private static final XMLInputFactory inputFactory = newInputFactory();
+
+    //user data key of child element index
+    private static final String INDEX = Xml.class.getName()+".index";
+
+    private static final int MAX_PATH_CACHE_SIZE = 4096;
+    private static final Map<PathKey,XmlPath> paths = new ConcurrentHashMap<PathKey, XmlPath>();
+
+    //idle builders and transformers
+    private static final Pool<DocumentBuilder> builders = new Pool<DocumentBuilder>();
+    private static final Pool<Transformer> transformers = new Pool<Transformer>();
+
     private Xml(){}
 
 
@@ -42,26 +100,11 @@ public class Xml {
      * @return Element
      */
     public static Element getElement(Element el, String path, Map<String,String> namespaces){
-        if(namespaces==null)
-            namespaces = new HashMap<String, String>();
-        Element ret = null;
-        try {
-            String[] parts = tokenizePath(path);
-            Element o = el;
-            for (int i = 0; i < parts.length; i++) {
-                int j = getNumber(parts[i]);
-                String name = getLocalName(parts[i]);
-                String ns = getNamespaceURI(parts[i],namespaces);
-                if(name.equals("*"))
-                    name = null;
-                o = getChildElement(j,o,name,ns);
-            }
-            if (o != null){
-                ret = o;
-            }
-        } catch (Throwable e) {
+        try{
+            return compiled(path, namespaces).getElement(el);
+        }catch (IllegalArgumentException e){
+            return null;
         }
-        return ret;
     }
 
     /**
@@ -73,12 +116,11 @@ public class Xml {
      * @return Founded elements
      */
     public static List<Element> getElementList(Element el, String path, Map<String,String> namespaces){
-        if(namespaces==null)
-            namespaces = new HashMap<String, String>();
-        List<Element> ret = new ArrayList<Element>();
-        String[] parts = tokenizePath(path);
-        fillElementList(el, Arrays.asList(el), parts, namespaces, ret);
-        return ret;
+        try{
+            return compiled(path, namespaces).getElementList(el);
+        }catch (IllegalArgumentException e){
+            return new ArrayList<Element>();
+        }
     }
 
     /**
@@ -92,42 +134,6 @@ public class Xml {
         return getElementList(el, path,null);
     }
 
-    private static void fillElementList(Element el, List<Element> roots, String[] parts, Map<String, String> namespaces, List<Element> res){
-        for(Element ret: roots){
-            try {
-                Element o = el;
-                for (int i = 0; i < parts.length; i++) {
-                    int j = getNumber(parts[i]);
-                    String name = getLocalName(parts[i]);
-                    String ns = getNamespaceURI(parts[i],namespaces);
-                    if(name.equals("*"))
-                        name = null;
-                    List<Element> l = getChildElementList(o,name,ns);
-                    if(parts[i].contains("[")){
-                        o = l.get(j);
-                    }else if(l.size()>1){
-                        if(parts.length-i-1>0){
-                            String [] parts2 = new String[parts.length-i-1];
-                            for(int k=0;k<parts2.length;k++){
-                                parts2[k] = parts[k+i+1];
-                            }
-                            fillElementList(el, l, parts2, namespaces, res);
-                        }else{
-                            res.addAll(l);
-                        }
-                    }else{
-                        o = l.size()==1?l.get(0):null;
-                    }
-                }
-                if (o != null){
-                    ret = o;
-                }
-            } catch (Throwable e) {
-            }
-            res.add(ret);
-        }
-    }
-
     /**
      * Get and cast
      *
@@ -206,47 +212,41 @@ public class Xml {
      * @return Object
      */
     public static String get(Element el, String path, Map<String,String> namespaces, String defVal){
-        if(namespaces==null)
-            namespaces = new HashMap<String, String>();
         String ret = null;
-        try {
-            String[] parts = tokenizePath(path);
-            for (int i = 0; i < parts.length; i++) {
-                int j = getNumber(parts[i]);
-                String name = getLocalName(parts[i]);
-                String ns = getNamespaceURI(parts[i],namespaces);
-                if(parts[i].startsWith("@")){
-                    NamedNodeMap attrs = el.getAttributes();
-                    for(int k=0;k<attrs.getLength();k++){
-                        Attr a = (Attr)attrs.item(k);
-                        if(a.getLocalName().equals(name)){
-                            if(ns!=null){
-                                if(a.getNamespaceURI().equals(ns)) {
-                                    ret = a.getValue();
-                                    break;
-                                }
-                            }else{
-                                ret = a.getValue();
-                                break;
-                            }
-                        }
-                    }
-                    break;
-                }else {
-                    if(name.equals("*"))
-                        name = null;
-                    el = getChildElement(j, el, name, ns);
-                }
-            }
-            if (ret == null && el != null)
-                ret = el.getTextContent();
-        } catch (Throwable e) {
+        try{
+            ret = compiled(path, namespaces).get(el);
+        }catch (IllegalArgumentException e){
         }
         if(ret==null)
             ret = defVal;
         return ret;
     }
 
+    /**
+     * Compile path for repeated use
+     *
+     * @param path Path
+     * @param namespaces Namespaces
+     * @return Compiled path
+     * @throws IllegalArgumentException if path is invalid
+     */
+    public static XmlPath compile(String path, Map<String,String> namespaces){
+        return new XmlPath(path, namespaces==null?new HashMap<String, String>():namespaces);
+    }
+
+    private static XmlPath compiled(String path, Map<String,String> namespaces){
+        if(namespaces==null)
+            namespaces = Collections.emptyMap();
+        PathKey key = new PathKey(path, namespaces);
+        XmlPath p = paths.get(key);
+        if(p==null){
+            p = compile(path, namespaces);
+            if(paths.size()<MAX_PATH_CACHE_SIZE)
+                paths.put(new PathKey(path, new HashMap<String, String>(namespaces)), p);
+        }
+        return p;
+    }
+
     /**
      *
      * @param xml XML String
@@ -254,19 +254,45 @@ public class Xml {
      */
     public static Document fromXMLString(String xml) {
         try{
-            ByteArrayInputStream bis = new ByteArrayInputStream(xml.getBytes("UTF-8"));
-            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(true);
-            factory.setIgnoringElementContentWhitespace(true);
-            factory.setCoalescing(true);
-            final DocumentBuilder loader = factory.newDocumentBuilder();
-            final Document doc = loader.parse(bis);
-            return doc;
+            return parse(new InputSource(new StringReader(xml)));
         }catch (Throwable e){
             throw new IllegalArgumentException("Invalid XML: \n"+xml+"\n"+e.getClass().getName()+": "+e.getMessage(),e);
         }
     }
 
+    /**
+     * Parse XML from stream
+     *
+     * @param is Stream
+     * @param encoding Encoding (null - from XML declaration)
+     * @return Document
+     * @throws IOException IOException
+     */
+    public static Document parse(InputStream is, String encoding) throws IOException {
+        InputSource src = new InputSource(is);
+        if(encoding!=null)
+            src.setEncoding(encoding);
+        try{
+            return parse(src);
+        }catch (SAXException e){
+            throw new IllegalArgumentException("Invalid XML: "+e.getMessage(),e);
+        }
+    }
+
+    private static Document parse(InputSource src) throws IOException, SAXException {
+        DocumentBuilder builder = builders.poll();
+        if(builder==null)
+            builder = newDocumentBuilder();
+        try{
+            return builder.parse(src);
+        }finally{
+            builder.reset();
+            builder.setEntityResolver(NO_ENTITIES);
+            builder.setErrorHandler(ERRORS);
+            builders.offer(builder);
+        }
+    }
+
     /**
      *
      * @param el Element
@@ -274,20 +300,143 @@ public class Xml {
      * @return XML String
      */
     public static String toXMLString(Element el, String encoding){
-        if(encoding==null)
-            encoding = "UTF-8";
         try{
-            final TransformerFactory tf = TransformerFactory.newInstance();
-            final Transformer transformer = tf.newTransformer();
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            transformer.transform(new DOMSource(el),new StreamResult(os));
-            return new String(os.toByteArray(),encoding);
+            StringWriter w = new StringWriter();
+            transform(el, new StreamResult(w), encoding);
+            return w.toString();
         }catch (Throwable e){
             return null;
         }
     }
 
-    private static String[] tokenizePath(String path) {
+    /**
+     * Serialize node to stream
+     *
+     * @param node Node
+     * @param os Stream
+     * @param encoding Encoding (null - UTF-8)
+     * @throws IOException IOException
+     */
+    public static void write(Node node, OutputStream os, String encoding) throws IOException {
+        try{
+            transform(node, new StreamResult(os), encoding);
+        }catch (TransformerException e){
+            if(e.getCause() instanceof IOException)
+                throw (IOException)e.getCause();
+            throw new IOException(e);
+        }
+    }
+
+    private static void transform(Node node, StreamResult result, String encoding) throws TransformerException {
+        Transformer transformer = transformers.poll();
+        if(transformer==null)
+            transformer = newTransformer();
+        try{
+            transformer.setOutputProperty(OutputKeys.ENCODING, encoding==null?"UTF-8":encoding);
+            transformer.transform(new DOMSource(node),result);
+        }finally{
+            transformer.reset();
+            transformers.offer(transformer);
+        }
+    }
+
+    /**
+     * @return New empty document
+     */
+    static Document newDocument() {
+        DocumentBuilder builder = builders.poll();
+        if(builder==null)
+            builder = newDocumentBuilder();
+        try{
+            return builder.newDocument();
+        }finally{
+            builders.offer(builder);
+        }
+    }
+
+    /**
+     * StAX reader without DTD support, adjacent text is coalesced
+     *
+     * @param is Stream
+     * @param encoding Encoding (null - from XML declaration)
+     * @return Reader
+     */
+    static XMLStreamReader newStreamReader(InputStream is, String encoding) {
+        try{
+            return encoding==null?inputFactory.createXMLStreamReader(is):inputFactory.createXMLStreamReader(is, encoding);
+        }catch (XMLStreamException e){
+            throw new IllegalArgumentException("Invalid XML: "+e.getMessage(),e);
+        }
+    }
+
+    private static XMLInputFactory newInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        //internal entities are replaced like in DOM, external DTDs and entities are never loaded
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, true);
+        factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, true);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setXMLResolver(NO_STREAM_ENTITIES);
+        return factory;
+    }
+
+    private static DocumentBuilder newDocumentBuilder() {
+        try{
+            DocumentBuilder builder;
+            synchronized (builderFactory){
+                builder = builderFactory.newDocumentBuilder();
+            }
+            builder.setEntityResolver(NO_ENTITIES);
+            builder.setErrorHandler(ERRORS);
+            return builder;
+        }catch (ParserConfigurationException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Transformer newTransformer() {
+        try{
+            synchronized (transformerFactory){
+                return transformerFactory.newTransformer();
+            }
+        }catch (TransformerConfigurationException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static DocumentBuilderFactory newDocumentBuilderFactory() {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setIgnoringElementContentWhitespace(true);
+        factory.setCoalescing(true);
+        factory.setXIncludeAware(false);
+        for(String f:new String[]{"http://xml.org/sax/features/external-general-entities",
+                "http://xml.org/sax/features/external-parameter-entities",
+                "http://apache.org/xml/features/nonvalidating/load-external-dtd"}){
+            try{
+                factory.setFeature(f, false);
+            }catch (ParserConfigurationException e){
+                //not supported by parser, entity resolver is set anyway
+            }
+        }
+        return factory;
+    }
+
+    private static TransformerFactory newTransformerFactory() {
+        TransformerFactory factory = TransformerFactory.newInstance();
+        for(String a:new String[]{"http://javax.xml.XMLConstants/property/accessExternalDTD",
+                "http://javax.xml.XMLConstants/property/accessExternalStylesheet"}){
+            try{
+                factory.setAttribute(a, "");
+            }catch (IllegalArgumentException e){
+                //JAXP before 1.5
+            }
+        }
+        return factory;
+    }
+
+    static String[] tokenizePath(String path) {
         String s = path;
         s = s.replace("&", "&amp;");
         s = s.replace("\\\\", "&backslash;");
@@ -303,14 +452,14 @@ public class Xml {
         return p2;
     }
 
-    private static int getNumber(String name) {
+    static int getNumber(String name) {
         if(name.indexOf("[")<name.indexOf("]"))
             return Integer.parseInt(name.substring(name.indexOf("[") + 1, name.indexOf("]")));
         else
             return 0;
     }
 
-    private static String getLocalName(String name) {
+    static String getLocalName(String name) {
         if(name.startsWith("@"))
             name = name.substring(1);
         if(name.contains("["))
@@ -320,7 +469,7 @@ public class Xml {
         return name;
     }
 
-    private static String getNamespaceURI(String name, Map<String,String> ns) {
+    static String getNamespaceURI(String name, Map<String,String> ns) {
         if(name.startsWith("@"))
             name = name.substring(1);
         if(name.contains("["))
@@ -334,37 +483,202 @@ public class Xml {
         return name;
     }
 
+    /**
+     * Get child element
+     *
+     * @param number Index among matching children (negative - last)
+     * @param el Parent
+     * @param name Local name (null - any)
+     * @param ns Namespace URI (null - any)
+     * @return Element or null
+     */
     public static Element getChildElement(int number, Element el, String name, String ns){
-        List<Element> lst = getChildElementList(el,name,ns);
-        if(number<0)
-            number = lst.size()-1;
-
-        if(number>=0 && number<lst.size())
-            return lst.get(number);
+        List<Element> l = getIndexedChildren(el, name, ns);
+        if(l!=null){
+            if(number<0)
+                number = l.size()-1;
+            return number>=0 && number<l.size()?l.get(number):null;
+        }
+        if(number<0){
+            for(Node n=el.getLastChild();n!=null;n=n.getPreviousSibling()){
+                if(isElement(n,name,ns))
+                    return (Element)n;
+            }
+        }else{
+            for(Node n=el.getFirstChild();n!=null;n=n.getNextSibling()){
+                if(isElement(n,name,ns) && number--==0)
+                    return (Element)n;
+            }
+        }
         return null;
     }
 
+    private static boolean isElement(Node n, String name, String ns){
+        if(!(n instanceof Element))
+            return false;
+        //namespace is checked only with name
+        return name==null || (name.equals(n.getLocalName()) && (ns==null || ns.equals(n.getNamespaceURI())));
+    }
+
     public static List<Element> getChildElementList(Element el, String name, String ns){
+        List<Element> l = getIndexedChildren(el, name, ns);
+        if(l!=null)
+            return new ArrayList<Element>(l);
         List<Element> lst = new ArrayList<Element>();
-        NodeList nl = el.getChildNodes();
-        for(int i=0;i<nl.getLength();i++){
-            Node n = nl.item(i);
-            if(n instanceof Element){
-                Element e = (Element)n;
-                if(name!=null){
-                    if(name.equals(n.getLocalName())){
-                        if(ns!=null){
-                            if(ns.equals(n.getNamespaceURI()))
-                                lst.add(e);
-                        }else
-                            lst.add(e);
+        for(Node n=el.getFirstChild();n!=null;n=n.getNextSibling()){
+            if(isElement(n,name,ns))
+                lst.add((Element)n);
+        }
+        return lst;
+    }
+
+    /**
+     * Enable index of child elements for repeated lookups.
+     * <br>
+     * Children of every element are indexed by name and namespace here,
+     * index is stored as DOM user data. Lookups only read it, so indexed document may be read by several threads.
+     * Document must not be modified while indexed, call this method again after modification to rebuild index
+     * (elements added after indexing are looked up without index).
+     *
+     * @param doc Document
+     * @param indexed Use index
+     */
+    public static void setIndexed(Document doc, boolean indexed){
+        Object generation = null;
+        if(indexed){
+            generation = new Object();
+            Node root = doc.getDocumentElement();
+            Node n = root;
+            while(n!=null){
+                if(n instanceof Element)
+                    n.setUserData(INDEX, new ChildIndex(generation, (Element)n), null);
+                //depth-first walk over elements
+                Node next = n.getFirstChild();
+                while(next==null && n!=root){
+                    next = n.getNextSibling();
+                    if(next==null)
+                        n = n.getParentNode();
+                }
+                n = next;
+            }
+        }
+        doc.setUserData(INDEX, generation, null);
+    }
+
+    /**
+     * @param doc Document
+     * @return true if child elements are indexed
+     */
+    public static boolean isIndexed(Document doc){
+        return doc.getUserData(INDEX)!=null;
+    }
+
+    /**
+     * @return Matching children (must not be modified) or null if element is not indexed
+     */
+    static List<Element> getIndexedChildren(Element el, String name, String ns){
+        Document doc = el.getOwnerDocument();
+        Object generation = doc==null?null:doc.getUserData(INDEX);
+        if(generation==null)
+            return null;
+        Object idx0 = el.getUserData(INDEX);
+        if(!(idx0 instanceof ChildIndex) || ((ChildIndex)idx0).generation!=generation)
+            return null;
+        ChildIndex idx = (ChildIndex)idx0;
+        Map<String,List<Element>> m = idx.children.get(name==null?null:ns);
+        List<Element> l = m==null?null:m.get(name);
+        return l==null?Collections.<Element>emptyList():l;
+    }
+
+    /**
+     * Children of element: namespace (null - any) - local name (null - any) - elements
+     */
+    private static class ChildIndex {
+        private final Object generation;
+        private final Map<String,Map<String,List<Element>>> children = new HashMap<String, Map<String, List<Element>>>();
+
+        private ChildIndex(Object generation, Element el) {
+            this.generation = generation;
+            for(Node n=el.getFirstChild();n!=null;n=n.getNextSibling()){
+                if(n instanceof Element){
+                    Element e = (Element)n;
+                    //local name is null in DOM which is not namespace aware
+                    String name = e.getLocalName();
+                    add(null, null, e);
+                    if(name!=null)
+                        add(null, name, e);
+                    if(e.getNamespaceURI()!=null){
+                        add(e.getNamespaceURI(), null, e);
+                        if(name!=null)
+                            add(e.getNamespaceURI(), name, e);
                     }
-                }else{
-                    lst.add(e);
                 }
             }
         }
-        return lst;
+
+        private void add(String ns, String name, Element e){
+            Map<String,List<Element>> m = children.get(ns);
+            if(m==null){
+                m = new HashMap<String, List<Element>>();
+                children.put(ns, m);
+            }
+            List<Element> l = m.get(name);
+            if(l==null){
+                l = new ArrayList<Element>(2);
+                m.put(name, l);
+            }
+            l.add(e);
+        }
+    }
+
+    /**
+     * Bounded pool of idle objects
+     */
+    private static class Pool<T> {
+        private static final int MAX_IDLE = 64;
+
+        private final ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<T>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        private T poll() {
+            T t = queue.poll();
+            if (t != null)
+                size.decrementAndGet();
+            return t;
+        }
+
+        private void offer(T t) {
+            if (size.incrementAndGet() <= MAX_IDLE)
+                queue.offer(t);
+            else
+                size.decrementAndGet();
+        }
+    }
+
+    /**
+     * Path with namespaces
+     */
+    private static class PathKey {
+        private final String path;
+        private final Map<String,String> namespaces;
+
+        private PathKey(String path, Map<String, String> namespaces) {
+            this.path = path;
+            this.namespaces = namespaces;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PathKey))
+                return false;
+            PathKey k = (PathKey) o;
+            return path.equals(k.path) && namespaces.equals(k.namespaces);
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode() * 31 + namespaces.hashCode();
+        }
     }
 
 }
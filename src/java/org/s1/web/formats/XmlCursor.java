@@ -0,0 +1,198 @@
+package org.s1.web.formats;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Streaming cursor over repeated XML elements.
+ * <br>
+ * Path is relative to document element like in {@link Xml#getElementList(Element, String, Map)}:
+ * steps without index match all elements with that name, <code>name[i]</code> matches i-th one
+ * (last index <code>[-1]</code> and attributes are not supported).
+ * Every matching element is read with StAX into its own small DOM document when {@link #next()} is called,
+ * so memory does not depend on document size.
+ * <br>
+ * Cursor can be iterated only once.
+ *
+ * @author Grigory Pykhov
+ */
+public class XmlCursor implements Iterator<Element>, Iterable<Element>, Closeable {
+
+    private final InputStream in;
+    private final XMLStreamReader reader;
+    private final PathStep[] steps;
+    //matching children count and chain flag of element on each depth
+    private final int[] counts;
+    private final boolean[] chain;
+    private int depth = -1;
+    private Element next;
+    private boolean end;
+    private long count;
+
+    /**
+     * @param in         Stream
+     * @param encoding   Encoding (null - from XML declaration)
+     * @param path       Path to repeated elements
+     * @param namespaces Namespaces (prefix - URI)
+     */
+    public XmlCursor(InputStream in, String encoding, String path, Map<String, String> namespaces) {
+        this.steps = PathStep.parse(path, namespaces == null ? new HashMap<String, String>() : namespaces);
+        for (PathStep s : steps) {
+            if (s.attribute)
+                throw new IllegalArgumentException("Attributes are not supported in streaming mode: " + path);
+            if (s.index < 0)
+                throw new IllegalArgumentException("Last element index is not supported in streaming mode: " + path);
+        }
+        this.counts = new int[steps.length + 1];
+        this.chain = new boolean[steps.length + 1];
+        this.in = in;
+        this.reader = Xml.newStreamReader(in, encoding);
+    }
+
+    /**
+     * @return Elements read
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !end) {
+            try {
+                next = advance();
+            } catch (XMLStreamException e) {
+                throw new IllegalArgumentException("Invalid XML: " + e.getMessage(), e);
+            }
+            end = next == null;
+        }
+        return next != null;
+    }
+
+    @Override
+    public Element next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Element e = next;
+        next = null;
+        count++;
+        return e;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterator<Element> iterator() {
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private Element advance() throws XMLStreamException {
+        while (reader.hasNext()) {
+            int e = reader.next();
+            if (e == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                if (depth > steps.length)
+                    continue;
+                boolean on = depth == 0;
+                if (depth > 0 && chain[depth - 1]) {
+                    PathStep s = steps[depth - 1];
+                    if (s.matches(reader.getLocalName(), reader.getNamespaceURI())) {
+                        int i = counts[depth - 1]++;
+                        on = !s.indexed || i == s.index;
+                    }
+                }
+                chain[depth] = on;
+                counts[depth] = 0;
+                if (on && depth == steps.length) {
+                    Element el = readElement();
+                    depth--;
+                    return el;
+                }
+            } else if (e == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read current element with its subtree
+     */
+    private Element readElement() throws XMLStreamException {
+        Document doc = Xml.newDocument();
+        Element root = createElement(doc);
+        //namespace may be declared on parent
+        String attr = qname(XMLConstants.XMLNS_ATTRIBUTE, root.getPrefix());
+        if (root.getNamespaceURI() != null && !root.hasAttribute(attr))
+            root.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, attr, root.getNamespaceURI());
+        doc.appendChild(root);
+        Node current = root;
+        while (true) {
+            int e = reader.next();
+            if (e == XMLStreamConstants.START_ELEMENT) {
+                Element el = createElement(doc);
+                current.appendChild(el);
+                current = el;
+            } else if (e == XMLStreamConstants.END_ELEMENT) {
+                if (current == root)
+                    return root;
+                current = current.getParentNode();
+            } else if (e == XMLStreamConstants.CHARACTERS || e == XMLStreamConstants.CDATA || e == XMLStreamConstants.SPACE) {
+                current.appendChild(doc.createTextNode(reader.getText()));
+            } else if (e == XMLStreamConstants.COMMENT) {
+                current.appendChild(doc.createComment(reader.getText()));
+            }
+        }
+    }
+
+    private Element createElement(Document doc) {
+        Element el = doc.createElementNS(emptyToNull(reader.getNamespaceURI()), qname(reader.getPrefix(), reader.getLocalName()));
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String p = reader.getNamespacePrefix(i);
+            el.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, qname(XMLConstants.XMLNS_ATTRIBUTE, p), reader.getNamespaceURI(i));
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            el.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)),
+                    qname(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)), reader.getAttributeValue(i));
+        }
+        return el;
+    }
+
+    private static String qname(String prefix, String localName) {
+        if (prefix == null || prefix.isEmpty())
+            return localName;
+        return localName == null || localName.isEmpty() ? prefix : prefix + ":" + localName;
+    }
+
+    private static String emptyToNull(String s) {
+        return s == null || s.isEmpty() ? null : s;
+    }
+
+}
@@ -0,0 +1,178 @@
+package org.s1.web.formats;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Extracts values of known paths from XML stream without building DOM.
+ * <br>
+ * Paths have the same syntax and meaning as in {@link Xml#get(org.w3c.dom.Element, String, Map)}
+ * (relative to document element, last index <code>[-1]</code> is not supported).
+ * All paths are evaluated in one StAX pass, reading stops as soon as all values are found.
+ *
+ * @author Grigory Pykhov
+ */
+public class XmlExtractor {
+
+    private XmlExtractor() {
+    }
+
+    /**
+     * Extract values
+     *
+     * @param is         Stream
+     * @param encoding   Encoding (null - from XML declaration)
+     * @param namespaces Namespaces (prefix - URI)
+     * @param paths      Paths
+     * @return Path - value (null if not found), in order of paths
+     */
+    public static Map<String, String> extract(InputStream is, String encoding, Map<String, String> namespaces, String... paths) {
+        return extract(is, encoding, namespaces, Arrays.asList(paths));
+    }
+
+    /**
+     * Extract values
+     *
+     * @param is         Stream
+     * @param encoding   Encoding (null - from XML declaration)
+     * @param namespaces Namespaces (prefix - URI)
+     * @param paths      Paths
+     * @return Path - value (null if not found), in order of paths
+     */
+    public static Map<String, String> extract(InputStream is, String encoding, Map<String, String> namespaces, Collection<String> paths) {
+        if (namespaces == null)
+            namespaces = new HashMap<String, String>();
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        List<Target> targets = new ArrayList<Target>();
+        for (String p : paths) {
+            if (!values.containsKey(p)) {
+                values.put(p, null);
+                targets.add(new Target(p, PathStep.parse(p, namespaces)));
+            }
+        }
+        XMLStreamReader r = Xml.newStreamReader(is, encoding);
+        try {
+            int active = targets.size();
+            int depth = -1;
+            while (active > 0 && r.hasNext()) {
+                int e = r.next();
+                if (e == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    for (Target t : targets) {
+                        if (!t.done && t.capture < 0 && t.start(r, depth)) {
+                            values.put(t.path, t.value);
+                            active--;
+                        }
+                    }
+                } else if (e == XMLStreamConstants.END_ELEMENT) {
+                    for (Target t : targets) {
+                        if (!t.done && t.end(depth)) {
+                            values.put(t.path, t.value);
+                            active--;
+                        }
+                    }
+                    depth--;
+                } else if (e == XMLStreamConstants.CHARACTERS || e == XMLStreamConstants.CDATA || e == XMLStreamConstants.SPACE) {
+                    for (Target t : targets) {
+                        if (t.text != null)
+                            t.text.append(r.getTextCharacters(), r.getTextStart(), r.getTextLength());
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException("Invalid XML: " + e.getMessage(), e);
+        } finally {
+            try {
+                r.close();
+            } catch (XMLStreamException e) {
+                //ignore
+            }
+        }
+        return values;
+    }
+
+    /**
+     * State of one path
+     */
+    private static class Target {
+        private final String path;
+        private final PathStep[] steps;
+        //element steps (path stops at first attribute step)
+        private final int length;
+        private final PathStep attribute;
+        //matched element steps, last matched element is on this depth
+        private int matched;
+        //matching children of last matched element seen
+        private int count;
+        //depth of element which text is collected
+        private int capture = -1;
+        private StringBuilder text;
+        private String value;
+        private boolean done;
+
+        private Target(String path, PathStep[] steps) {
+            this.path = path;
+            this.steps = steps;
+            int l = 0;
+            while (l < steps.length && !steps[l].attribute) {
+                if (steps[l].index < 0)
+                    throw new IllegalArgumentException("Last element index is not supported in streaming mode: " + path);
+                l++;
+            }
+            this.length = l;
+            this.attribute = l < steps.length ? steps[l] : null;
+        }
+
+        /**
+         * @return true if path is evaluated
+         */
+        private boolean start(XMLStreamReader r, int depth) {
+            if (depth > 0) {
+                if (depth != matched + 1 || matched >= length || !steps[matched].matches(r.getLocalName(), r.getNamespaceURI()))
+                    return false;
+                if (count++ != steps[matched].index)
+                    return false;
+                matched++;
+                count = 0;
+            }
+            if (matched < length)
+                return false;
+            if (attribute != null) {
+                for (int i = 0; i < r.getAttributeCount(); i++) {
+                    if (r.getAttributeLocalName(i).equals(attribute.localName)
+                            && (attribute.namespaceURI == null || attribute.namespaceURI.equals(r.getAttributeNamespace(i)))) {
+                        value = r.getAttributeValue(i);
+                        done = true;
+                        return true;
+                    }
+                }
+            }
+            //text of element, also when attribute is not found (like in Xml.get)
+            capture = depth;
+            text = new StringBuilder();
+            return false;
+        }
+
+        /**
+         * @return true if path is evaluated
+         */
+        private boolean end(int depth) {
+            if (capture == depth) {
+                value = text.toString();
+                text = null;
+                done = true;
+                return true;
+            }
+            if (capture < 0 && depth == matched) {
+                //element chosen by path has no such children
+                done = true;
+                return true;
+            }
+            return false;
+        }
+    }
+
+}
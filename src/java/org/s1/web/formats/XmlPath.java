@@ -0,0 +1,139 @@
+package org.s1.web.formats;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled Xml path (see {@link Xml#compile(String, Map)}).
+ * <br>
+ * Path is tokenized and namespace prefixes are resolved once, evaluation walks child elements directly.
+ * Compiled path is immutable and may be shared between threads.
+ *
+ * @author Grigory Pykhov
+ */
+public class XmlPath {
+
+    private final String path;
+    private final PathStep[] steps;
+
+    XmlPath(String path, Map<String, String> namespaces) {
+        this.path = path;
+        this.steps = PathStep.parse(path, namespaces);
+    }
+
+    /**
+     * @return Source path
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Get element, every step chooses one child (first if index is not set)
+     *
+     * @param el Element
+     * @return Element or null
+     */
+    public Element getElement(Element el) {
+        for (int i = 0; i < steps.length && el != null; i++) {
+            el = child(el, steps[i]);
+        }
+        return el;
+    }
+
+    /**
+     * Get element list, steps without index match all children with that name
+     *
+     * @param el Element
+     * @return Founded elements in document order
+     */
+    public List<Element> getElementList(Element el) {
+        List<Element> res = new ArrayList<Element>();
+        fill(el, 0, res);
+        return res;
+    }
+
+    /**
+     * Get attribute value or text content
+     *
+     * @param el Element
+     * @return Value or null
+     */
+    public String get(Element el) {
+        for (int i = 0; i < steps.length && el != null; i++) {
+            PathStep s = steps[i];
+            if (s.attribute) {
+                String v = attribute(el, s);
+                if (v != null)
+                    return v;
+                break;
+            }
+            el = child(el, s);
+        }
+        return el == null ? null : el.getTextContent();
+    }
+
+    /**
+     * Get and cast
+     *
+     * @param t   Type
+     * @param el  Element
+     * @param <T> Type
+     * @return Casted object
+     */
+    public <T> T get(Class<T> t, Element el) {
+        return Types.cast(get(el), t);
+    }
+
+    private void fill(Element el, int i, List<Element> res) {
+        if (i == steps.length) {
+            res.add(el);
+            return;
+        }
+        PathStep s = steps[i];
+        if (s.indexed) {
+            Element c = child(el, s);
+            if (c != null)
+                fill(c, i + 1, res);
+            return;
+        }
+        List<Element> l = Xml.getIndexedChildren(el, s.localName, s.namespaceURI);
+        if (l != null) {
+            for (Element c : l) {
+                fill(c, i + 1, res);
+            }
+            return;
+        }
+        for (Node n = el.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n instanceof Element && s.matches(n.getLocalName(), n.getNamespaceURI()))
+                fill((Element) n, i + 1, res);
+        }
+    }
+
+    private static Element child(Element el, PathStep s) {
+        return Xml.getChildElement(s.index, el, s.localName, s.namespaceURI);
+    }
+
+    private static String attribute(Element el, PathStep s) {
+        NamedNodeMap attrs = el.getAttributes();
+        for (int k = 0; k < attrs.getLength(); k++) {
+            Attr a = (Attr) attrs.item(k);
+            if (s.localName.equals(a.getLocalName())
+                    && (s.namespaceURI == null || s.namespaceURI.equals(a.getNamespaceURI())))
+                return a.getValue();
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+
+}
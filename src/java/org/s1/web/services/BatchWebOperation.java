@@ -0,0 +1,470 @@
+package org.s1.web.services;
+
+import org.apache.commons.codec.binary.Base64;
+import org.s1.web.formats.Json;
+import org.s1.web.formats.JsonWriter;
+import org.s1.web.services.formats.RawData;
+import org.s1.web.services.formats.RenderedData;
+import org.s1.web.session.SessionScope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.*;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Built-in batch operation, it is registered as {@link #NAME}.
+ * <br>
+ * Request body is JSON array: <code>[{"operation":"users/1","params":{"a":1}},{"operation":"test1","method":"POST"}]</code>,
+ * sub-operations are processed in parallel on bounded pool, session is resolved and loaded once for all of them.
+ * Items rejected by pool (it is full or shut down) are answered with 503 status.
+ * Params are passed both as query string (scalar values) and as JSON body, default method is GET.
+ * <br>
+ * Response is JSON array: <code>[{"index":0,"operation":"users/1","status":200,"contentType":"application/json","body":{...}}]</code>,
+ * JSON bodies are embedded as is, text bodies - as strings, others - as base64 strings (<code>"bodyEncoding":"base64"</code>).
+ * With <code>?stream=true</code> items are written and flushed as soon as they are finished (in completion order).
+ *
+ * @author Grigory Pykhov
+ */
+public class BatchWebOperation extends WebOperation {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchWebOperation.class);
+
+    /**
+     * Reserved operation name
+     */
+    public static final String NAME = "_batch";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ThreadPoolExecutor executor;
+    private final int maxItems;
+
+    /**
+     * 16 threads, up to 100 items per batch
+     */
+    public BatchWebOperation() {
+        this(16, 100);
+    }
+
+    /**
+     * @param threads  Pool size
+     * @param maxItems Max items per batch
+     */
+    public BatchWebOperation(int threads, int maxItems) {
+        final AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * 4), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "S1-Web-Batch-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        }, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.maxItems = maxItems;
+    }
+
+    /**
+     * Stop pool
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    protected WebOperationOutput process(WebOperationInput input) {
+        HttpServletRequest request = input.getRequest();
+        HttpServletResponse response = input.getResponse();
+        try {
+            List<Map<String, Object>> items = parseItems(request);
+            if (items == null || items.size() > maxItems) {
+                response.setStatus(400);
+                return new RawData();
+            }
+            ServiceDispatcherServlet dispatcher = (ServiceDispatcherServlet) request.getAttribute(ServiceDispatcherServlet.DISPATCHER_ATTRIBUTE);
+            boolean stream = "true".equals(request.getParameter("stream"));
+            execute(dispatcher, items, request, response, stream);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        return new RawData();
+    }
+
+    private List<Map<String, Object>> parseItems(HttpServletRequest request) throws IOException {
+        Object o;
+        try {
+            o = Json.read(request.getInputStream(), request.getCharacterEncoding());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!(o instanceof List))
+            return null;
+        List<Map<String, Object>> items = new ArrayList<Map<String, Object>>();
+        for (Object it : (List) o) {
+            if (!(it instanceof Map) || !(((Map) it).get("operation") instanceof String))
+                return null;
+            items.add((Map<String, Object>) it);
+        }
+        return items;
+    }
+
+    private void execute(final ServiceDispatcherServlet dispatcher, final List<Map<String, Object>> items,
+                         final HttpServletRequest request, HttpServletResponse response,
+                         boolean stream) throws IOException, InterruptedException {
+        final String sessionId = SessionScope.getId();
+        final SessionScope.Context session = sessionId != null && SessionScope.isInitialized() ? SessionScope.getContext() : null;
+        final HttpServletResponse shared = new SharedResponse(response);
+        CompletionService<Result> cs = new ExecutorCompletionService<Result>(executor);
+
+        response.setCharacterEncoding("UTF-8");
+        response.setContentType("application/json");
+        JsonWriter w = new JsonWriter(response.getOutputStream());
+        Result[] results = new Result[items.size()];
+        w.beginArray();
+        //batch keeps at most pool size items in flight, so it does not fill pool queue with its own items
+        int window = executor.getMaximumPoolSize();
+        int submitted = 0;
+        int running = 0;
+        int done = 0;
+        while (done < items.size()) {
+            Result r = null;
+            if (submitted < items.size() && running < window) {
+                final int index = submitted++;
+                final Map<String, Object> item = items.get(index);
+                try {
+                    cs.submit(new Callable<Result>() {
+                        @Override
+                        public Result call() throws Exception {
+                            return executeItem(dispatcher, index, item, request, shared, sessionId, session);
+                        }
+                    });
+                    running++;
+                    continue;
+                } catch (RejectedExecutionException e) {
+                    r = new Result(index, (String) item.get("operation"), new RenderedData(503, null, null, new byte[0]));
+                }
+            } else {
+                try {
+                    r = cs.take().get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+                running--;
+            }
+            done++;
+            if (stream) {
+                r.write(w);
+                w.flush();
+            } else {
+                results[r.index] = r;
+            }
+        }
+        if (!stream) {
+            for (Result r : results) {
+                r.write(w);
+            }
+        }
+        w.endArray();
+        w.flush();
+    }
+
+    private Result executeItem(ServiceDispatcherServlet dispatcher, int index, Map<String, Object> item,
+                               HttpServletRequest request, HttpServletResponse response, String sessionId,
+                               SessionScope.Context session) {
+        String operation = (String) item.get("operation");
+        if (NAME.equals(operation) || dispatcher == null)
+            return new Result(index, operation, new RenderedData(400, null, null, new byte[0]));
+        String method = item.get("method") instanceof String ? ((String) item.get("method")).toUpperCase() : "GET";
+        Map<String, Object> params = item.get("params") instanceof Map ? (Map<String, Object>) item.get("params")
+                : new HashMap<String, Object>();
+        BufferedResponse buf = new BufferedResponse(response);
+        try {
+            ItemRequest req = new ItemRequest(request, operation, method, params);
+            if (sessionId != null)
+                req.setAttribute(WebOperation.SESSION_ID_ATTRIBUTE, sessionId);
+            if (session != null)
+                req.setAttribute(WebOperation.SESSION_ATTRIBUTE, session);
+            dispatcher.process(req, buf);
+            return new Result(index, operation, buf.toRenderedData());
+        } catch (Throwable e) {
+            LOG.error("Error processing batch item " + operation + ": " + e.getClass().getName() + ": " + e.getMessage(), e);
+            return new Result(index, operation, new RenderedData(500, null, null, new byte[0]));
+        }
+    }
+
+    private static class Result {
+        private final int index;
+        private final String operation;
+        private final RenderedData data;
+
+        private Result(int index, String operation, RenderedData data) {
+            this.index = index;
+            this.operation = operation;
+            this.data = data;
+        }
+
+        private void write(JsonWriter w) throws IOException {
+            w.beginObject()
+                    .name("index").value(index)
+                    .name("operation").value(operation)
+                    .name("status").value(data.getStatus());
+            if (data.getContentType() != null)
+                w.name("contentType").value(data.getContentType());
+            byte[] body = data.getData();
+            String ct = data.getContentType() == null ? "" : data.getContentType().toLowerCase();
+            Charset cs = data.getEncoding() == null ? UTF8 : Charset.forName(data.getEncoding());
+            if (body.length == 0) {
+                //no body
+            } else if (ct.contains("json")) {
+                w.name("body").rawValue(cs.equals(UTF8) ? body : new String(body, cs).getBytes(UTF8));
+            } else if (ct.startsWith("text/") || ct.contains("xml") || ct.contains("javascript") || ct.contains("urlencoded")) {
+                w.name("body").value(new String(body, cs));
+            } else {
+                w.name("bodyEncoding").value("base64")
+                        .name("body").value(Base64.encodeBase64String(body));
+            }
+            w.endObject();
+        }
+    }
+
+    /**
+     * Sub-operations are processed in parallel, headers and cookies of batch response are changed under lock
+     * ({@link ReentrantLock}, it doesn't pin carrier of virtual thread)
+     */
+    private static class SharedResponse extends HttpServletResponseWrapper {
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private SharedResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public void addCookie(Cookie cookie) {
+            lock.lock();
+            try {
+                super.addCookie(cookie);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            lock.lock();
+            try {
+                super.setHeader(name, value);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            lock.lock();
+            try {
+                super.addHeader(name, value);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void setDateHeader(String name, long date) {
+            lock.lock();
+            try {
+                super.setDateHeader(name, date);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void addDateHeader(String name, long date) {
+            lock.lock();
+            try {
+                super.addDateHeader(name, date);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            lock.lock();
+            try {
+                super.setIntHeader(name, value);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            lock.lock();
+            try {
+                super.addIntHeader(name, value);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Sub-operation request, has its own URI, method, parameters, body and attributes
+     */
+    private static class ItemRequest extends HttpServletRequestWrapper {
+        private final String uri;
+        private final String method;
+        private final String queryString;
+        private final Map<String, String[]> parameters = new LinkedHashMap<String, String[]>();
+        private final byte[] body;
+        private final Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+
+        private ItemRequest(HttpServletRequest request, String operation, String method, Map<String, Object> params) throws IOException {
+            super(request);
+            this.uri = request.getContextPath() + request.getServletPath() + "/" + operation;
+            this.method = method;
+            StringBuilder qs = new StringBuilder();
+            for (Map.Entry<String, Object> e : params.entrySet()) {
+                Object v = e.getValue();
+                if (v == null || v instanceof Map || v instanceof List)
+                    continue;
+                parameters.put(e.getKey(), new String[]{v.toString()});
+                if (qs.length() > 0)
+                    qs.append('&');
+                qs.append(URLEncoder.encode(e.getKey(), "UTF-8")).append('=').append(URLEncoder.encode(v.toString(), "UTF-8"));
+            }
+            this.queryString = qs.length() == 0 ? null : qs.toString();
+            this.body = Json.toBytes(params);
+        }
+
+        @Override
+        public String getRequestURI() {
+            return uri;
+        }
+
+        @Override
+        public StringBuffer getRequestURL() {
+            return new StringBuffer(uri);
+        }
+
+        @Override
+        public String getMethod() {
+            return method;
+        }
+
+        @Override
+        public String getQueryString() {
+            return queryString;
+        }
+
+        @Override
+        public String getParameter(String name) {
+            String[] v = parameters.get(name);
+            return v == null ? null : v[0];
+        }
+
+        @Override
+        public Map<String, String[]> getParameterMap() {
+            return Collections.unmodifiableMap(parameters);
+        }
+
+        @Override
+        public Enumeration<String> getParameterNames() {
+            return Collections.enumeration(parameters.keySet());
+        }
+
+        @Override
+        public String getHeader(String name) {
+            if ("If-None-Match".equalsIgnoreCase(name) || "Content-Length".equalsIgnoreCase(name))
+                return null;
+            if ("Content-Type".equalsIgnoreCase(name))
+                return getContentType();
+            return super.getHeader(name);
+        }
+
+        @Override
+        public String getContentType() {
+            return "application/json";
+        }
+
+        @Override
+        public int getContentLength() {
+            return body.length;
+        }
+
+        @Override
+        public String getCharacterEncoding() {
+            return "UTF-8";
+        }
+
+        @Override
+        public void setCharacterEncoding(String env) {
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            final ByteArrayInputStream is = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public int read() throws IOException {
+                    return is.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return is.read(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body), UTF8));
+        }
+
+        @Override
+        public boolean isAsyncSupported() {
+            return false;
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            Object o = attributes.get(name);
+            //item has its own deadline (batch deadline is checked by batch request)
+            if (o != null || WebOperationInput.DEADLINE_ATTRIBUTE.equals(name))
+                return o;
+            return super.getAttribute(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object o) {
+            if (o == null)
+                attributes.remove(name);
+            else
+                attributes.put(name, o);
+        }
+
+        @Override
+        public void removeAttribute(String name) {
+            attributes.remove(name);
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+package org.s1.web.services;
+
+import org.s1.web.services.formats.RenderedData;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/**
+ * Response wrapper, keeps status, content type, encoding, ETag header and body in memory.
+ * <br>
+ * Other headers and cookies are passed to wrapped response.
+ * Use {@link #toRenderedData()} to get result.
+ *
+ * @author Grigory Pykhov
+ */
+public class BufferedResponse extends HttpServletResponseWrapper {
+
+    private static final String DEFAULT_ENCODING = "ISO-8859-1";
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private int status = 200;
+    private String contentType;
+    private String encoding;
+    private String etag;
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
+
+    /**
+     * @param response Response
+     */
+    public BufferedResponse(HttpServletResponse response) {
+        super(response);
+    }
+
+    /**
+     * @return Rendered data
+     */
+    public RenderedData toRenderedData() {
+        if (writer != null)
+            writer.flush();
+        return new RenderedData(status, contentType, encoding, buffer.toByteArray(), etag);
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if ("ETag".equalsIgnoreCase(name))
+            this.etag = value;
+        else
+            super.setHeader(name, value);
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        if ("ETag".equalsIgnoreCase(name))
+            this.etag = value;
+        else
+            super.addHeader(name, value);
+    }
+
+    @Override
+    public void setStatus(int sc) {
+        this.status = sc;
+    }
+
+    @Override
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException {
+        sendError(sc, null);
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+        resetBuffer();
+        this.status = sc;
+    }
+
+    @Override
+    public void setContentType(String type) {
+        this.contentType = type;
+        if (type != null) {
+            int i = type.toLowerCase().indexOf("charset=");
+            if (i >= 0) {
+                String cs = type.substring(i + "charset=".length()).trim();
+                if (cs.indexOf(';') >= 0)
+                    cs = cs.substring(0, cs.indexOf(';')).trim();
+                if (!cs.isEmpty())
+                    this.encoding = cs;
+            }
+        }
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public void setCharacterEncoding(String charset) {
+        if (writer == null)
+            this.encoding = charset;
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return encoding == null ? DEFAULT_ENCODING : encoding;
+    }
+
+    @Override
+    public void setContentLength(int len) {
+    }
+
+    @Override
+    public void setBufferSize(int size) {
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (writer != null)
+            throw new IllegalStateException("getWriter() has already been called");
+        if (outputStream == null) {
+            outputStream = new ServletOutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    buffer.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    buffer.write(b, off, len);
+                }
+            };
+        }
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (outputStream != null)
+            throw new IllegalStateException("getOutputStream() has already been called");
+        if (writer == null) {
+            writer = new PrintWriter(new OutputStreamWriter(buffer, getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null)
+            writer.flush();
+    }
+
+    @Override
+    public void resetBuffer() {
+        if (writer != null)
+            writer.flush();
+        buffer.reset();
+    }
+
+    @Override
+    public void reset() {
+        resetBuffer();
+        status = 200;
+        contentType = null;
+        etag = null;
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return false;
+    }
+}
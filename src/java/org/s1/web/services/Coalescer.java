@@ -0,0 +1,141 @@
+package org.s1.web.services;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import org.s1.web.services.formats.RenderedData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.*;
+
+/**
+ * Single-flight request coalescing.
+ * <br>
+ * Concurrent calls with the same key share one execution, its result is returned to every caller.
+ * Set it with {@link OperationSettings#setCoalescer(Coalescer)}, only GET and HEAD requests are coalesced,
+ * key is operation path with normalized query parameters.
+ * <br>
+ * Operation should be idempotent and shouldn't depend on session: only the first caller runs it.
+ * <br>
+ * Cluster-wide coalescing uses Hazelcast lock on key, result is kept in IMap {@link #RESULT_MAP}
+ * for a short time, so requests from other nodes waiting for lock get it.
+ *
+ * @author Grigory Pykhov
+ */
+public class Coalescer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Coalescer.class);
+
+    /**
+     * Hazelcast IMap name for results
+     */
+    public static final String RESULT_MAP = "S1-Web::CoalescerResults";
+
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+    private final HazelcastInstance hazelcastInstance;
+    private final long timeout;
+    private final long resultTTL;
+    private volatile IMap<String, RenderedData> resultMap;
+
+    /**
+     * Local coalescing, waiting timeout is 60 seconds
+     */
+    public Coalescer() {
+        this(null, 60000, 0);
+    }
+
+    /**
+     * Cluster-wide coalescing
+     *
+     * @param hazelcastInstance Hazelcast instance (null - local only)
+     * @param timeout           Max time to wait for another execution in milliseconds, after it request is processed by itself
+     * @param resultTTL         How long result is kept for other nodes in milliseconds (must be positive with Hazelcast)
+     * @throws IllegalArgumentException if resultTTL is not positive for cluster-wide coalescing
+     */
+    public Coalescer(HazelcastInstance hazelcastInstance, long timeout, long resultTTL) {
+        //zero TTL means "never expire" in IMap
+        if (hazelcastInstance != null && resultTTL <= 0)
+            throw new IllegalArgumentException("Result TTL must be positive: " + resultTTL);
+        this.hazelcastInstance = hazelcastInstance;
+        this.timeout = timeout;
+        this.resultTTL = resultTTL;
+    }
+
+    /**
+     * Execute or join execution with the same key
+     *
+     * @param key  Key
+     * @param call Execution
+     * @return Result
+     * @throws Exception Execution exception
+     */
+    public RenderedData execute(String key, Callable<RenderedData> call) throws Exception {
+        Flight f = new Flight();
+        Flight current = flights.putIfAbsent(key, f);
+        if (current != null) {
+            if (current.latch.await(timeout, TimeUnit.MILLISECONDS)) {
+                if (current.error != null)
+                    throw current.error;
+                if (current.result == null)
+                    throw new IllegalStateException("Coalesced execution returned no result: " + key);
+                return current.result;
+            }
+            LOG.warn("Coalesced request timed out waiting for " + key + ", processing it separately");
+            return call.call();
+        }
+        try {
+            f.result = hazelcastInstance == null ? call.call() : executeInCluster(key, call);
+            return f.result;
+        } catch (Exception e) {
+            f.error = e;
+            throw e;
+        } catch (Error e) {
+            //followers get it wrapped, leader's thread rethrows it as is
+            f.error = new ExecutionException(e);
+            throw e;
+        } finally {
+            flights.remove(key, f);
+            f.latch.countDown();
+        }
+    }
+
+    /**
+     * @return Number of executions in progress on this node
+     */
+    public int getInFlight() {
+        return flights.size();
+    }
+
+    private RenderedData executeInCluster(String key, Callable<RenderedData> call) throws Exception {
+        IMap<String, RenderedData> map = getResultMap();
+        if (!map.tryLock(key, timeout, TimeUnit.MILLISECONDS)) {
+            LOG.warn("Coalesced request timed out waiting for cluster lock " + key + ", processing it separately");
+            return call.call();
+        }
+        try {
+            RenderedData r = map.get(key);
+            if (r == null) {
+                r = call.call();
+                if (r.getStatus() == 200)
+                    map.set(key, r, resultTTL, TimeUnit.MILLISECONDS);
+            }
+            return r;
+        } finally {
+            map.unlock(key);
+        }
+    }
+
+    private IMap<String, RenderedData> getResultMap() {
+        if (resultMap == null) {
+            resultMap = hazelcastInstance.getMap(RESULT_MAP);
+        }
+        return resultMap;
+    }
+
+    private static class Flight {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile RenderedData result;
+        private volatile Exception error;
+    }
+
+}
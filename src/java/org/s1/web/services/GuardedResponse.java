@@ -0,0 +1,377 @@
+package org.s1.web.services;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Response wrapper for operation processed on executor thread.
+ * <br>
+ * After {@link #close(int)} all changes and writes are silently dropped, so operation which is still running
+ * when async request timed out cannot write to response owned by container.
+ * Every change is done under lock, close waits for write in progress
+ * (it is {@link ReentrantLock}, so virtual thread blocked on socket write does not pin its carrier).
+ *
+ * @author Grigory Pykhov
+ */
+public class GuardedResponse extends HttpServletResponseWrapper {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile boolean closed;
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
+
+    /**
+     * @param response Response
+     */
+    public GuardedResponse(HttpServletResponse response) {
+        super(response);
+    }
+
+    /**
+     * Stop passing output to wrapped response
+     *
+     * @param status Status to set if response is not committed (0 - keep status)
+     * @return false if response was already closed
+     */
+    public boolean close(int status) {
+        lock.lock();
+        try {
+            if (closed)
+                return false;
+            closed = true;
+            HttpServletResponse resp = (HttpServletResponse) getResponse();
+            try {
+                if (status > 0 && !resp.isCommitted()) {
+                    resp.reset();
+                    resp.setStatus(status);
+                }
+            } catch (RuntimeException e) {
+                //response may be already recycled by container
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return True if output is dropped
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return closed || super.isCommitted();
+    }
+
+    @Override
+    public void setStatus(int sc) {
+        lock.lock();
+        try {
+            if (!closed)
+                super.setStatus(sc);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+        lock.lock();
+        try {
+            if (!closed)
+                super.sendError(sc, msg);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException {
+        lock.lock();
+        try {
+            if (!closed)
+                super.sendError(sc);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void sendRedirect(String location) throws IOException {
+        lock.lock();
+        try {
+            if (!closed)
+                super.sendRedirect(location);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void addCookie(Cookie cookie) {
+        lock.lock();
+        try {
+            if (!closed)
+                super.addCookie(cookie);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        lock.lock();
+        try {
+            if (!closed)
+                super.setHeader(name, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        lock.lock();
+        try {
+            if (!closed)
+                super.addHeader(name, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setDateHeader(String name, long date) {
+        lock.lock();
+        try {
+            if (!closed)
+                super.setDateHeader(name, date);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void addDateHeader(String name, long date) {
+        lock.lock();
+        try {
+            if (!closed)
+                super.addDateHeader(name, date);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        lock.lock();
+        try {
+            if (!closed)
+                super.setIntHeader(name, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        lock.lock();
+        try {
+            if (!closed)
+                super.addIntHeader(name, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setContentType(String type) {
+        lock.lock();
+        try {
+            if (!closed)
+                super.setContentType(type);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setCharacterEncoding(String charset) {
+        lock.lock();
+        try {
+            if (!closed)
+                super.setCharacterEncoding(charset);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setContentLength(int len) {
+        lock.lock();
+        try {
+            if (!closed)
+                super.setContentLength(len);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setBufferSize(int size) {
+        lock.lock();
+        try {
+            if (!closed)
+                super.setBufferSize(size);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        lock.lock();
+        try {
+            if (!closed)
+                super.flushBuffer();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void reset() {
+        lock.lock();
+        try {
+            if (!closed)
+                super.reset();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void resetBuffer() {
+        lock.lock();
+        try {
+            if (!closed)
+                super.resetBuffer();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        lock.lock();
+        try {
+            if (outputStream == null) {
+                final ServletOutputStream out = closed ? null : super.getOutputStream();
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        lock.lock();
+                        try {
+                            if (!closed)
+                                out.write(b);
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        lock.lock();
+                        try {
+                            if (!closed)
+                                out.write(b, off, len);
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        lock.lock();
+                        try {
+                            if (!closed)
+                                out.flush();
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        lock.lock();
+                        try {
+                            if (!closed)
+                                out.close();
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                };
+            }
+            return outputStream;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        lock.lock();
+        try {
+            if (writer == null) {
+                final PrintWriter w = closed ? null : super.getWriter();
+                writer = new PrintWriter(new Writer() {
+                    @Override
+                    public void write(char[] cbuf, int off, int len) throws IOException {
+                        GuardedResponse.this.lock.lock();
+                        try {
+                            if (!closed)
+                                w.write(cbuf, off, len);
+                        } finally {
+                            GuardedResponse.this.lock.unlock();
+                        }
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        GuardedResponse.this.lock.lock();
+                        try {
+                            if (!closed)
+                                w.flush();
+                        } finally {
+                            GuardedResponse.this.lock.unlock();
+                        }
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        GuardedResponse.this.lock.lock();
+                        try {
+                            if (!closed)
+                                w.close();
+                        } finally {
+                            GuardedResponse.this.lock.unlock();
+                        }
+                    }
+                });
+            }
+            return writer;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
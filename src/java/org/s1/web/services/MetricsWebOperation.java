@@ -0,0 +1,28 @@
+package org.s1.web.services;
+
+import org.s1.web.services.formats.JSONData;
+import org.s1.web.services.formats.TextData;
+import org.s1.web.services.metrics.Metrics;
+
+/**
+ * Built-in metrics operation, it is registered as {@link #NAME}.
+ * <br>
+ * Returns {@link Metrics#toMap()} as JSON, or Prometheus text format with <code>?format=prometheus</code>.
+ *
+ * @author Grigory Pykhov
+ */
+public class MetricsWebOperation extends WebOperation {
+
+    /**
+     * Reserved operation name
+     */
+    public static final String NAME = "_metrics";
+
+    @Override
+    protected WebOperationOutput process(WebOperationInput input) {
+        if ("prometheus".equals(input.getRequest().getParameter("format")))
+            return new TextData(Metrics.toPrometheus());
+        return new JSONData(Metrics.toMap());
+    }
+
+}
@@ -0,0 +1,119 @@
+package org.s1.web.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Executors for web operations.
+ * <br>
+ * Use them when registering operation:
+ * <code>ServiceDispatcherServlet.getOperations().add("MyOperation", myWebOperationImpl, OperationExecutors.virtual())</code>
+ * <ul>
+ * <li>{@link #container()} - operation is processed on container thread (default)</li>
+ * <li>{@link #pool()} - operation is processed on shared bounded platform threads pool ({@link ServiceDispatcherServlet.Operations#getExecutor()})</li>
+ * <li>{@link #virtual()} - every request is processed on new virtual thread (if JVM supports them, otherwise - {@link #pool()})</li>
+ * </ul>
+ * Any other {@link Executor} may be used too.
+ *
+ * @author Grigory Pykhov
+ */
+public class OperationExecutors {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OperationExecutors.class);
+
+    private OperationExecutors() {
+    }
+
+    private static final Executor CONTAINER = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final Executor POOL = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            ServiceDispatcherServlet.getOperations().getExecutor().execute(command);
+        }
+    };
+
+    private static volatile ExecutorService virtual;
+    private static volatile Boolean virtualSupported;
+
+    /**
+     * @return Container thread executor
+     */
+    public static Executor container() {
+        return CONTAINER;
+    }
+
+    /**
+     * @return Shared platform threads pool
+     */
+    public static Executor pool() {
+        return POOL;
+    }
+
+    /**
+     * Virtual thread per task executor, if JVM doesn't support virtual threads - returns {@link #pool()}
+     *
+     * @return Executor
+     */
+    public static Executor virtual() {
+        if (!isVirtualThreadsSupported())
+            return POOL;
+        return getVirtualExecutor();
+    }
+
+    /**
+     * @return True if JVM supports virtual threads
+     */
+    public static boolean isVirtualThreadsSupported() {
+        if (virtualSupported == null) {
+            virtualSupported = getVirtualExecutorFactory() != null;
+            if (!virtualSupported)
+                LOG.warn("Virtual threads are not supported by this JVM, shared pool will be used instead");
+        }
+        return virtualSupported;
+    }
+
+    /**
+     * Stop virtual threads executor
+     */
+    public static void shutdown() {
+        ExecutorService ex = virtual;
+        virtual = null;
+        if (ex != null) {
+            ex.shutdown();
+        }
+    }
+
+    private static ExecutorService getVirtualExecutor() {
+        if (virtual == null) {
+            synchronized (OperationExecutors.class) {
+                if (virtual == null) {
+                    try {
+                        virtual = (ExecutorService) getVirtualExecutorFactory().invoke(null);
+                    } catch (Exception e) {
+                        throw new IllegalStateException("Cannot create virtual threads executor: " + e.getMessage(), e);
+                    }
+                }
+            }
+        }
+        return virtual;
+    }
+
+    private static Method getVirtualExecutorFactory() {
+        try {
+            return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+}
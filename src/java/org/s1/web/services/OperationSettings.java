@@ -0,0 +1,131 @@
+package org.s1.web.services;
+
+import org.s1.web.services.limits.ConcurrencyLimit;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Web operation settings, use it when registering operation:
+ * <code>ServiceDispatcherServlet.getOperations().add("MyOperation", myWebOperationImpl, new OperationSettings().setExecutor(OperationExecutors.virtual()))</code>
+ *
+ * @author Grigory Pykhov
+ */
+public class OperationSettings {
+
+    private Executor executor;
+    private ConcurrencyLimit limit;
+    private Coalescer coalescer;
+    private OutputCache cache;
+    private String[] cacheTags = new String[0];
+    private long deadline;
+
+    /**
+     * Executor operation will be processed on (see {@link OperationExecutors}).
+     * <br>
+     * If it is null - {@link OperationExecutors#pool()} is used for {@link WebOperation#isAsync()} operations,
+     * {@link OperationExecutors#container()} for others.
+     *
+     * @return Executor
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @param executor Executor
+     * @return OperationSettings
+     */
+    public OperationSettings setExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Concurrency limit, requests over it are rejected with 503 status (see {@link org.s1.web.services.limits})
+     *
+     * @return Limit (null - unlimited)
+     */
+    public ConcurrencyLimit getLimit() {
+        return limit;
+    }
+
+    /**
+     * @param limit Limit (null - unlimited)
+     * @return OperationSettings
+     */
+    public OperationSettings setLimit(ConcurrencyLimit limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Coalescer for concurrent identical GET requests
+     *
+     * @return Coalescer (null - disabled)
+     */
+    public Coalescer getCoalescer() {
+        return coalescer;
+    }
+
+    /**
+     * Identical requests are found by {@link ServiceDispatcherServlet#getRequestKey(javax.servlet.http.HttpServletRequest)},
+     * which does not include session, so do not set it for operations which output depends on session
+     *
+     * @param coalescer Coalescer (null - disabled)
+     * @return OperationSettings
+     */
+    public OperationSettings setCoalescer(Coalescer coalescer) {
+        this.coalescer = coalescer;
+        return this;
+    }
+
+    /**
+     * Cache for successful GET responses
+     *
+     * @return Cache (null - disabled)
+     */
+    public OutputCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return Tags for cached records (operation name is always added)
+     */
+    public String[] getCacheTags() {
+        return cacheTags;
+    }
+
+    /**
+     * Key is {@link ServiceDispatcherServlet#getRequestKey(javax.servlet.http.HttpServletRequest)},
+     * which does not include session, so do not set it for operations which output depends on session
+     *
+     * @param cache Cache (null - disabled)
+     * @param tags  Tags for cached records, operation name is always added
+     * @return OperationSettings
+     */
+    public OperationSettings setCache(OutputCache cache, String... tags) {
+        this.cache = cache;
+        this.cacheTags = tags;
+        return this;
+    }
+
+    /**
+     * Time budget counted from request start (see {@link ServiceDispatcherServlet.Operations#setRequestStartHeader(String)}),
+     * requests which are already out of it are rejected with 503 status instead of processing
+     *
+     * @return Deadline in milliseconds (0 - none)
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @param deadline Deadline in milliseconds (0 - none)
+     * @return OperationSettings
+     */
+    public OperationSettings setDeadline(long deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+}
@@ -0,0 +1,379 @@
+package org.s1.web.services;
+
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.core.EntryListener;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import org.s1.web.services.formats.RenderedData;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache for rendered operation output.
+ * <br>
+ * Set it with {@link OperationSettings#setCache(OutputCache, String...)}, only successful GET and HEAD responses are cached,
+ * key is operation path with normalized query parameters.
+ * <br>
+ * Local tier is LRU map limited by size, optional shared tier is Hazelcast IMap {@link #CACHE_MAP}.
+ * Every record has TTL and tags, records may be invalidated by key or by tag
+ * (tag invalidation changes tag version, records with old versions are discarded on read).
+ * <br>
+ * Key is a tag too, so invalidation by key also discards output which is being computed at that moment.
+ * With shared tier tag versions are kept in Hazelcast IMap {@link #TAGS_MAP} and mirrored locally by entry listener,
+ * so reading from local tier is not a network call, and invalidation by key discards records from local tiers of all nodes.
+ *
+ * @author Grigory Pykhov
+ */
+public class OutputCache {
+
+    /**
+     * Hazelcast IMap name for shared tier
+     */
+    public static final String CACHE_MAP = "S1-Web::OutputCache";
+
+    /**
+     * Hazelcast IMap name for tag versions
+     */
+    public static final String TAGS_MAP = "S1-Web::OutputCacheTags";
+
+    //prefix of record's own tag
+    private static final String KEY_TAG = "key\u0000";
+
+    private final int maxSize;
+    private final long ttl;
+    private final HazelcastInstance hazelcastInstance;
+    private final Map<String, Record> local;
+    //tag versions (copy of shared tag versions with shared tier)
+    private final Map<String, Long> localTags = new ConcurrentHashMap<String, Long>();
+    //expiration of key versions without shared tier
+    private final ConcurrentMap<String, Long> keyTagsExpires = new ConcurrentHashMap<String, Long>();
+    private volatile IMap<String, Record> sharedMap;
+    private volatile IMap<String, Long> sharedTags;
+
+    private final AtomicLong localHits = new AtomicLong();
+    private final AtomicLong sharedHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Local cache
+     *
+     * @param maxSize Max records count
+     * @param ttl     Time to live in milliseconds
+     */
+    public OutputCache(int maxSize, long ttl) {
+        this(maxSize, ttl, null);
+    }
+
+    /**
+     * Local cache with shared tier
+     *
+     * @param maxSize           Max records count in local tier
+     * @param ttl               Time to live in milliseconds
+     * @param hazelcastInstance Hazelcast instance (null - local only)
+     */
+    public OutputCache(final int maxSize, long ttl, HazelcastInstance hazelcastInstance) {
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.hazelcastInstance = hazelcastInstance;
+        this.local = new LinkedHashMap<String, Record>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Record> eldest) {
+                if (size() > maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get cached data
+     *
+     * @param key Key
+     * @return Data (or null)
+     */
+    public RenderedData get(String key) {
+        Record r;
+        synchronized (local) {
+            r = local.get(key);
+        }
+        if (r != null) {
+            if (isValid(r)) {
+                localHits.incrementAndGet();
+                return r.data;
+            }
+            synchronized (local) {
+                local.remove(key);
+            }
+        }
+        if (hazelcastInstance != null) {
+            r = getSharedMap().get(key);
+            if (r != null && isValid(r)) {
+                sharedHits.incrementAndGet();
+                synchronized (local) {
+                    local.put(key, r);
+                }
+                return r.data;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Current tag versions, take it before output is computed and pass to {@link #put(String, RenderedData, Stamp)},
+     * so output computed during invalidation is stored with old versions and discarded
+     *
+     * @param key  Key
+     * @param tags Tags
+     * @return Tag versions
+     */
+    public Stamp stamp(String key, String... tags) {
+        String[] t = new String[tags.length + 1];
+        System.arraycopy(tags, 0, t, 0, tags.length);
+        t[tags.length] = KEY_TAG + key;
+        tags = t;
+        long[] versions = new long[tags.length];
+        for (int i = 0; i < tags.length; i++) {
+            versions[i] = getTagVersion(tags[i]);
+        }
+        return new Stamp(tags, versions);
+    }
+
+    /**
+     * Put data to cache with current tag versions
+     *
+     * @param key  Key
+     * @param data Data
+     * @param tags Tags
+     */
+    public void put(String key, RenderedData data, String... tags) {
+        put(key, data, stamp(key, tags));
+    }
+
+    /**
+     * Put data to cache
+     *
+     * @param key   Key
+     * @param data  Data
+     * @param stamp Tag versions taken before data was computed (see {@link #stamp(String, String...)})
+     */
+    public void put(String key, RenderedData data, Stamp stamp) {
+        Record r = new Record(data, System.currentTimeMillis() + ttl, stamp.tags, stamp.versions);
+        if (!isValid(r))
+            return;
+        synchronized (local) {
+            local.put(key, r);
+        }
+        if (hazelcastInstance != null) {
+            getSharedMap().set(key, r, ttl, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Remove record
+     *
+     * @param key Key
+     */
+    public void invalidate(String key) {
+        //discard output which is being computed (and records in local tiers of other nodes),
+        //version is needed while such records may live
+        long v = ThreadLocalRandom.current().nextLong();
+        if (hazelcastInstance != null) {
+            getSharedTags().set(KEY_TAG + key, v, ttl, TimeUnit.MILLISECONDS);
+        } else {
+            removeExpiredKeyTags();
+            keyTagsExpires.put(KEY_TAG + key, System.currentTimeMillis() + ttl);
+        }
+        localTags.put(KEY_TAG + key, v);
+        synchronized (local) {
+            local.remove(key);
+        }
+        if (hazelcastInstance != null) {
+            getSharedMap().delete(key);
+        }
+    }
+
+    //without shared tier key versions are removed here instead of IMap expiration
+    private void removeExpiredKeyTags() {
+        if (keyTagsExpires.size() < maxSize)
+            return;
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Long> e : keyTagsExpires.entrySet()) {
+            if (e.getValue() < now && keyTagsExpires.remove(e.getKey(), e.getValue()))
+                localTags.remove(e.getKey());
+        }
+    }
+
+    /**
+     * Discard all records with tag
+     *
+     * @param tag Tag
+     */
+    public void invalidateTag(String tag) {
+        long v = ThreadLocalRandom.current().nextLong();
+        if (hazelcastInstance != null)
+            getSharedTags().set(tag, v);
+        localTags.put(tag, v);
+    }
+
+    /**
+     * Clear local tier (shared tier is not affected)
+     */
+    public void clear() {
+        synchronized (local) {
+            local.clear();
+        }
+    }
+
+    /**
+     * @return Records count in local tier
+     */
+    public int getSize() {
+        synchronized (local) {
+            return local.size();
+        }
+    }
+
+    /**
+     * @return Max records count in local tier
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return Hits count in local tier
+     */
+    public long getLocalHits() {
+        return localHits.get();
+    }
+
+    /**
+     * @return Hits count in shared tier
+     */
+    public long getSharedHits() {
+        return sharedHits.get();
+    }
+
+    /**
+     * @return Misses count
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return Evictions count from local tier
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "OutputCache{size=" + getSize() + ", localHits=" + getLocalHits() + ", sharedHits=" + getSharedHits()
+                + ", misses=" + getMisses() + ", evictions=" + getEvictions() + "}";
+    }
+
+    private boolean isValid(Record r) {
+        if (r.expires < System.currentTimeMillis())
+            return false;
+        for (int i = 0; i < r.tags.length; i++) {
+            if (getTagVersion(r.tags[i]) != r.tagVersions[i])
+                return false;
+        }
+        return true;
+    }
+
+    private long getTagVersion(String tag) {
+        if (hazelcastInstance != null)
+            getSharedTags();
+        Long v = localTags.get(tag);
+        return v == null ? 0 : v;
+    }
+
+    private IMap<String, Record> getSharedMap() {
+        if (sharedMap == null) {
+            sharedMap = hazelcastInstance.getMap(CACHE_MAP);
+        }
+        return sharedMap;
+    }
+
+    private IMap<String, Long> getSharedTags() {
+        if (sharedTags == null) {
+            synchronized (localTags) {
+                if (sharedTags == null) {
+                    IMap<String, Long> m = hazelcastInstance.getMap(TAGS_MAP);
+                    m.addEntryListener(new EntryListener<String, Long>() {
+                        @Override
+                        public void entryAdded(EntryEvent<String, Long> event) {
+                            localTags.put(event.getKey(), event.getValue());
+                        }
+
+                        @Override
+                        public void entryRemoved(EntryEvent<String, Long> event) {
+                            localTags.remove(event.getKey());
+                        }
+
+                        @Override
+                        public void entryUpdated(EntryEvent<String, Long> event) {
+                            localTags.put(event.getKey(), event.getValue());
+                        }
+
+                        @Override
+                        public void entryEvicted(EntryEvent<String, Long> event) {
+                            localTags.remove(event.getKey());
+                        }
+                    }, true);
+                    //versions changed before listener was added
+                    for (Map.Entry<String, Long> e : m.entrySet()) {
+                        if (!localTags.containsKey(e.getKey()))
+                            localTags.put(e.getKey(), e.getValue());
+                    }
+                    sharedTags = m;
+                }
+            }
+        }
+        return sharedTags;
+    }
+
+    /**
+     * Tag versions at some moment
+     */
+    public static class Stamp {
+        private final String[] tags;
+        private final long[] versions;
+
+        private Stamp(String[] tags, long[] versions) {
+            this.tags = tags;
+            this.versions = versions;
+        }
+    }
+
+    private static class Record implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final RenderedData data;
+        private final long expires;
+        private final String[] tags;
+        private final long[] tagVersions;
+
+        private Record(RenderedData data, long expires, String[] tags, long[] tagVersions) {
+            this.data = data;
+            this.expires = expires;
+            this.tags = tags;
+            this.tagVersions = tagVersions;
+        }
+    }
+
+}
@@ -0,0 +1,228 @@
+package org.s1.web.services;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.*;
+
+/**
+ * Segment trie for operation names.
+ * <br>
+ * Templates may contain path parameters: <code>users/{id}/orders</code>.
+ * Static segments have priority over parameters.
+ * <br>
+ * Trie is rebuilt on every {@link #add(String, Object)} (it should be called on application start),
+ * lookup doesn't split path, its cost is proportional to path depth.
+ *
+ * @param <T> Value type
+ * @author Grigory Pykhov
+ */
+class RouteTrie<T> {
+
+    private final Map<String, T> templates = new LinkedHashMap<String, T>();
+    private volatile Node<T> root = new Node<T>();
+
+    /**
+     * Add template
+     *
+     * @param template Template
+     * @param value    Value
+     */
+    public synchronized void add(String template, T value) {
+        templates.put(template, value);
+        Node<T> r = new Node<T>();
+        for (Map.Entry<String, T> e : templates.entrySet()) {
+            r.add(e.getKey(), e.getValue());
+        }
+        root = r;
+    }
+
+    /**
+     * Find value for path
+     *
+     * @param path Path
+     * @return Match or null if nothing found
+     */
+    public Match<T> match(String path) {
+        Node<T> r = root;
+        int[] bounds = r.maxParams > 0 ? new int[r.maxParams * 2] : null;
+        Node<T> n = r.match(path, 0, bounds, 0);
+        if (n == null)
+            return null;
+        Map<String, String> params;
+        if (n.paramNames.length == 0) {
+            params = Collections.emptyMap();
+        } else {
+            params = new HashMap<String, String>(n.paramNames.length * 2);
+            for (int i = 0; i < n.paramNames.length; i++) {
+                params.put(n.paramNames[i], decode(path.substring(bounds[i * 2], bounds[i * 2 + 1])));
+            }
+        }
+        return new Match<T>(n.template, n.value, params);
+    }
+
+    private static String decode(String s) {
+        if (s.indexOf('%') < 0)
+            return s;
+        try {
+            return URLDecoder.decode(s.replace("+", "%2B"), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalArgumentException e) {
+            return s;
+        }
+    }
+
+    private static boolean isParam(String segment) {
+        return segment.length() > 2 && segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}';
+    }
+
+    /**
+     * Lookup result
+     *
+     * @param <T> Value type
+     */
+    public static class Match<T> {
+        private final String template;
+        private final T value;
+        private final Map<String, String> parameters;
+
+        private Match(String template, T value, Map<String, String> parameters) {
+            this.template = template;
+            this.value = value;
+            this.parameters = parameters;
+        }
+
+        /**
+         * @return Matched template
+         */
+        public String getTemplate() {
+            return template;
+        }
+
+        /**
+         * @return Value
+         */
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * @return Path parameters
+         */
+        public Map<String, String> getParameters() {
+            return parameters;
+        }
+    }
+
+    private static class Node<T> {
+        private int[] hashes = new int[0];
+        private String[] segments = new String[0];
+        private Node<T>[] children = newArray(0);
+        private Node<T> param;
+
+        private String template;
+        private T value;
+        private String[] paramNames;
+        private int maxParams;
+
+        @SuppressWarnings("unchecked")
+        private static <T> Node<T>[] newArray(int size) {
+            return new Node[size];
+        }
+
+        private void add(String template, T value) {
+            Node<T> n = this;
+            List<String> names = new ArrayList<String>();
+            int start = 0;
+            while (true) {
+                int end = template.indexOf('/', start);
+                if (end < 0)
+                    end = template.length();
+                String segment = template.substring(start, end);
+                if (isParam(segment)) {
+                    names.add(segment.substring(1, segment.length() - 1));
+                    if (n.param == null)
+                        n.param = new Node<T>();
+                    n = n.param;
+                } else {
+                    n = n.child(segment);
+                }
+                if (end == template.length())
+                    break;
+                start = end + 1;
+            }
+            n.template = template;
+            n.value = value;
+            n.paramNames = names.toArray(new String[names.size()]);
+            maxParams = Math.max(maxParams, names.size());
+        }
+
+        private Node<T> child(String segment) {
+            int h = segment.hashCode();
+            int i = 0;
+            while (i < hashes.length && hashes[i] <= h) {
+                if (hashes[i] == h && segments[i].equals(segment))
+                    return children[i];
+                i++;
+            }
+            Node<T> n = new Node<T>();
+            int len = hashes.length;
+            int[] h2 = new int[len + 1];
+            String[] s2 = new String[len + 1];
+            Node<T>[] c2 = newArray(len + 1);
+            System.arraycopy(hashes, 0, h2, 0, i);
+            System.arraycopy(segments, 0, s2, 0, i);
+            System.arraycopy(children, 0, c2, 0, i);
+            h2[i] = h;
+            s2[i] = segment;
+            c2[i] = n;
+            System.arraycopy(hashes, i, h2, i + 1, len - i);
+            System.arraycopy(segments, i, s2, i + 1, len - i);
+            System.arraycopy(children, i, c2, i + 1, len - i);
+            hashes = h2;
+            segments = s2;
+            children = c2;
+            return n;
+        }
+
+        private Node<T> match(String path, int start, int[] bounds, int depth) {
+            int end = path.indexOf('/', start);
+            boolean last = end < 0;
+            if (last)
+                end = path.length();
+
+            //static segment, hash is calculated like String#hashCode()
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + path.charAt(i);
+            }
+            int len = end - start;
+            int i = Arrays.binarySearch(hashes, h);
+            if (i >= 0) {
+                while (i > 0 && hashes[i - 1] == h)
+                    i--;
+                for (; i < hashes.length && hashes[i] == h; i++) {
+                    String s = segments[i];
+                    if (s.length() == len && path.regionMatches(start, s, 0, len)) {
+                        Node<T> n = last ? children[i] : children[i].match(path, end + 1, bounds, depth);
+                        if (n != null && n.template != null)
+                            return n;
+                        break;
+                    }
+                }
+            }
+
+            //parameter
+            if (param != null && len > 0) {
+                Node<T> n = last ? param : param.match(path, end + 1, bounds, depth + 1);
+                if (n != null && n.template != null) {
+                    bounds[depth * 2] = start;
+                    bounds[depth * 2 + 1] = end;
+                    return n;
+                }
+            }
+            return null;
+        }
+    }
+
+}
@@ -1,13 +1,30 @@
 package org.s1.web.services;
 
+import org.s1.web.formats.Codec;
+import org.s1.web.formats.Codecs;
+import org.s1.web.formats.JsonArrayParser;
+import org.s1.web.services.formats.FormData;
+import org.s1.web.services.formats.RenderedData;
+import org.s1.web.services.limits.ConcurrencyLimit;
+import org.s1.web.services.metrics.Metrics;
+import org.s1.web.services.metrics.OperationMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.MultipartConfig;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.net.URLEncoder;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Service dispatcher servlet.
@@ -18,6 +35,7 @@ import java.util.concurrent.ConcurrentHashMap;
  *  &lt;servlet-name&gt;services&lt;/servlet-name&gt;
  *  &lt;servlet-class&gt;org.s1.web.services.ServiceDispatcherServlet&lt;/servlet-class&gt;
  *  &lt;load-on-startup&gt;1&lt;/load-on-startup&gt;
+ *  &lt;async-supported&gt;true&lt;/async-supported&gt;
  * &lt;/servlet&gt;
  * &lt;servlet-mapping&gt;
  *  &lt;servlet-name&gt;services&lt;/servlet-name&gt;
@@ -25,12 +43,43 @@ import java.util.concurrent.ConcurrentHashMap;
  * &lt;/servlet-mapping&gt;
  * </code></pre>
  * Add your WebOperations from {@link org.s1.web.ApplicationFilter} <code>ServiceDispatcherServlet.getOperations().add("MyOperation", myWebOperationImpl)</code>
+ * <br>
+ * Operation name may contain path parameters: <code>ServiceDispatcherServlet.getOperations().add("users/{id}/orders", myWebOperationImpl)</code>,
+ * they are available with {@link WebOperationInput#getPathParameters()}.
+ * <br>
+ * Operation may have concurrency limit ({@link OperationSettings#setLimit(ConcurrencyLimit)}),
+ * requests over the limit are rejected immediately with 503 status and <code>Retry-After</code> header.
+ * Requests which are already out of operation deadline ({@link OperationSettings#setDeadline(long)}) are shed with 503 status,
+ * before processing and again before async processing starts.
+ * <br>
+ * Identical concurrent GET requests to idempotent operation may share one execution ({@link OperationSettings#setCoalescer(Coalescer)}),
+ * their output may be cached ({@link OperationSettings#setCache(OutputCache, String...)}).
+ * <br>
+ * Operation may be processed on another executor (see {@link OperationExecutors}), e.g. <code>ServiceDispatcherServlet.getOperations().add("MyOperation", myWebOperationImpl, OperationExecutors.virtual())</code>,
+ * async operations (see {@link WebOperation#isAsync()}) are processed on bounded executor by default.
+ * <code>async-supported</code> is required for them (also for all filters mapped before this servlet).
+ * Stop executors with <code>ServiceDispatcherServlet.getOperations().shutdown()</code> from {@link org.s1.web.ApplicationFilter}.
+ * <br>
+ * Several operations may be processed with one request to built-in {@link BatchWebOperation} (<code>/services/_batch</code>).
+ * Operations metrics (see {@link Metrics}) are available with built-in {@link MetricsWebOperation} (<code>/services/_metrics</code>).
  *
  * @author Grigory Pykhov
  */
 @MultipartConfig
 public class ServiceDispatcherServlet extends HttpServlet {
 
+    private static final Logger LOG = LoggerFactory.getLogger(ServiceDispatcherServlet.class);
+
+    //async request states
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+
+    /**
+     * Request attribute with dispatcher instance processing request
+     */
+    public static final String DISPATCHER_ATTRIBUTE = "org.s1.web.services.Dispatcher";
+
     private static final Operations operations = new Operations();
 
     /**
@@ -44,11 +93,19 @@ public class ServiceDispatcherServlet extends HttpServlet {
      * Operations holder
      */
     public static class Operations {
+        private final Map<String, WebOperation> list = new ConcurrentHashMap<String, WebOperation>();
+        private final Map<String, OperationSettings> settings = new ConcurrentHashMap<String, OperationSettings>();
+        private final RouteTrie<String> routes = new RouteTrie<String>();
+        private final BatchWebOperation batch = new BatchWebOperation();
+        private volatile ExecutorService executor;
+        private volatile long asyncTimeout = 60000;
+        private volatile String requestStartHeader = "X-Request-Start";
+
         private Operations() {
+            add(BatchWebOperation.NAME, batch);
+            add(MetricsWebOperation.NAME, new MetricsWebOperation());
         }
 
-        private final Map<String, WebOperation> list = new ConcurrentHashMap<String, WebOperation>();
-
         /**
          * Add operation
          *
@@ -57,9 +114,161 @@ public class ServiceDispatcherServlet extends HttpServlet {
          * @return Operations
          */
         public Operations add(String name, WebOperation operation) {
+            return add(name, operation, new OperationSettings());
+        }
+
+        /**
+         * Add operation processed on specified executor
+         *
+         * @param name      Operation name (operation will be accessible with /services/OperationName)
+         * @param operation WebOperation instance
+         * @param executor  Executor (see {@link OperationExecutors})
+         * @return Operations
+         */
+        public Operations add(String name, WebOperation operation, Executor executor) {
+            return add(name, operation, new OperationSettings().setExecutor(executor));
+        }
+
+        /**
+         * Add operation
+         *
+         * @param name      Operation name (operation will be accessible with /services/OperationName)
+         * @param operation WebOperation instance
+         * @param settings  Operation settings
+         * @return Operations
+         */
+        public Operations add(String name, WebOperation operation, OperationSettings settings) {
             list.put(name, operation);
+            this.settings.put(name, settings);
+            routes.add(name, name);
+            Metrics.get(name);
+            return this;
+        }
+
+        /**
+         * @return Registered operation names
+         */
+        public Set<String> getNames() {
+            return Collections.unmodifiableSet(list.keySet());
+        }
+
+        /**
+         * Get operation settings (limits state may be inspected with it)
+         *
+         * @param name Operation name
+         * @return Settings (or null if operation is not registered)
+         */
+        public OperationSettings getSettings(String name) {
+            return settings.get(name);
+        }
+
+        /**
+         * Set executor for async operations
+         *
+         * @param executor Executor (should be bounded, tasks over the limit must be rejected)
+         * @return Operations
+         */
+        public Operations setExecutor(ExecutorService executor) {
+            this.executor = executor;
             return this;
         }
+
+        /**
+         * Set default executor for async operations
+         *
+         * @param threads   Number of threads
+         * @param queueSize Max number of waiting requests, others will be rejected with 503 status
+         * @return Operations
+         */
+        public Operations setExecutor(int threads, int queueSize) {
+            return setExecutor(newExecutor(threads, queueSize));
+        }
+
+        /**
+         * Executor for async operations, by default it has 64 threads and queue for 1000 requests
+         *
+         * @return Executor
+         */
+        public ExecutorService getExecutor() {
+            if (executor == null) {
+                synchronized (this) {
+                    if (executor == null) {
+                        executor = newExecutor(64, 1000);
+                    }
+                }
+            }
+            return executor;
+        }
+
+        /**
+         * Set async request timeout, request will be finished with 503 status if it is not processed in time
+         *
+         * @param asyncTimeout Timeout in milliseconds
+         * @return Operations
+         */
+        public Operations setAsyncTimeout(long asyncTimeout) {
+            this.asyncTimeout = asyncTimeout;
+            return this;
+        }
+
+        /**
+         * @return Async request timeout in milliseconds
+         */
+        public long getAsyncTimeout() {
+            return asyncTimeout;
+        }
+
+        /**
+         * Set header with request start time set by proxy (used for deadlines, see {@link OperationSettings#setDeadline(long)}).
+         * <br>
+         * Value may be in milliseconds, microseconds or seconds with fraction, optionally prefixed with <code>t=</code>
+         * (e.g. nginx <code>proxy_set_header X-Request-Start "t=${msec}"</code>).
+         * If there is no header, request start is the time it reached dispatcher.
+         *
+         * @param requestStartHeader Header name (null - don't use header)
+         * @return Operations
+         */
+        public Operations setRequestStartHeader(String requestStartHeader) {
+            this.requestStartHeader = requestStartHeader;
+            return this;
+        }
+
+        /**
+         * @return Request start header name (default X-Request-Start)
+         */
+        public String getRequestStartHeader() {
+            return requestStartHeader;
+        }
+
+        /**
+         * Stop async executor, call it from {@link org.s1.web.ApplicationFilter}
+         */
+        public void shutdown() {
+            ExecutorService ex = executor;
+            executor = null;
+            if (ex != null) {
+                ex.shutdown();
+            }
+            OperationExecutors.shutdown();
+            JsonArrayParser.shutdown();
+            batch.shutdown();
+            LOG.info("Async operations executors stopped");
+        }
+
+        private static ExecutorService newExecutor(int threads, int queueSize) {
+            final AtomicInteger counter = new AtomicInteger();
+            ThreadPoolExecutor ex = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "S1-Web-Async-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            ex.allowCoreThreadTimeOut(true);
+            return ex;
+        }
     }
 
     @Override
@@ -116,6 +325,22 @@ public class ServiceDispatcherServlet extends HttpServlet {
         return q;
     }
 
+    /**
+     * Find registered operation name for path, put path parameters to request
+     *
+     * @param request Request
+     * @param path    Path (see {@link #getWebOperationNameFromRequest(HttpServletRequest)})
+     * @return Operation name (or null if not found)
+     */
+    protected String resolveWebOperationName(HttpServletRequest request, String path) {
+        RouteTrie.Match<String> m = operations.routes.match(path);
+        if (m == null)
+            return null;
+        if (!m.getParameters().isEmpty())
+            request.setAttribute(WebOperationInput.PATH_PARAMETERS_ATTRIBUTE, m.getParameters());
+        return m.getValue();
+    }
+
     /**
      * Get operation from holder
      *
@@ -126,6 +351,21 @@ public class ServiceDispatcherServlet extends HttpServlet {
         return operations.list.get(name);
     }
 
+    /**
+     * Get executor for operation
+     *
+     * @param name Operation name
+     * @param op   Operation
+     * @return Executor
+     */
+    protected Executor getExecutorByName(String name, WebOperation op) {
+        OperationSettings s = operations.getSettings(name);
+        Executor executor = s == null ? null : s.getExecutor();
+        if (executor == null)
+            executor = op.isAsync() ? OperationExecutors.pool() : OperationExecutors.container();
+        return executor;
+    }
+
     /**
      * Process request
      *
@@ -137,12 +377,362 @@ public class ServiceDispatcherServlet extends HttpServlet {
     protected void process(HttpServletRequest request,
                            HttpServletResponse response) throws ServletException, IOException {
         request.setCharacterEncoding("UTF-8");
-        WebOperation op = getOperationByName(getWebOperationNameFromRequest(request));
+        request.setAttribute(DISPATCHER_ATTRIBUTE, this);
+        String name = resolveWebOperationName(request, getWebOperationNameFromRequest(request));
+        WebOperation op = name == null ? null : getOperationByName(name);
         if (op == null) {
             response.setStatus(404);
             return;
         }
+        final OperationMetrics metrics = Metrics.get(name);
+        long deadline = getDeadlineByName(name, request);
+        if (deadline > 0) {
+            if (System.currentTimeMillis() >= deadline) {
+                metrics.onReject();
+                shed(response);
+                return;
+            }
+            request.setAttribute(WebOperationInput.DEADLINE_ATTRIBUTE, deadline);
+        }
+        final ConcurrencyLimit limit = getLimitByName(name);
+        if (limit != null && !limit.tryAcquire()) {
+            metrics.onReject();
+            reject(response, limit.getRetryAfter());
+            return;
+        }
+        final long start = System.nanoTime();
+        metrics.onStart();
+        request.setAttribute(Metrics.ATTRIBUTE, metrics);
+        boolean async = false;
+        boolean ok = false;
+        try {
+            Executor executor = getExecutorByName(name, op);
+            if (executor != OperationExecutors.container() && request.isAsyncSupported()) {
+                async = true;
+                processAsync(name, op, executor, request, response, new Runnable() {
+                    @Override
+                    public void run() {
+                        if (limit != null)
+                            limit.release(start, false);
+                        metrics.onFinish(start);
+                    }
+                });
+            } else {
+                invoke(name, op, request, response);
+            }
+            ok = true;
+        } finally {
+            //async request releases permit when it is finished
+            if (!async || !ok) {
+                if (limit != null)
+                    limit.release(start, !ok);
+                metrics.onFinish(start);
+            }
+        }
+    }
+
+    /**
+     * Get concurrency limit for operation
+     *
+     * @param name Operation name
+     * @return Limit (or null)
+     */
+    protected ConcurrencyLimit getLimitByName(String name) {
+        OperationSettings s = operations.getSettings(name);
+        return s == null ? null : s.getLimit();
+    }
+
+    /**
+     * Get deadline for request
+     *
+     * @param name    Operation name
+     * @param request Request
+     * @return Deadline in milliseconds since epoch (0 - none)
+     */
+    protected long getDeadlineByName(String name, HttpServletRequest request) {
+        OperationSettings s = operations.getSettings(name);
+        if (s == null || s.getDeadline() <= 0)
+            return 0;
+        Long d = (Long) request.getAttribute(WebOperationInput.DEADLINE_ATTRIBUTE);
+        if (d != null)
+            return d;
+        return getRequestStart(request) + s.getDeadline();
+    }
+
+    /**
+     * Get request start time from header (see {@link Operations#setRequestStartHeader(String)})
+     *
+     * @param request Request
+     * @return Milliseconds since epoch (current time if there is no header)
+     */
+    protected long getRequestStart(HttpServletRequest request) {
+        long now = System.currentTimeMillis();
+        String h = operations.getRequestStartHeader() == null ? null : request.getHeader(operations.getRequestStartHeader());
+        if (h == null)
+            return now;
+        h = h.trim();
+        if (h.startsWith("t="))
+            h = h.substring(2);
+        long t;
+        try {
+            if (h.indexOf('.') >= 0) {
+                t = (long) (Double.parseDouble(h) * 1000);
+            } else {
+                t = Long.parseLong(h);
+                if (t > 100000000000000L)
+                    t = t / 1000;
+                else if (t < 100000000000L)
+                    t = t * 1000;
+            }
+        } catch (NumberFormatException e) {
+            return now;
+        }
+        //ignore clock skew into future
+        return Math.min(t, now);
+    }
+
+    /**
+     * Shed request (deadline exceeded)
+     *
+     * @param response Response
+     */
+    protected void shed(HttpServletResponse response) {
+        response.setStatus(503);
+    }
+
+    /**
+     * Reject request (limit exceeded)
+     *
+     * @param response   Response
+     * @param retryAfter Retry-After header value in seconds
+     */
+    protected void reject(HttpServletResponse response, int retryAfter) {
+        response.setStatus(503);
+        response.setHeader("Retry-After", "" + retryAfter);
+    }
+
+    /**
+     * Process request on executor, output is rendered through {@link AsyncContext}
+     * <br>
+     * Operation writes to {@link GuardedResponse}: when request times out while operation is running,
+     * 503 status is set, further output of operation is dropped and request is completed by timeout listener.
+     *
+     * @param name       Operation name
+     * @param op         Operation
+     * @param executor   Executor
+     * @param request    Request
+     * @param response   Response
+     * @param onFinished Called once after operation is processed (or rejected by executor)
+     * @throws ServletException ServletException
+     * @throws IOException IOException
+     */
+    protected void processAsync(final String name, final WebOperation op, Executor executor, HttpServletRequest request,
+                                HttpServletResponse response, final Runnable onFinished) throws ServletException, IOException {
+        final AsyncContext ctx = request.startAsync(request, response);
+        //QUEUED -> RUNNING (worker completes request) or QUEUED -> DONE (request completed without worker)
+        final AtomicInteger state = new AtomicInteger(QUEUED);
+        final GuardedResponse guarded = new GuardedResponse(response);
+        final Long deadline = (Long) request.getAttribute(WebOperationInput.DEADLINE_ATTRIBUTE);
+        long timeout = operations.getAsyncTimeout();
+        if (deadline != null)
+            timeout = Math.max(1, Math.min(timeout, deadline - System.currentTimeMillis()));
+        ctx.setTimeout(timeout);
+        ctx.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) throws IOException {
+                state.compareAndSet(QUEUED, DONE);
+                guarded.close(0);
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                LOG.warn("Async request timed out: " + getWebOperationNameFromRequest((HttpServletRequest) ctx.getRequest()));
+                abort(503);
+            }
+
+            @Override
+            public void onError(AsyncEvent event) throws IOException {
+                abort(500);
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) throws IOException {
+            }
+
+            private void abort(int status) {
+                if (state.compareAndSet(QUEUED, DONE)) {
+                    guarded.close(0);
+                    finishAsync(ctx, status);
+                } else if (guarded.close(status)) {
+                    //operation is running: its output is dropped, request is completed here
+                    //(otherwise container makes error dispatch), worker's complete is ignored
+                    try {
+                        ctx.complete();
+                    } catch (IllegalStateException e) {
+                        LOG.debug("Async request is already completed", e);
+                    }
+                }
+            }
+        });
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!state.compareAndSet(QUEUED, RUNNING)) {
+                        //request is already finished
+                        onFinished.run();
+                        return;
+                    }
+                    int status = 0;
+                    try {
+                        if (deadline != null && System.currentTimeMillis() >= deadline) {
+                            //request waited in executor queue too long
+                            status = 503;
+                        } else {
+                            invoke(name, op, (HttpServletRequest) ctx.getRequest(), guarded);
+                        }
+                    } catch (Throwable e) {
+                        LOG.error("Error processing async operation: " + e.getClass().getName() + ": " + e.getMessage(), e);
+                        status = 500;
+                    } finally {
+                        onFinished.run();
+                        guarded.close(status);
+                        try {
+                            ctx.complete();
+                        } catch (IllegalStateException e) {
+                            LOG.debug("Async request is already completed", e);
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            onFinished.run();
+            if (state.compareAndSet(QUEUED, DONE)) {
+                LOG.warn("Async executor rejected request: " + getWebOperationNameFromRequest(request));
+                guarded.close(0);
+                finishAsync(ctx, 503);
+            }
+        }
+    }
+
+    /**
+     * Invoke operation on current thread
+     *
+     * @param name     Operation name
+     * @param op       Operation
+     * @param request  Request
+     * @param response Response
+     * @throws ServletException ServletException
+     * @throws IOException IOException
+     */
+    protected void invoke(final String name, final WebOperation op, final HttpServletRequest request,
+                          final HttpServletResponse response) throws ServletException, IOException {
+        final OperationSettings s = operations.getSettings(name);
+        Coalescer coalescer = s == null ? null : s.getCoalescer();
+        final OutputCache cache = s == null ? null : s.getCache();
+        if ((coalescer != null || cache != null) && isIdempotent(request)) {
+            final String key = getRequestKey(request);
+            RenderedData data = null;
+            if (cache != null) {
+                data = cache.get(key);
+                if (data != null)
+                    Metrics.get(name).onCacheHit();
+                else
+                    Metrics.get(name).onCacheMiss();
+            }
+            if (data == null) {
+                Callable<RenderedData> call = new Callable<RenderedData>() {
+                    @Override
+                    public RenderedData call() throws Exception {
+                        //versions before output is computed: invalidation during computation discards output
+                        OutputCache.Stamp stamp = cache == null ? null : cache.stamp(key, getCacheTags(name, s));
+                        BufferedResponse buf = new BufferedResponse(response);
+                        op.request(request, buf);
+                        RenderedData result = buf.toRenderedData();
+                        if (cache != null && result.getStatus() == 200)
+                            cache.put(key, result, stamp);
+                        return result;
+                    }
+                };
+                try {
+                    data = coalescer != null ? coalescer.execute(key, call) : call.call();
+                } catch (IOException e) {
+                    throw e;
+                } catch (ServletException e) {
+                    throw e;
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new ServletException(e);
+                }
+            }
+            if (data.getStatus() == 200 && WebOperation.isConditionalGet(request)
+                    && WebOperation.isNotModified(request, data.getETag())) {
+                response.setHeader("ETag", data.getETag());
+                response.setStatus(304);
+                return;
+            }
+            data.render(response);
+            return;
+        }
         op.request(request, response);
     }
 
+    private static String[] getCacheTags(String name, OperationSettings s) {
+        String[] tags = new String[s.getCacheTags().length + 1];
+        tags[0] = name;
+        System.arraycopy(s.getCacheTags(), 0, tags, 1, tags.length - 1);
+        return tags;
+    }
+
+    /**
+     * @param request Request
+     * @return True for GET and HEAD requests
+     */
+    protected boolean isIdempotent(HttpServletRequest request) {
+        return "GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod());
+    }
+
+    /**
+     * Key for identical requests (used for coalescing and caching): path and query parameters sorted by name,
+     * and negotiated format (see {@link Codecs#forAccept(String)}).
+     * <br>
+     * Session and other headers are not a part of the key, so operations which output depends on session
+     * (or on current user) must not be cached or coalesced, or this method must be overridden.
+     *
+     * @param request Request
+     * @return Key
+     * @throws IOException IOException
+     */
+    protected String getRequestKey(HttpServletRequest request) throws IOException {
+        StringBuilder sb = new StringBuilder(getWebOperationNameFromRequest(request));
+        Map<String, List<String>> params = new TreeMap<String, List<String>>(new FormData(request).getData());
+        char sep = '?';
+        for (Map.Entry<String, List<String>> e : params.entrySet()) {
+            for (String v : e.getValue()) {
+                sb.append(sep).append(URLEncoder.encode(e.getKey(), "UTF-8"))
+                        .append('=').append(v == null ? "" : URLEncoder.encode(v, "UTF-8"));
+                sep = '&';
+            }
+        }
+        Codec codec = Codecs.forAccept(request.getHeader("Accept"));
+        if (!Codecs.isDefault(codec))
+            sb.append('#').append(codec.getMediaType());
+        return sb.toString();
+    }
+
+    private static void finishAsync(AsyncContext ctx, int status) {
+        try {
+            HttpServletResponse resp = (HttpServletResponse) ctx.getResponse();
+            if (status > 0 && !resp.isCommitted()) {
+                resp.reset();
+                resp.setStatus(status);
+            }
+        } catch (Throwable e) {
+            LOG.debug("Cannot set async response status", e);
+        } finally {
+            ctx.complete();
+        }
+    }
+
 }
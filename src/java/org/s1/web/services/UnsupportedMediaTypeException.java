@@ -0,0 +1,27 @@
+package org.s1.web.services;
+
+/**
+ * Request body has Content-Type which cannot be read, {@link WebOperation} answers it with 415 status
+ *
+ * @author Grigory Pykhov
+ */
+public class UnsupportedMediaTypeException extends IllegalArgumentException {
+
+    private final String contentType;
+
+    /**
+     * @param contentType Content-Type of request
+     */
+    public UnsupportedMediaTypeException(String contentType) {
+        super("Unsupported Content-Type: " + contentType);
+        this.contentType = contentType;
+    }
+
+    /**
+     * @return Content-Type of request
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+}
@@ -1,5 +1,9 @@
 package org.s1.web.services;
 
+import org.apache.commons.codec.digest.DigestUtils;
+import org.s1.web.services.formats.RenderedData;
+import org.s1.web.services.metrics.Metrics;
+import org.s1.web.services.metrics.OperationMetrics;
 import org.s1.web.session.RequestScope;
 import org.s1.web.session.SessionScope;
 
@@ -10,11 +14,29 @@ import java.io.IOException;
 
 /**
  * Base class for web operations.
+ * <br>
+ * Session and request scopes are started in {@link #request(HttpServletRequest, HttpServletResponse)},
+ * on the thread which actually processes operation (container thread or async executor thread).
+ * <br>
+ * Request body of unsupported Content-Type ({@link UnsupportedMediaTypeException}) is answered with 415 status.
+ * <br>
+ * Input parsing, process, rendering and session I/O durations are recorded to {@link OperationMetrics}
+ * of operation (if request is dispatched with {@link ServiceDispatcherServlet}).
  *
  * @author Grigory Pykhov
  */
 public abstract class WebOperation {
 
+    /**
+     * Request attribute with already resolved session id (e.g. batch items share session of batch request)
+     */
+    public static final String SESSION_ID_ATTRIBUTE = "org.s1.web.services.SessionId";
+
+    /**
+     * Request attribute with already loaded session context (see {@link SessionScope#start(String, SessionScope.Context)})
+     */
+    public static final String SESSION_ATTRIBUTE = "org.s1.web.services.Session";
+
     /**
      * Process request
      *
@@ -26,20 +48,126 @@ public abstract class WebOperation {
     public void request(HttpServletRequest request,
                         HttpServletResponse response) throws ServletException, IOException {
         WebOperationInput input = new WebOperationInput(request, response);
+        OperationMetrics metrics = (OperationMetrics) request.getAttribute(Metrics.ATTRIBUTE);
         String id = null;
+        boolean ok = false;
         try {
-            id = SessionScope.start(getSessionId(input));
+            String sessionId = (String) request.getAttribute(SESSION_ID_ATTRIBUTE);
+            id = SessionScope.start(sessionId != null ? sessionId : getSessionId(input),
+                    (SessionScope.Context) request.getAttribute(SESSION_ATTRIBUTE));
             RequestScope.start(new RequestScope.Context(request, response));
 
-            WebOperationOutput output = process(input);
-            output.render(response);
+            long t = System.nanoTime();
+            WebOperationOutput output;
+            try {
+                output = process(input);
+            } catch (UnsupportedMediaTypeException e) {
+                response.setStatus(415);
+                ok = true;
+                return;
+            }
+            long t2 = System.nanoTime();
+            render(input, output, response);
 
+            if (metrics != null) {
+                long parse = input.getParseTime();
+                if (parse > 0)
+                    metrics.getParse().record(parse);
+                metrics.getProcess().record(t2 - t - parse);
+                metrics.getRender().record(System.nanoTime() - t2);
+            }
+            ok = true;
         } finally {
+            if (metrics != null) {
+                if (!ok)
+                    metrics.onError();
+                if (id != null && SessionScope.getIOTime() > 0)
+                    metrics.getSession().record(SessionScope.getIOTime());
+            }
             SessionScope.finish(id);
             RequestScope.finish();
         }
     }
 
+    /**
+     * Render output to response, conditional GET requests are answered with 304 status
+     * if output has ETag (see {@link WebOperationOutput#setVersion(String)}, {@link WebOperationOutput#setETag(boolean)})
+     *
+     * @param input    Input
+     * @param output   Output
+     * @param response Response
+     * @throws IOException IOException
+     */
+    protected void render(WebOperationInput input, WebOperationOutput output,
+                          HttpServletResponse response) throws IOException {
+        //buffered response is checked by dispatcher (output may be shared or cached)
+        boolean conditional = !(response instanceof BufferedResponse) && isConditionalGet(input.getRequest());
+        if (output.getVersion() != null) {
+            String etag = "\"" + output.getVersion() + "\"";
+            response.setHeader("ETag", etag);
+            if (conditional && isNotModified(input.getRequest(), etag)) {
+                response.setStatus(304);
+                return;
+            }
+            output.render(response);
+        } else if (output.isETag()) {
+            BufferedResponse buf = new BufferedResponse(response);
+            output.render(buf);
+            RenderedData data = buf.toRenderedData();
+            String etag = "\"" + DigestUtils.md5Hex(data.getData()) + "\"";
+            data = new RenderedData(data.getStatus(), data.getContentType(), data.getEncoding(), data.getData(), etag);
+            if (conditional && data.getStatus() == 200 && isNotModified(input.getRequest(), etag)) {
+                response.setHeader("ETag", etag);
+                response.setStatus(304);
+                return;
+            }
+            data.render(response);
+        } else {
+            output.render(response);
+        }
+    }
+
+    static boolean isConditionalGet(HttpServletRequest request) {
+        return request.getHeader("If-None-Match") != null
+                && ("GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod()));
+    }
+
+    /**
+     * Checks <code>If-None-Match</code> header (weak comparison)
+     *
+     * @param request Request
+     * @param etag    Current ETag
+     * @return True if client has current version
+     */
+    static boolean isNotModified(HttpServletRequest request, String etag) {
+        String header = request.getHeader("If-None-Match");
+        if (header == null || etag == null)
+            return false;
+        if (etag.startsWith("W/"))
+            etag = etag.substring(2);
+        for (String it : header.split(",")) {
+            it = it.trim();
+            if (it.startsWith("W/"))
+                it = it.substring(2);
+            if ("*".equals(it) || it.equals(etag))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Async operations are processed on {@link ServiceDispatcherServlet.Operations#getExecutor()},
+     * container thread is released immediately.
+     * <br>
+     * Servlet (and all filters before it) should be declared with <code>&lt;async-supported&gt;true&lt;/async-supported&gt;</code>,
+     * otherwise operation is processed synchronously.
+     *
+     * @return True if operation should be processed asynchronously
+     */
+    protected boolean isAsync() {
+        return false;
+    }
+
     /**
      * Get session id from request
      *
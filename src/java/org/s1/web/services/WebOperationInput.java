@@ -1,6 +1,11 @@
 package org.s1.web.services;
 
-import groovy.json.JsonSlurper;
+import org.apache.commons.io.IOUtils;
+import org.s1.web.formats.Codec;
+import org.s1.web.formats.Codecs;
+import org.s1.web.formats.Json;
+import org.s1.web.formats.JsonArrayParser;
+import org.s1.web.formats.XmlCursor;
 import org.s1.web.services.formats.*;
 import org.w3c.dom.Document;
 
@@ -21,10 +26,22 @@ import java.util.*;
  * @author Grigory Pykhov
  */
 public class WebOperationInput {
+
+    /**
+     * Request attribute with path parameters map (see {@link #getPathParameters()})
+     */
+    public static final String PATH_PARAMETERS_ATTRIBUTE = "org.s1.web.services.PathParameters";
+
+    /**
+     * Request attribute with deadline (see {@link #getDeadline()})
+     */
+    public static final String DEADLINE_ATTRIBUTE = "org.s1.web.services.Deadline";
+
     private String id = UUID.randomUUID().toString();
     private HttpServletRequest request;
     private HttpServletResponse response;
     private Object data;
+    private long parseTime;
 
     protected <T> T getData(){
         return (T)data;
@@ -67,62 +84,242 @@ public class WebOperationInput {
         return response;
     }
 
+    /**
+     * Path parameters extracted from operation name template, e.g. <code>users/{id}/orders</code>
+     *
+     * @return Parameters map (empty if operation name has no parameters)
+     */
+    public Map<String, String> getPathParameters() {
+        Map<String, String> m = (Map<String, String>) request.getAttribute(PATH_PARAMETERS_ATTRIBUTE);
+        if (m == null)
+            m = Collections.emptyMap();
+        return m;
+    }
+
+    /**
+     * @param name Parameter name
+     * @return Path parameter value (or null)
+     */
+    public String getPathParameter(String name) {
+        return getPathParameters().get(name);
+    }
+
+    /**
+     * Time by which request should be processed (see {@link OperationSettings#setDeadline(long)}),
+     * use it to limit downstream calls
+     *
+     * @return Deadline in milliseconds since epoch (0 - none)
+     */
+    public long getDeadline() {
+        Long d = (Long) request.getAttribute(DEADLINE_ATTRIBUTE);
+        return d == null ? 0 : d;
+    }
+
+    /**
+     * @return Milliseconds left before deadline (may be negative), {@link Long#MAX_VALUE} if there is no deadline
+     */
+    public long getRemainingTime() {
+        long d = getDeadline();
+        return d == 0 ? Long.MAX_VALUE : d - System.currentTimeMillis();
+    }
+
+    /**
+     * @return Time spent on input parsing in nanoseconds
+     */
+    public long getParseTime() {
+        return parseTime;
+    }
+
     public JSONData asJSON() {
-        if(this.data!=null)
-            return getData();
-        try {
-            return setData(new JSONData(request));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        return asJSON(false);
+    }
+
+    /**
+     * @param lazy Decode only requested values (see {@link JSONData#JSONData(HttpServletRequest, boolean)})
+     * @return JSON
+     */
+    public JSONData asJSON(final boolean lazy) {
+        return parse(new Parser<JSONData>() {
+            @Override
+            public JSONData parse() throws Exception {
+                return new JSONData(request, lazy);
+            }
+        });
+    }
+
+    /**
+     * Read request body with codec chosen by Content-Type (see {@link Codecs}, JSON if there is no Content-Type)
+     * and bind it to bean
+     *
+     * @param type Bean class
+     * @param <T>  Type
+     * @return Bean
+     * @throws UnsupportedMediaTypeException if there is no codec for Content-Type (request is answered with 415 status)
+     */
+    public <T> T as(final Class<T> type) {
+        if (this.data != null) {
+            if (type.isInstance(data))
+                return getData();
+            if (data instanceof JSONData)
+                return ((JSONData) data).as(type);
+            throw new IllegalStateException("Request body is already read as " + data.getClass().getSimpleName());
         }
+        return parse(new Parser<T>() {
+            @Override
+            public T parse() throws Exception {
+                String contentType = request.getContentType();
+                Codec codec = contentType == null ? Codecs.getDefault() : Codecs.forContentType(contentType);
+                if (codec == null)
+                    throw new UnsupportedMediaTypeException(contentType);
+                return codec.read(request.getInputStream(), request.getCharacterEncoding(), type);
+            }
+        });
     }
 
-    public TextData asText() {
+    /**
+     * Elements of top-level JSON array or newline-delimited JSON, parsed one at a time
+     *
+     * @return Stream of Map/List values
+     */
+    public JSONStream<Object> asJSONStream() {
+        return asJSONStream(null);
+    }
+
+    /**
+     * Elements of top-level JSON array or newline-delimited JSON, parsed one at a time
+     *
+     * @param type Bean class (null - Map/List model)
+     * @param <T>  Type
+     * @return Stream of beans
+     */
+    public <T> JSONStream<T> asJSONStream(Class<T> type) {
         if(this.data!=null)
             return getData();
         try {
-            return setData(new TextData(request));
+            return setData(new JSONStream<T>(request, type));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Elements of top-level JSON array, large arrays are parsed in parallel (see {@link JsonArrayParser})
+     *
+     * @param type Bean class (null - Map/List model)
+     * @param <T>  Type
+     * @return Elements in original order
+     */
+    public <T> List<T> asJSONList(final Class<T> type) {
+        return parse(new Parser<List<T>>() {
+            @Override
+            public List<T> parse() throws Exception {
+                byte[] b = IOUtils.toByteArray(request.getInputStream());
+                String encoding = request.getCharacterEncoding();
+                if (!Json.isUTF8(encoding))
+                    b = new String(b, encoding).getBytes("UTF-8");
+                return JsonArrayParser.parse(b, type);
+            }
+        });
+    }
+
+    public TextData asText() {
+        return parse(new Parser<TextData>() {
+            @Override
+            public TextData parse() throws Exception {
+                return new TextData(request);
+            }
+        });
+    }
+
     public XMLData asXML() {
+        return parse(new Parser<XMLData>() {
+            @Override
+            public XMLData parse() throws Exception {
+                return new XMLData(request);
+            }
+        });
+    }
+
+    /**
+     * Read only values of given paths without building DOM (see {@link XMLData#XMLData(HttpServletRequest, Map, String...)})
+     *
+     * @param namespaces Namespaces used in paths
+     * @param paths      Paths
+     * @return XML values
+     */
+    public XMLData asXML(final Map<String, String> namespaces, final String... paths) {
+        return parse(new Parser<XMLData>() {
+            @Override
+            public XMLData parse() throws Exception {
+                return new XMLData(request, namespaces, paths);
+            }
+        });
+    }
+
+    /**
+     * Repeated elements of XML, read one at a time
+     *
+     * @param path       Path to elements (see {@link XmlCursor})
+     * @param namespaces Namespaces used in path
+     * @return Cursor
+     */
+    public XmlCursor asXMLStream(String path, Map<String, String> namespaces) {
         if(this.data!=null)
             return getData();
         try {
-            return setData(new XMLData(request));
+            return setData(new XmlCursor(request.getInputStream(), request.getCharacterEncoding(), path, namespaces));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
     public FormData asForm() {
-        if(this.data!=null)
-            return getData();
-        return setData(new FormData(request));
+        return parse(new Parser<FormData>() {
+            @Override
+            public FormData parse() throws Exception {
+                return new FormData(request);
+            }
+        });
     }
 
     public MultipartFormData asMultipart() {
-        if(this.data!=null)
-            return getData();
-        try {
-            return setData(new MultipartFormData(request));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        } catch (ServletException e) {
-            throw new RuntimeException(e);
-        }
+        return parse(new Parser<MultipartFormData>() {
+            @Override
+            public MultipartFormData parse() throws Exception {
+                return new MultipartFormData(request);
+            }
+        });
     }
 
     public SOAPData asSOAP() {
-        if(this.data!=null)
+        return parse(new Parser<SOAPData>() {
+            @Override
+            public SOAPData parse() throws Exception {
+                return new SOAPData(request);
+            }
+        });
+    }
+
+    /**
+     * Read request body once (returns already read data), parsing time is added to {@link #getParseTime()}
+     */
+    private <T> T parse(Parser<T> parser) {
+        if (this.data != null)
             return getData();
+        long t = System.nanoTime();
         try {
-            return setData(new SOAPData(request));
-        } catch (IOException e) {
+            return setData(parser.parse());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
             throw new RuntimeException(e);
+        } finally {
+            parseTime += System.nanoTime() - t;
         }
     }
 
+    private interface Parser<T> {
+        T parse() throws Exception;
+    }
+
 }
@@ -5,11 +5,62 @@ import java.io.IOException;
 
 /**
  * Web Operation output
+ * <br>
+ * Output of GET request may have strong ETag, client's <code>If-None-Match</code> is answered with 304 status:
+ * <ul>
+ * <li>{@link #setVersion(String)} - ETag is built from version, output is not rendered at all for 304 response</li>
+ * <li>{@link #setETag(boolean)} - ETag is a hash of rendered bytes</li>
+ * </ul>
  *
  * @author Grigory Pykhov
  */
 public abstract class WebOperationOutput {
 
+    private String version;
+    private boolean etag;
+
+    /**
+     * @return Data version (used as ETag)
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @param version Data version (used as ETag), null - no version
+     * @return This
+     * @throws IllegalArgumentException if version is empty or has characters not allowed in ETag (quote, space, control or non-ASCII)
+     */
+    public WebOperationOutput setVersion(String version) {
+        if (version != null) {
+            if (version.isEmpty())
+                throw new IllegalArgumentException("Version is empty");
+            for (int i = 0; i < version.length(); i++) {
+                char c = version.charAt(i);
+                if (c <= ' ' || c == '"' || c >= 0x7F)
+                    throw new IllegalArgumentException("Character is not allowed in version: '" + version + "'");
+            }
+        }
+        this.version = version;
+        return this;
+    }
+
+    /**
+     * @return True if ETag should be calculated from rendered bytes
+     */
+    public boolean isETag() {
+        return etag;
+    }
+
+    /**
+     * @param etag True if ETag should be calculated from rendered bytes
+     * @return This
+     */
+    public WebOperationOutput setETag(boolean etag) {
+        this.etag = etag;
+        return this;
+    }
+
     /**
      * Render data to response according to format
      *
@@ -1,28 +1,51 @@
 package org.s1.web.services.formats;
 
-import groovy.json.JsonOutput;
-import groovy.json.JsonSlurper;
 import org.apache.commons.io.IOUtils;
+import org.s1.web.formats.Codec;
+import org.s1.web.formats.Codecs;
+import org.s1.web.formats.CompactMap;
+import org.s1.web.formats.Json;
+import org.s1.web.formats.JsonBinding;
+import org.s1.web.formats.JsonIndex;
 import org.s1.web.services.WebOperationOutput;
 import org.s1.web.formats.Maps;
 import org.s1.web.formats.Types;
+import org.s1.web.session.RequestScope;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
  * JSON Data
+ * <br>
+ * Request body is parsed directly from stream, output is written directly to response stream (see {@link Json}).
+ * <br>
+ * In lazy mode ({@link #JSONData(HttpServletRequest, boolean)}) only raw body and its index are kept (see {@link JsonIndex}),
+ * {@link #get(String, Object)} decodes only requested values, whole data is decoded on {@link #getData()}.
+ * Unchanged lazy data is rendered as is.
+ * <br>
+ * Formats registered in {@link Codecs} (CBOR, MessagePack) are negotiated:
+ * request body is read according to Content-Type, response is rendered according to Accept header of current request.
+ * <br>
+ * Beans are bound directly to and from JSON tokens ({@link #as(Class)}, {@link #JSONData(Object)}, see {@link JsonBinding}).
+ * <br>
+ * Request body must be strict JSON: unlike JsonSlurper used before, {@link org.s1.web.formats.JsonReader} rejects
+ * raw control characters (tab, newline etc.) inside strings, clients have to escape them.
  *
  * @author Grigory Pykhov
  */
 public class JSONData extends WebOperationOutput {
 
-    private final Map<String, Object> data = new HashMap<String, Object>();
+    private final Map<String, Object> data = new CompactMap<String, Object>();
     private String encoding = "UTF-8";
+    private JsonIndex index;
+    private Object bean;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
 
     /**
      *
@@ -47,6 +70,22 @@ public class JSONData extends WebOperationOutput {
         this.encoding = encoding;
     }
 
+    /**
+     * @param bean Bean, it is rendered directly (see {@link JsonBinding}); other maps are copied
+     * @throws IllegalArgumentException if argument is not a bean or map (e.g. list, array or scalar)
+     */
+    public JSONData(Object bean) {
+        if (bean instanceof Map) {
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) bean).entrySet()) {
+                this.data.put(String.valueOf(e.getKey()), e.getValue());
+            }
+        } else if (bean != null && !JsonBinding.isBean(bean.getClass())) {
+            throw new IllegalArgumentException("Bean or map expected: " + bean.getClass().getName());
+        } else {
+            this.bean = bean;
+        }
+    }
+
     /**
      * @param json JSON String
      */
@@ -59,8 +98,7 @@ public class JSONData extends WebOperationOutput {
      * @param encoding Encoding
      */
     public JSONData(String json, String encoding) {
-        JsonSlurper s = new JsonSlurper();
-        this.data.putAll(fromWire((Map<String, Object>) s.parseText(json)));
+        this.data.putAll(Json.<Map<String, Object>>read(json));
         this.encoding = encoding;
     }
 
@@ -69,17 +107,78 @@ public class JSONData extends WebOperationOutput {
      * @throws IOException IOException
      */
     public JSONData(HttpServletRequest req) throws IOException {
-        this(IOUtils.toString(req.getInputStream(), req.getCharacterEncoding()), req.getCharacterEncoding());
+        this(req, false);
+    }
+
+    /**
+     * @param req  Request
+     * @param lazy Keep raw body and decode values on demand
+     * @throws IOException IOException
+     */
+    public JSONData(HttpServletRequest req, boolean lazy) throws IOException {
         this.encoding = req.getCharacterEncoding();
+        Codec codec = Codecs.forContentType(req.getContentType());
+        if (!Codecs.isDefault(codec)) {
+            Object o = codec.read(req.getInputStream(), encoding);
+            if (o != null && !(o instanceof Map))
+                throw new IllegalArgumentException("Object expected in " + codec.getMediaType());
+            if (o != null)
+                this.data.putAll((Map<String, Object>) o);
+        } else if (lazy) {
+            byte[] b = IOUtils.toByteArray(req.getInputStream());
+            if (!Json.isUTF8(encoding))
+                b = new String(b, encoding).getBytes(UTF8);
+            index = new JsonIndex(b);
+            if (!index.isObject())
+                throw new IllegalArgumentException("JSON object expected");
+        } else {
+            Map<String, Object> m = Json.read(req.getInputStream(), encoding);
+            if (m != null)
+                this.data.putAll(m);
+        }
     }
 
     /**
+     * Data (lazy data is decoded, bean is converted to map)
+     *
      * @return Data
      */
     public Map<String, Object> getData() {
+        if (index != null) {
+            Map<String, Object> m = index.read();
+            index = null;
+            data.putAll(m);
+        } else if (bean != null) {
+            data.putAll(JsonBinding.toMap(bean));
+            bean = null;
+        }
         return data;
     }
 
+    /**
+     * @return True if data is not decoded yet
+     */
+    public boolean isLazy() {
+        return index != null || bean != null;
+    }
+
+    /**
+     * Bind data to bean.
+     * <br>
+     * Lazy data is bound directly from raw JSON without intermediate maps.
+     *
+     * @param cls Bean class
+     * @param <T> Type
+     * @return Bean
+     */
+    public <T> T as(Class<T> cls) {
+        if (bean != null && cls.isInstance(bean))
+            return (T) bean;
+        if (index != null)
+            return JsonBinding.read(index.getData(), index.getStart(), index.getLength(), cls);
+        return (T) JsonBinding.convert(getData(), cls);
+    }
+
     /**
      * @return Encoding
      */
@@ -93,9 +192,9 @@ public class JSONData extends WebOperationOutput {
      * @return JSON String
      */
     public String toJSON() {
-        Map<String, Object> m = Types.copy(data);
-        m = toWire(m);
-        return JsonOutput.toJson(m);
+        if (index != null)
+            return new String(index.getData(), index.getStart(), index.getLength(), UTF8);
+        return Json.toJSON(bean != null ? bean : data);
     }
 
     /**
@@ -107,7 +206,9 @@ public class JSONData extends WebOperationOutput {
      * @return Object
      */
     public <T> T get(String path, T def) {
-        return Maps.get(data, path, def);
+        if (index != null)
+            return index.get(path, def);
+        return Maps.get(getData(), path, def);
     }
 
     /**
@@ -120,7 +221,7 @@ public class JSONData extends WebOperationOutput {
      * @return Casted object
      */
     public <T> T get(Class<T> t, String path, T def) {
-        return Maps.get(t, data, path, def);
+        return Types.cast(get(path, def), t);
     }
 
     /**
@@ -132,7 +233,7 @@ public class JSONData extends WebOperationOutput {
      * @return Casted object
      */
     public <T> T get(Class<T> t, String path) {
-        return Maps.get(t, data, path);
+        return get(t, path, null);
     }
 
     /**
@@ -143,44 +244,38 @@ public class JSONData extends WebOperationOutput {
      * @return Object
      */
     public <T> T get(String path) {
-        return Maps.get(data, path);
+        return get(path, null);
     }
 
-
+    /**
+     * @param json Data
+     * @return Data with dates converted to strings
+     * @deprecated dates are converted by {@link org.s1.web.formats.JsonWriter}, it is not called anymore
+     */
+    @Deprecated
     protected Map<String, Object> toWire(Map<String, Object> json) {
         return (Map<String, Object>) Maps.iterate(json, new Maps.IterateFunction() {
             @Override
             public Object call(String name, Object value, String path) {
-                try {
-                    if (value instanceof Date) {
-                        return "/Date(" + ((Date) value).getTime() + ")/";
-                    }
-                } catch (Throwable e) {
-                }
+                if (value instanceof Date)
+                    return "/Date(" + ((Date) value).getTime() + ")/";
                 return value;
             }
         });
     }
 
+    /**
+     * @param json Data
+     * @return Data with date strings converted to dates
+     * @deprecated dates are converted by {@link org.s1.web.formats.JsonReader}, it is not called anymore
+     */
+    @Deprecated
     protected Map<String, Object> fromWire(Map<String, Object> json) {
         return (Map<String, Object>) Maps.iterate(json, new Maps.IterateFunction() {
             @Override
             public Object call(String name, Object value, String path) {
-                if (value instanceof String) {
-                    String s = (String) value;
-                    try {
-                        if (s.startsWith("/") && s.endsWith("/")) {
-                            s = s.substring(1, s.length() - 1);
-                            String type = s.substring(0, s.indexOf("("));
-                            String val = s.substring(s.indexOf("(") + 1,
-                                    s.lastIndexOf(")"));
-                            if ("Date".equalsIgnoreCase(type)) {
-                                return new Date(Long.parseLong(val));
-                            }
-                        }
-                    } catch (Throwable e) {
-                    }
-                }
+                if (value instanceof String)
+                    return Json.fromWire((String) value);
                 return value;
             }
         });
@@ -188,8 +283,21 @@ public class JSONData extends WebOperationOutput {
 
     @Override
     public void render(HttpServletResponse response) throws IOException {
+        RequestScope.Context ctx = RequestScope.get();
+        Codec codec = ctx == null ? null : Codecs.forAccept(ctx.getRequest().getHeader("Accept"));
+        response.addHeader("Vary", "Accept");
+        if (!Codecs.isDefault(codec)) {
+            response.setContentType(codec.getMediaType());
+            codec.write(bean != null ? bean : getData(), response.getOutputStream(), encoding);
+            return;
+        }
         response.setCharacterEncoding(encoding);
         response.setContentType("application/json");
-        response.getOutputStream().write(toJSON().getBytes(encoding));
+        if (index != null && Json.isUTF8(encoding))
+            response.getOutputStream().write(index.getData(), index.getStart(), index.getLength());
+        else if (bean != null)
+            Json.write(bean, response.getOutputStream(), encoding);
+        else
+            Json.write(getData(), response.getOutputStream(), encoding);
     }
 }
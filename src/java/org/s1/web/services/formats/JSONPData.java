@@ -1,5 +1,6 @@
 package org.s1.web.services.formats;
 
+import org.s1.web.formats.Json;
 import org.s1.web.services.WebOperationOutput;
 
 import javax.servlet.http.HttpServletResponse;
@@ -46,7 +47,7 @@ public class JSONPData extends WebOperationOutput {
         response.setCharacterEncoding(data.getEncoding());
         response.setContentType("text/javascript");
         response.getOutputStream().write((function+"(").getBytes(data.getEncoding()));
-        response.getOutputStream().write((data.toJSON()).getBytes(data.getEncoding()));
+        Json.write(data.getData(), response.getOutputStream(), data.getEncoding());
         response.getOutputStream().write((")").getBytes(data.getEncoding()));
     }
 }
@@ -0,0 +1,157 @@
+package org.s1.web.services.formats;
+
+import org.apache.commons.io.input.ReaderInputStream;
+import org.s1.web.formats.Json;
+import org.s1.web.formats.JsonBinding;
+import org.s1.web.formats.JsonReader;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Streaming JSON input: elements of top-level array or newline-delimited JSON values.
+ * <br>
+ * Elements are parsed from request stream one at a time when {@link #next()} is called,
+ * so memory does not depend on request size and reading is as fast as processing.
+ * Elements are Map/List model or beans (see {@link JsonBinding}).
+ * <br>
+ * Request with Content-Type {@link #NDJSON} (or <code>application/ndjson</code>) is always read as newline-delimited JSON,
+ * so its records may be arrays. Otherwise body starting with <code>[</code> is read as array.
+ * <br>
+ * Stream can be iterated only once.
+ *
+ * @author Grigory Pykhov
+ */
+public class JSONStream<T> implements Iterator<T>, Iterable<T>, Closeable {
+
+    /**
+     * Media type of newline-delimited JSON
+     */
+    public static final String NDJSON = "application/x-ndjson";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final InputStream in;
+    private final JsonReader reader;
+    private final Class<T> type;
+    private final boolean ndjson;
+    private boolean started;
+    private boolean array;
+    //lookahead token (-1 - not read)
+    private int token = -1;
+    private long count;
+
+    /**
+     * @param req  Request
+     * @param type Bean class (null - Map/List model)
+     * @throws IOException IOException
+     */
+    public JSONStream(HttpServletRequest req, Class<T> type) throws IOException {
+        this(req.getInputStream(), req.getCharacterEncoding(), type, isNDJSON(req.getContentType()));
+    }
+
+    /**
+     * @param in       Stream
+     * @param encoding Encoding (null - UTF-8)
+     * @param type     Bean class (null - Map/List model)
+     */
+    public JSONStream(InputStream in, String encoding, Class<T> type) {
+        this(in, encoding, type, false);
+    }
+
+    /**
+     * @param in       Stream
+     * @param encoding Encoding (null - UTF-8)
+     * @param type     Bean class (null - Map/List model)
+     * @param ndjson   True - newline-delimited JSON, false - top-level array (or NDJSON if first value is not array)
+     */
+    public JSONStream(InputStream in, String encoding, Class<T> type, boolean ndjson) {
+        this.in = in;
+        this.ndjson = ndjson;
+        if (!Json.isUTF8(encoding))
+            in = new ReaderInputStream(new InputStreamReader(in, Charset.forName(encoding)), UTF8);
+        this.reader = new JsonReader(in).setDates(true);
+        this.type = type;
+    }
+
+    /**
+     * @return Elements read
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (token < 0) {
+            try {
+                token = advance();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return token != JsonReader.END;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        int t = token;
+        token = -1;
+        try {
+            Object o = type == null ? reader.readValue(t) : JsonBinding.read(reader, t, type);
+            count++;
+            return (T) o;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private int advance() throws IOException {
+        int t = reader.next();
+        if (!started) {
+            started = true;
+            if (!ndjson && t == JsonReader.BEGIN_ARRAY) {
+                array = true;
+                t = reader.next();
+            }
+        }
+        if (array && t == JsonReader.END_ARRAY) {
+            if (reader.next() != JsonReader.END)
+                throw new IllegalArgumentException("Unexpected data after JSON array at " + reader.getTokenStart());
+            t = JsonReader.END;
+        }
+        return t;
+    }
+
+    private static boolean isNDJSON(String contentType) {
+        if (contentType == null)
+            return false;
+        int i = contentType.indexOf(';');
+        String mediaType = (i < 0 ? contentType : contentType.substring(0, i)).trim().toLowerCase();
+        return NDJSON.equals(mediaType) || "application/ndjson".equals(mediaType);
+    }
+
+}
@@ -0,0 +1,145 @@
+package org.s1.web.services.formats;
+
+import org.s1.web.formats.Json;
+import org.s1.web.formats.JsonWriter;
+import org.s1.web.services.WebOperationOutput;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Streaming JSON output of rows from iterator.
+ * <br>
+ * Rows are serialized one by one while iterator is read, response is flushed every {@link #getFlushRows()} rows
+ * (response without content length is sent with chunked transfer encoding).
+ * Without envelope JSON array of rows is rendered, with envelope - object with envelope fields
+ * and rows array in {@link #getRowsName()} field.
+ * <br>
+ * Iterator is read once, it is closed after rendering if it is {@link Closeable}.
+ *
+ * @author Grigory Pykhov
+ */
+public class JSONStreamData extends WebOperationOutput {
+
+    private final Iterator<?> rows;
+    private Map<String, Object> envelope;
+    private String rowsName = "rows";
+    private int flushRows = 100;
+    private String encoding = "UTF-8";
+
+    /**
+     * @param rows Rows
+     */
+    public JSONStreamData(Iterator<?> rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * @param rows Rows
+     */
+    public JSONStreamData(Iterable<?> rows) {
+        this(rows.iterator());
+    }
+
+    /**
+     * @param envelope Envelope fields
+     * @param rowsName Rows field name
+     * @param rows     Rows
+     */
+    public JSONStreamData(Map<String, Object> envelope, String rowsName, Iterator<?> rows) {
+        this.rows = rows;
+        this.envelope = envelope;
+        this.rowsName = rowsName;
+    }
+
+    /**
+     * @param envelope Envelope fields
+     * @param rowsName Rows field name
+     * @param rows     Rows
+     */
+    public JSONStreamData(Map<String, Object> envelope, String rowsName, Iterable<?> rows) {
+        this(envelope, rowsName, rows.iterator());
+    }
+
+    /**
+     * @return Envelope fields (null - rows array is rendered)
+     */
+    public Map<String, Object> getEnvelope() {
+        return envelope;
+    }
+
+    /**
+     * @return Rows field name in envelope
+     */
+    public String getRowsName() {
+        return rowsName;
+    }
+
+    /**
+     * @return Response is flushed after this number of rows
+     */
+    public int getFlushRows() {
+        return flushRows;
+    }
+
+    /**
+     * @param flushRows Response is flushed after this number of rows (0 - only at the end)
+     * @return This
+     */
+    public JSONStreamData setFlushRows(int flushRows) {
+        this.flushRows = flushRows;
+        return this;
+    }
+
+    /**
+     * @return Encoding
+     */
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @param encoding Encoding
+     * @return This
+     */
+    public JSONStreamData setEncoding(String encoding) {
+        this.encoding = encoding;
+        return this;
+    }
+
+    @Override
+    public void render(HttpServletResponse response) throws IOException {
+        response.setCharacterEncoding(encoding);
+        response.setContentType("application/json");
+        JsonWriter w = Json.newWriter(response.getOutputStream(), encoding);
+        try {
+            if (envelope != null) {
+                w.beginObject();
+                for (Map.Entry<String, Object> e : envelope.entrySet()) {
+                    if (e.getKey().equals(rowsName))
+                        continue;
+                    w.name(e.getKey());
+                    w.writeValue(e.getValue());
+                }
+                w.name(rowsName);
+            }
+            w.beginArray();
+            long n = 0;
+            while (rows.hasNext()) {
+                w.writeValue(rows.next());
+                if (flushRows > 0 && ++n % flushRows == 0)
+                    w.flush();
+            }
+            w.endArray();
+            if (envelope != null)
+                w.endObject();
+            w.flush();
+        } finally {
+            if (rows instanceof Closeable)
+                ((Closeable) rows).close();
+        }
+    }
+}
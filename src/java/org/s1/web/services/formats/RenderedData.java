@@ -0,0 +1,99 @@
+package org.s1.web.services.formats;
+
+import org.s1.web.services.WebOperationOutput;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Already rendered output: status, content type, encoding and body bytes.
+ * <br>
+ * It is serializable, so it may be shared between requests and cluster nodes.
+ *
+ * @author Grigory Pykhov
+ */
+public class RenderedData extends WebOperationOutput implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+    private final String contentType;
+    private final String encoding;
+    private final byte[] data;
+    private final String etag;
+
+    /**
+     * @param status      HTTP status
+     * @param contentType Content type (may be null)
+     * @param encoding    Encoding (may be null)
+     * @param data        Body
+     */
+    public RenderedData(int status, String contentType, String encoding, byte[] data) {
+        this(status, contentType, encoding, data, null);
+    }
+
+    /**
+     * @param status      HTTP status
+     * @param contentType Content type (may be null)
+     * @param encoding    Encoding (may be null)
+     * @param data        Body
+     * @param etag        ETag header (may be null)
+     */
+    public RenderedData(int status, String contentType, String encoding, byte[] data, String etag) {
+        this.status = status;
+        this.contentType = contentType;
+        this.encoding = encoding;
+        this.data = data;
+        this.etag = etag;
+    }
+
+    /**
+     * @return HTTP status
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return Content type
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return Encoding
+     */
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @return Body
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return ETag header
+     */
+    public String getETag() {
+        return etag;
+    }
+
+    @Override
+    public void render(HttpServletResponse response) throws IOException {
+        if (status != 200)
+            response.setStatus(status);
+        if (contentType != null)
+            response.setContentType(contentType);
+        if (encoding != null)
+            response.setCharacterEncoding(encoding);
+        if (etag != null)
+            response.setHeader("ETag", etag);
+        response.setContentLength(data.length);
+        response.getOutputStream().write(data);
+    }
+}
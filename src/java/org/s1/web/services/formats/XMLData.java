@@ -1,8 +1,9 @@
 package org.s1.web.services.formats;
 
-import org.apache.commons.io.IOUtils;
 import org.s1.web.services.WebOperationOutput;
+import org.s1.web.formats.Types;
 import org.s1.web.formats.Xml;
+import org.s1.web.formats.XmlExtractor;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
@@ -14,13 +15,18 @@ import java.util.Map;
 
 /**
  * XML data
+ * <br>
+ * Extraction mode ({@link #XMLData(HttpServletRequest, Map, String...)}) reads only values of given paths
+ * in one StAX pass without building DOM (see {@link XmlExtractor}), then only <code>get</code> methods are available.
  *
  * @author Grigory Pykhov
  */
 public class XMLData extends WebOperationOutput {
 
     private Document xml;
+    private Map<String, String> values;
     private String encoding = "UTF-8";
+    private int bufferSize;
 
     /**
      * @param xml XML
@@ -44,16 +50,40 @@ public class XMLData extends WebOperationOutput {
      */
     public XMLData(HttpServletRequest request) throws IOException {
         this.encoding = request.getCharacterEncoding();
-        this.xml = Xml.fromXMLString(IOUtils.toString(request.getInputStream(), encoding));
+        this.xml = Xml.parse(request.getInputStream(), encoding);
     }
 
     /**
-     * @return XML
+     * Extraction mode, paths are evaluated relative to document element like in {@link Xml#get(Element, String, Map)}
+     *
+     * @param request    Request
+     * @param namespaces Namespaces used in paths
+     * @param paths      Paths
+     * @throws IOException IOException
+     */
+    public XMLData(HttpServletRequest request, Map<String, String> namespaces, String... paths) throws IOException {
+        this.encoding = request.getCharacterEncoding();
+        this.values = XmlExtractor.extract(request.getInputStream(), encoding, namespaces, paths);
+    }
+
+    /**
+     * @return XML (null in extraction mode)
      */
     public Document getXml() {
         return xml;
     }
 
+    /**
+     * Index child elements for many lookups on large document (see {@link Xml#setIndexed(Document, boolean)})
+     *
+     * @param indexed Use index
+     * @return this
+     */
+    public XMLData setIndexed(boolean indexed) {
+        Xml.setIndexed(root().getOwnerDocument(), indexed);
+        return this;
+    }
+
     /**
      * @return Encoding
      */
@@ -61,6 +91,22 @@ public class XMLData extends WebOperationOutput {
         return encoding;
     }
 
+    /**
+     * @return Response buffer size (0 - container default)
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @param bufferSize Response buffer size (0 - container default), response is sent by parts of this size
+     * @return this
+     */
+    public XMLData setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
     /**
      * Get element
      *
@@ -68,7 +114,7 @@ public class XMLData extends WebOperationOutput {
      * @return Element
      */
     public Element getElement(String path) {
-        return Xml.getElement(getXml().getDocumentElement(), path);
+        return Xml.getElement(root(), path);
     }
 
     /**
@@ -79,7 +125,7 @@ public class XMLData extends WebOperationOutput {
      * @return Element
      */
     public Element getElement(String path, Map<String, String> namespaces) {
-        return Xml.getElement(getXml().getDocumentElement(), path, namespaces);
+        return Xml.getElement(root(), path, namespaces);
     }
 
     /**
@@ -90,7 +136,7 @@ public class XMLData extends WebOperationOutput {
      * @return Founded elements
      */
     public List<Element> getElementList(String path, Map<String, String> namespaces) {
-        return Xml.getElementList(getXml().getDocumentElement(), path, namespaces);
+        return Xml.getElementList(root(), path, namespaces);
     }
 
     /**
@@ -100,7 +146,7 @@ public class XMLData extends WebOperationOutput {
      * @return Founded elements
      */
     public List<Element> getElementList(String path) {
-        return Xml.getElementList(getXml().getDocumentElement(), path);
+        return Xml.getElementList(root(), path);
     }
 
     /**
@@ -112,7 +158,9 @@ public class XMLData extends WebOperationOutput {
      * @return Casted object
      */
     public <T> T get(Class<T> t, String path) {
-        return Xml.get(t, getXml().getDocumentElement(), path);
+        if (values != null)
+            return Types.cast(extracted(path), t);
+        return Xml.get(t, root(), path);
     }
 
     /**
@@ -125,7 +173,9 @@ public class XMLData extends WebOperationOutput {
      * @return Casted object
      */
     public <T> T get(Class<T> t, String path, Map<String, String> namespaces) {
-        return Xml.get(t, getXml().getDocumentElement(), path, namespaces);
+        if (values != null)
+            return Types.cast(extracted(path), t);
+        return Xml.get(t, root(), path, namespaces);
     }
 
     /**
@@ -139,7 +189,11 @@ public class XMLData extends WebOperationOutput {
      * @return Casted object
      */
     public <T> T get(Class<T> t, String path, Map<String, String> namespaces, T def) {
-        return Xml.get(t, getXml().getDocumentElement(), path, namespaces, def);
+        if (values != null) {
+            T v = Types.cast(extracted(path), t);
+            return v == null ? def : v;
+        }
+        return Xml.get(t, root(), path, namespaces, def);
     }
 
     /**
@@ -149,7 +203,9 @@ public class XMLData extends WebOperationOutput {
      * @return Object
      */
     public String get(String path) {
-        return Xml.get(getXml().getDocumentElement(), path);
+        if (values != null)
+            return extracted(path);
+        return Xml.get(root(), path);
     }
 
     /**
@@ -160,7 +216,9 @@ public class XMLData extends WebOperationOutput {
      * @return Object
      */
     public String get(String path, Map<String, String> namespaces) {
-        return Xml.get(getXml().getDocumentElement(), path, namespaces);
+        if (values != null)
+            return extracted(path);
+        return Xml.get(root(), path, namespaces);
     }
 
     /**
@@ -172,7 +230,23 @@ public class XMLData extends WebOperationOutput {
      * @return Object
      */
     public String get(String path, Map<String, String> namespaces, String defVal) {
-        return Xml.get(getXml().getDocumentElement(), path, namespaces, defVal);
+        if (values != null) {
+            String v = extracted(path);
+            return v == null ? defVal : v;
+        }
+        return Xml.get(root(), path, namespaces, defVal);
+    }
+
+    private Element root() {
+        if (xml == null)
+            throw new IllegalStateException("XML is not parsed, only extracted values are available");
+        return xml.getDocumentElement();
+    }
+
+    private String extracted(String path) {
+        if (!values.containsKey(path))
+            throw new IllegalArgumentException("Path was not extracted: " + path);
+        return values.get(path);
     }
 
 
@@ -180,6 +254,8 @@ public class XMLData extends WebOperationOutput {
     public void render(HttpServletResponse response) throws IOException {
         response.setCharacterEncoding(encoding);
         response.setContentType("text/xml");
-        response.getOutputStream().write(Xml.toXMLString(getXml().getDocumentElement(), encoding).getBytes(encoding));
+        if (bufferSize > 0 && !response.isCommitted())
+            response.setBufferSize(bufferSize);
+        Xml.write(root(), response.getOutputStream(), encoding);
     }
 }
@@ -0,0 +1,62 @@
+package org.s1.web.services.limits;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Additive increase, multiplicative decrease limit.
+ * <br>
+ * Limit grows by 1 after successful request (if it was really used),
+ * it is multiplied by backoff ratio when request fails or takes longer than timeout.
+ *
+ * @author Grigory Pykhov
+ */
+public class AimdLimit extends ConcurrencyLimit {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long timeout;
+    private final double backoffRatio;
+    private volatile int limit;
+
+    /**
+     * Limit from 1 to 1000, starts with 20, backoff ratio is 0.9
+     *
+     * @param timeout Request duration (in milliseconds) treated as overload
+     */
+    public AimdLimit(long timeout) {
+        this(20, 1, 1000, timeout, 0.9);
+    }
+
+    /**
+     * @param initialLimit Initial limit
+     * @param minLimit     Min limit
+     * @param maxLimit     Max limit
+     * @param timeout      Request duration (in milliseconds) treated as overload
+     * @param backoffRatio Limit multiplier on overload (0.5 - 1.0)
+     */
+    public AimdLimit(int initialLimit, int minLimit, int maxLimit, long timeout, double backoffRatio) {
+        if (minLimit < 1 || maxLimit < minLimit)
+            throw new IllegalArgumentException("Invalid limit bounds: " + minLimit + "-" + maxLimit);
+        if (backoffRatio < 0.5 || backoffRatio >= 1.0)
+            throw new IllegalArgumentException("Backoff ratio should be in [0.5, 1.0): " + backoffRatio);
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    @Override
+    protected synchronized void onSample(long rtt, int inFlight, boolean dropped) {
+        if (dropped || rtt > timeout) {
+            limit = Math.max(minLimit, (int) (limit * backoffRatio));
+        } else if (inFlight * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+}
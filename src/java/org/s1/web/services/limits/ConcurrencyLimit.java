@@ -0,0 +1,110 @@
+package org.s1.web.services.limits;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrency limit for web operation.
+ * <br>
+ * If limit is exceeded, request is rejected with 503 status and <code>Retry-After</code> header.
+ * <br>
+ * Set it with {@link org.s1.web.services.OperationSettings#setLimit(ConcurrencyLimit)},
+ * every operation should have its own instance.
+ *
+ * @author Grigory Pykhov
+ */
+public abstract class ConcurrencyLimit {
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile int retryAfter = 1;
+
+    /**
+     * Try to take a permit
+     *
+     * @return False if limit is exceeded
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int n = inFlight.get();
+            if (n >= getLimit()) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (inFlight.compareAndSet(n, n + 1)) {
+                accepted.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Return permit taken with {@link #tryAcquire()}
+     *
+     * @param startNanos Request start ({@link System#nanoTime()} when permit was taken)
+     * @param dropped    True if request failed
+     */
+    public void release(long startNanos, boolean dropped) {
+        int n = inFlight.getAndDecrement();
+        onSample(System.nanoTime() - startNanos, n, dropped);
+    }
+
+    /**
+     * Update limit with request result
+     *
+     * @param rtt      Request duration in nanoseconds
+     * @param inFlight Requests in flight (including this one)
+     * @param dropped  True if request failed
+     */
+    protected void onSample(long rtt, int inFlight, boolean dropped) {
+    }
+
+    /**
+     * @return Current limit
+     */
+    public abstract int getLimit();
+
+    /**
+     * @return Requests in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return Accepted requests count
+     */
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    /**
+     * @return Rejected requests count
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return Value for Retry-After header in seconds
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * @param retryAfter Value for Retry-After header in seconds
+     * @return This
+     */
+    public ConcurrencyLimit setRetryAfter(int retryAfter) {
+        this.retryAfter = retryAfter;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{limit=" + getLimit() + ", inFlight=" + getInFlight()
+                + ", accepted=" + getAccepted() + ", rejected=" + getRejected() + "}";
+    }
+}
@@ -0,0 +1,25 @@
+package org.s1.web.services.limits;
+
+/**
+ * Fixed concurrency limit
+ *
+ * @author Grigory Pykhov
+ */
+public class FixedLimit extends ConcurrencyLimit {
+
+    private final int limit;
+
+    /**
+     * @param limit Max requests in flight
+     */
+    public FixedLimit(int limit) {
+        if (limit < 1)
+            throw new IllegalArgumentException("Limit should be positive: " + limit);
+        this.limit = limit;
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+}
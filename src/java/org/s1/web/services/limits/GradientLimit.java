@@ -0,0 +1,78 @@
+package org.s1.web.services.limits;
+
+/**
+ * Latency gradient limit.
+ * <br>
+ * Compares short-term request duration with long-term average:
+ * while latency doesn't grow, limit grows (by square root of limit),
+ * when latency grows (requests are queued somewhere), limit is decreased proportionally.
+ *
+ * @author Grigory Pykhov
+ */
+public class GradientLimit extends ConcurrencyLimit {
+
+    private static final double SMOOTHING = 0.2;
+    private static final double TOLERANCE = 1.5;
+    private static final int LONG_WINDOW = 600;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double estimatedLimit;
+    private double longRtt;
+    private long samples;
+    private volatile int limit;
+
+    /**
+     * Limit from 1 to 1000, starts with 20
+     */
+    public GradientLimit() {
+        this(20, 1, 1000);
+    }
+
+    /**
+     * @param initialLimit Initial limit
+     * @param minLimit     Min limit
+     * @param maxLimit     Max limit
+     */
+    public GradientLimit(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit)
+            throw new IllegalArgumentException("Invalid limit bounds: " + minLimit + "-" + maxLimit);
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.estimatedLimit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.limit = (int) estimatedLimit;
+    }
+
+    @Override
+    protected synchronized void onSample(long rtt, int inFlight, boolean dropped) {
+        if (rtt <= 0)
+            return;
+
+        //long-term average
+        samples++;
+        int window = (int) Math.min(samples, LONG_WINDOW);
+        longRtt = longRtt + (rtt - longRtt) / window;
+        //let long-term average recover after sustained overload
+        if (longRtt / rtt > 2)
+            longRtt = longRtt * 0.95;
+
+        //application doesn't use limit, don't grow
+        if (!dropped && inFlight < estimatedLimit / 2)
+            return;
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / rtt));
+        double newLimit;
+        if (dropped)
+            newLimit = estimatedLimit * 0.5;
+        else
+            newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        limit = (int) estimatedLimit;
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,6 @@
+/**
+ * Concurrency limits (bulkheads) for web operations
+ *
+ * @author Grigory Pykhov
+ */
+package org.s1.web.services.limits;
@@ -0,0 +1,57 @@
+package org.s1.web.services.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter for hot paths.
+ * <br>
+ * Threads update different cells (one cell per cache line), value is summed on read,
+ * so concurrent updates don't contend on one memory location.
+ *
+ * @author Grigory Pykhov
+ */
+public class Counter {
+
+    private static final int PAD = 8;
+    private static final int STRIPES;
+
+    static {
+        int n = 1;
+        while (n < Runtime.getRuntime().availableProcessors() * 2 && n < 64)
+            n <<= 1;
+        STRIPES = n;
+    }
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+    /**
+     * Add 1
+     */
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * @param x Value to add
+     */
+    public void add(long x) {
+        cells.getAndAdd(((int) Thread.currentThread().getId() & (STRIPES - 1)) * PAD, x);
+    }
+
+    /**
+     * @return Current sum
+     */
+    public long get() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PAD);
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return "" + get();
+    }
+
+}
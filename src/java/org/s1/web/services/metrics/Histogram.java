@@ -0,0 +1,140 @@
+package org.s1.web.services.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of non-negative values (e.g. durations in nanoseconds).
+ * <br>
+ * Every power of two range is split into 32 linear buckets, so relative error of percentiles is about 3%.
+ * Values greater than 2^40 are counted in the last bucket.
+ * <br>
+ * Recording doesn't allocate, histograms with the same layout may be merged with {@link #merge(Histogram)}.
+ *
+ * @author Grigory Pykhov
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int MAX_BITS = 40;
+    private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+    private static final int SIZE = index(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SIZE);
+    private final Counter count = new Counter();
+    private final Counter sum = new Counter();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record value
+     *
+     * @param value Value (negative is recorded as 0)
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        counts.incrementAndGet(index(Math.min(value, MAX_VALUE)));
+        count.increment();
+        sum.add(value);
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value)) {
+            m = max.get();
+        }
+    }
+
+    /**
+     * Add all values from other histogram
+     *
+     * @param other Histogram
+     * @return This histogram
+     */
+    public Histogram merge(Histogram other) {
+        for (int i = 0; i < SIZE; i++) {
+            long c = other.counts.get(i);
+            if (c > 0)
+                counts.addAndGet(i, c);
+        }
+        count.add(other.getCount());
+        sum.add(other.getSum());
+        long m = max.get();
+        long om = other.getMax();
+        while (om > m && !max.compareAndSet(m, om)) {
+            m = max.get();
+        }
+        return this;
+    }
+
+    /**
+     * @return Values count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return Values sum
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * @return Max value
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return Mean value (0 if empty)
+     */
+    public double getMean() {
+        long c = getCount();
+        return c == 0 ? 0 : (double) getSum() / c;
+    }
+
+    /**
+     * Get value at percentile
+     *
+     * @param percentile Percentile (0-100)
+     * @return Upper bound of bucket containing percentile (0 if empty)
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < SIZE; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+        long n = 0;
+        for (int i = 0; i < SIZE; i++) {
+            n += counts.get(i);
+            if (n >= rank)
+                return Math.min(upperBound(i), getMax());
+        }
+        return getMax();
+    }
+
+    @Override
+    public String toString() {
+        return "Histogram{count=" + getCount() + ", mean=" + getMean() + ", p50=" + getValueAtPercentile(50)
+                + ", p99=" + getValueAtPercentile(99) + ", max=" + getMax() + "}";
+    }
+
+    private static int index(long value) {
+        if (value < SUB)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * SUB + (int) (value >>> shift);
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB * 2)
+            return index;
+        int shift = index / SUB - 1;
+        return ((long) (index - shift * SUB) << shift) + (1L << shift) - 1;
+    }
+
+}
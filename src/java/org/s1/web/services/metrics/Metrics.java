@@ -0,0 +1,183 @@
+package org.s1.web.services.metrics;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Metrics registry, operations are registered by {@link org.s1.web.services.ServiceDispatcherServlet}.
+ * <br>
+ * Metrics are exposed with built-in operation <code>/services/_metrics</code>
+ * as JSON ({@link #toMap()}) or Prometheus text format ({@link #toPrometheus()}, <code>?format=prometheus</code>).
+ *
+ * @author Grigory Pykhov
+ */
+public class Metrics {
+
+    /**
+     * Request attribute with {@link OperationMetrics} of operation processing request
+     */
+    public static final String ATTRIBUTE = "org.s1.web.services.Metrics";
+
+    private static final String[] PHASES = {"total", "parse", "process", "render", "session"};
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] QUANTILES = {"0.5", "0.9", "0.99", "0.999"};
+    private static final String[] KEYS = {"p50", "p90", "p99", "p99_9"};
+
+    private static final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentHashMap<String, OperationMetrics>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Get or create operation metrics
+     *
+     * @param name Operation name
+     * @return Metrics
+     */
+    public static OperationMetrics get(String name) {
+        OperationMetrics m = operations.get(name);
+        if (m == null) {
+            m = new OperationMetrics(name);
+            OperationMetrics current = operations.putIfAbsent(name, m);
+            if (current != null)
+                m = current;
+        }
+        return m;
+    }
+
+    /**
+     * @return All operations metrics sorted by name
+     */
+    public static List<OperationMetrics> getAll() {
+        List<OperationMetrics> l = new ArrayList<OperationMetrics>(operations.values());
+        Collections.sort(l, new Comparator<OperationMetrics>() {
+            @Override
+            public int compare(OperationMetrics o1, OperationMetrics o2) {
+                return o1.getName().compareTo(o2.getName());
+            }
+        });
+        return l;
+    }
+
+    /**
+     * Remove all metrics
+     */
+    public static void reset() {
+        operations.clear();
+    }
+
+    /**
+     * Metrics as map (durations are in milliseconds):
+     * <code>{operations:{name:{requests:1,inFlight:0,errors:0,rejected:0,cacheHits:0,cacheMisses:0,total:{count:1,mean:0.1,max:0.1,p50:0.1,p90:0.1,p99:0.1,p99_9:0.1},parse:{...},...}}}</code>
+     *
+     * @return Map
+     */
+    public static Map<String, Object> toMap() {
+        Map<String, Object> ops = new LinkedHashMap<String, Object>();
+        for (OperationMetrics m : getAll()) {
+            Map<String, Object> op = new LinkedHashMap<String, Object>();
+            op.put("requests", m.getRequests());
+            op.put("inFlight", m.getInFlight());
+            op.put("errors", m.getErrors());
+            op.put("rejected", m.getRejected());
+            op.put("cacheHits", m.getCacheHits());
+            op.put("cacheMisses", m.getCacheMisses());
+            for (String phase : PHASES) {
+                Histogram h = getPhase(m, phase);
+                Map<String, Object> hm = new LinkedHashMap<String, Object>();
+                hm.put("count", h.getCount());
+                hm.put("mean", toMillis(h.getMean()));
+                hm.put("max", toMillis(h.getMax()));
+                for (int i = 0; i < PERCENTILES.length; i++) {
+                    hm.put(KEYS[i], toMillis(h.getValueAtPercentile(PERCENTILES[i])));
+                }
+                op.put(phase, hm);
+            }
+            ops.put(m.getName(), op);
+        }
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("operations", ops);
+        return result;
+    }
+
+    /**
+     * Metrics in Prometheus text format (durations are summaries in seconds)
+     *
+     * @return Text
+     */
+    public static String toPrometheus() {
+        List<OperationMetrics> all = getAll();
+        StringBuilder sb = new StringBuilder();
+        sb.append("# TYPE s1_web_requests_total counter\n");
+        for (OperationMetrics m : all) {
+            sample(sb, "s1_web_requests_total", m, null, null, m.getRequests());
+        }
+        sb.append("# TYPE s1_web_errors_total counter\n");
+        for (OperationMetrics m : all) {
+            sample(sb, "s1_web_errors_total", m, null, null, m.getErrors());
+        }
+        sb.append("# TYPE s1_web_rejected_total counter\n");
+        for (OperationMetrics m : all) {
+            sample(sb, "s1_web_rejected_total", m, null, null, m.getRejected());
+        }
+        sb.append("# TYPE s1_web_cache_hits_total counter\n");
+        for (OperationMetrics m : all) {
+            sample(sb, "s1_web_cache_hits_total", m, null, null, m.getCacheHits());
+        }
+        sb.append("# TYPE s1_web_cache_misses_total counter\n");
+        for (OperationMetrics m : all) {
+            sample(sb, "s1_web_cache_misses_total", m, null, null, m.getCacheMisses());
+        }
+        sb.append("# TYPE s1_web_in_flight gauge\n");
+        for (OperationMetrics m : all) {
+            sample(sb, "s1_web_in_flight", m, null, null, m.getInFlight());
+        }
+        sb.append("# TYPE s1_web_duration_seconds summary\n");
+        for (OperationMetrics m : all) {
+            for (String phase : PHASES) {
+                Histogram h = getPhase(m, phase);
+                for (int i = 0; i < PERCENTILES.length; i++) {
+                    sample(sb, "s1_web_duration_seconds", m, phase, QUANTILES[i], toSeconds(h.getValueAtPercentile(PERCENTILES[i])));
+                }
+                sample(sb, "s1_web_duration_seconds_sum", m, phase, null, toSeconds(h.getSum()));
+                sample(sb, "s1_web_duration_seconds_count", m, phase, null, h.getCount());
+            }
+        }
+        return sb.toString();
+    }
+
+    private static Histogram getPhase(OperationMetrics m, String phase) {
+        if ("parse".equals(phase))
+            return m.getParse();
+        if ("process".equals(phase))
+            return m.getProcess();
+        if ("render".equals(phase))
+            return m.getRender();
+        if ("session".equals(phase))
+            return m.getSession();
+        return m.getTotal();
+    }
+
+    private static void sample(StringBuilder sb, String metric, OperationMetrics m, String phase, String quantile, Object value) {
+        sb.append(metric).append("{operation=\"").append(escape(m.getName())).append('"');
+        if (phase != null)
+            sb.append(",phase=\"").append(phase).append('"');
+        if (quantile != null)
+            sb.append(",quantile=\"").append(quantile).append('"');
+        sb.append("} ").append(value).append('\n');
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static double toMillis(double nanos) {
+        return nanos / 1000000d;
+    }
+
+    private static double toSeconds(double nanos) {
+        return nanos / 1000000000d;
+    }
+
+}
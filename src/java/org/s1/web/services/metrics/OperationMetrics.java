@@ -0,0 +1,169 @@
+package org.s1.web.services.metrics;
+
+/**
+ * Metrics of one web operation, durations are in nanoseconds.
+ * <br>
+ * Total duration is measured by dispatcher (including cached and coalesced requests),
+ * phases - by {@link org.s1.web.services.WebOperation#request(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)}:
+ * input parsing, {@link org.s1.web.services.WebOperation} process (without parsing), output rendering and session I/O.
+ *
+ * @author Grigory Pykhov
+ */
+public class OperationMetrics {
+
+    private final String name;
+    private final Counter requests = new Counter();
+    private final Counter finished = new Counter();
+    private final Counter errors = new Counter();
+    private final Counter rejected = new Counter();
+    private final Counter cacheHits = new Counter();
+    private final Counter cacheMisses = new Counter();
+    private final Histogram total = new Histogram();
+    private final Histogram parse = new Histogram();
+    private final Histogram process = new Histogram();
+    private final Histogram render = new Histogram();
+    private final Histogram session = new Histogram();
+
+    /**
+     * @param name Operation name
+     */
+    public OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Request accepted
+     */
+    public void onStart() {
+        requests.increment();
+    }
+
+    /**
+     * Request finished
+     *
+     * @param startNanos {@link System#nanoTime()} when request was accepted
+     */
+    public void onFinish(long startNanos) {
+        finished.increment();
+        total.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Request rejected (limit exceeded)
+     */
+    public void onReject() {
+        rejected.increment();
+    }
+
+    /**
+     * Output is found in cache
+     */
+    public void onCacheHit() {
+        cacheHits.increment();
+    }
+
+    /**
+     * Output is not found in cache
+     */
+    public void onCacheMiss() {
+        cacheMisses.increment();
+    }
+
+    /**
+     * Operation failed
+     */
+    public void onError() {
+        errors.increment();
+    }
+
+    /**
+     * @return Operation name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Accepted requests count
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return Requests in progress
+     */
+    public long getInFlight() {
+        return Math.max(0, requests.get() - finished.get());
+    }
+
+    /**
+     * @return Failed requests count
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * @return Rejected requests count
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return Output cache hits count
+     */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * @return Output cache misses count
+     */
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    /**
+     * @return Total duration
+     */
+    public Histogram getTotal() {
+        return total;
+    }
+
+    /**
+     * @return Input parsing duration
+     */
+    public Histogram getParse() {
+        return parse;
+    }
+
+    /**
+     * @return Process duration (without input parsing)
+     */
+    public Histogram getProcess() {
+        return process;
+    }
+
+    /**
+     * @return Output rendering duration
+     */
+    public Histogram getRender() {
+        return render;
+    }
+
+    /**
+     * @return Session I/O duration
+     */
+    public Histogram getSession() {
+        return session;
+    }
+
+    @Override
+    public String toString() {
+        return "OperationMetrics{name=" + name + ", requests=" + getRequests() + ", inFlight=" + getInFlight()
+                + ", errors=" + getErrors() + ", rejected=" + getRejected() + ", total=" + total + "}";
+    }
+
+}
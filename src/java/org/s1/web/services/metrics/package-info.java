@@ -0,0 +1,6 @@
+/**
+ * Web operations metrics
+ *
+ * @author Grigory Pykhov
+ */
+package org.s1.web.services.metrics;
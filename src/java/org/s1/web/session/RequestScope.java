@@ -12,6 +12,10 @@ import java.util.Map;
  * Request scope.
  * <br>
  * Stores request, and may store some params, cleans up after request finishes.
+ * <br>
+ * Scope is bound to the thread which processes request (container, pooled or virtual thread),
+ * it is not inherited by child threads and is always removed in {@link #finish()},
+ * so pooled threads never keep stale scope and virtual threads don't retain anything after request.
  *
  * @author Grigory Pykhov
  */
@@ -19,7 +23,7 @@ public class RequestScope {
 
     private static final Logger LOG = LoggerFactory.getLogger(RequestScope.class);
 
-    private static ThreadLocal<Context> local = new ThreadLocal<Context>();
+    private static final ThreadLocal<Context> local = new ThreadLocal<Context>();
 
     private RequestScope() {
     }
@@ -9,10 +9,13 @@ import org.slf4j.MDC;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Session level scope.
@@ -20,6 +23,11 @@ import java.util.UUID;
  * Scales horizontally with Hazelcast (http://hazelcast.org)
  * <br>
  * Should be initialized with Hazelcast instance (make it in {@link org.s1.web.ApplicationFilter}).
+ * <br>
+ * Only session id is bound to current thread (session data lives in Hazelcast),
+ * so starting scope on pooled or virtual thread is cheap. Scope is removed in {@link #finish(String)}.
+ * <br>
+ * Already loaded context may be shared by several scopes ({@link #start(String, Context)}), e.g. by batch items.
  *
  * @author Grigory Pykhov
  */
@@ -42,6 +50,13 @@ public class SessionScope {
 
     private static IMap<String, Context> sessionMap;
     private static final ThreadLocal<String> idLocal = new ThreadLocal<String>();
+    private static final ThreadLocal<Context> contextLocal = new ThreadLocal<Context>();
+    private static final ThreadLocal<long[]> ioTimeLocal = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
     private static HazelcastInstance hazelcastInstance;
     private static long TTL = 0;
 
@@ -59,6 +74,13 @@ public class SessionScope {
         SessionScope.TTL = TTL;
     }
 
+    /**
+     * @return True if {@link #initialize(HazelcastInstance, long)} was called
+     */
+    public static boolean isInitialized() {
+        return hazelcastInstance != null;
+    }
+
     /**
      * Reset and clean all scopes
      */
@@ -75,11 +97,26 @@ public class SessionScope {
      * @return Same id if new session scope started or null if already in session scope
      */
     public static String start(String id) {
+        return start(id, null);
+    }
+
+    /**
+     * Start new session scope with already loaded context (if already in scope - NOP)
+     *
+     * @param id      Session id
+     * @param context Context loaded by {@link #getContext()} in other scope of the same session,
+     *                it is returned by {@link #getContext()} without reading session map (may be null)
+     * @return Same id if new session scope started or null if already in session scope
+     */
+    public static String start(String id, Context context) {
         if (idLocal.get() != null) {
             return null;
         } else {
             MDC.put("sessionId", id);
             idLocal.set(id);
+            if (context != null && id.equals(context.id))
+                contextLocal.set(context);
+            ioTimeLocal.get()[0] = 0;
             return id;
         }
     }
@@ -93,9 +130,29 @@ public class SessionScope {
         if (id != null && !id.isEmpty()) {
             MDC.remove("sessionId");
             idLocal.remove();
+            contextLocal.remove();
+            //ioTimeLocal is kept to avoid allocation per request, it is reset in start
         }
     }
 
+    /**
+     * Get current session id
+     *
+     * @return Session id (null if not in session scope)
+     */
+    public static String getId() {
+        return idLocal.get();
+    }
+
+    /**
+     * Get time spent on session map access in current scope
+     *
+     * @return Nanoseconds
+     */
+    public static long getIOTime() {
+        return ioTimeLocal.get()[0];
+    }
+
     /**
      * Get current context
      *
@@ -105,7 +162,12 @@ public class SessionScope {
         String id = idLocal.get();
         if (id == null)
             return null;
-        Context s = getSessionMap().get(id);
+        Context s = contextLocal.get();
+        if (s != null)
+            return s;
+        long t = System.nanoTime();
+        s = getSessionMap().get(id);
+        ioTimeLocal.get()[0] += System.nanoTime() - t;
 
         //check TTL
         if (s != null && (System.currentTimeMillis() - s.lastUsed) > TTL) {
@@ -170,7 +232,9 @@ public class SessionScope {
         String id = idLocal.get();
         if (id == null)
             return;
+        long t = System.nanoTime();
         getSessionMap().put(id, s);
+        ioTimeLocal.get()[0] += System.nanoTime() - t;
     }
 
     /**
@@ -181,6 +245,8 @@ public class SessionScope {
         private long created = System.currentTimeMillis();
         private long lastUsed = System.currentTimeMillis();
         private final Map<String, Object> data = new HashMap<String, Object>();
+        //held while session map is updated, it doesn't pin carrier of virtual thread
+        private transient ReentrantLock lock = new ReentrantLock();
 
         /**
          * Session id
@@ -229,9 +295,14 @@ public class SessionScope {
          * @return Value
          */
         public <T> T get(String key, T def) {
-            if (!data.containsKey(key))
-                return def;
-            return (T) data.get(key);
+            lock.lock();
+            try {
+                if (!data.containsKey(key))
+                    return def;
+                return (T) data.get(key);
+            } finally {
+                lock.unlock();
+            }
         }
 
         /**
@@ -242,11 +313,21 @@ public class SessionScope {
          * @return Context
          */
         public Context set(String key, Object val) {
-            data.put(key, val);
-            updateContext(this);
+            lock.lock();
+            try {
+                data.put(key, val);
+                updateContext(this);
+            } finally {
+                lock.unlock();
+            }
             return this;
         }
 
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            lock = new ReentrantLock();
+        }
+
     }
 
 }
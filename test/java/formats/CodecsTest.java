@@ -0,0 +1,47 @@
+package formats;
+
+import org.s1.web.formats.CborCodec;
+import org.s1.web.formats.Codec;
+import org.s1.web.formats.MessagePackCodec;
+import org.s1.web.formats.Maps;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * @author Grigory Pykhov
+ */
+public class CodecsTest {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, Object> m = Maps.newSOHashMap(
+                "int", 1,
+                "negative", -100000,
+                "long", 1L << 40,
+                "uint64", new BigInteger("18446744073709551615"),
+                "bigint", new BigInteger("-123456789012345678901234567890"),
+                "decimal", new BigDecimal("0.10000000000000000000000000001"),
+                "decimal2", new BigDecimal("-1E+30"),
+                "double", 1.5,
+                "date", new Date(1234567890123L),
+                "str", "кир",
+                "list", Maps.newArrayList(true, null, "x"));
+        for (Codec c : new Codec[]{new MessagePackCodec(), new CborCodec()}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            c.write(m, out, null);
+            Object r = c.read(new ByteArrayInputStream(out.toByteArray()), null);
+            check(m.equals(r), c.getMediaType() + ": " + r);
+        }
+        System.out.println("OK");
+    }
+
+    private static void check(boolean b, String message) {
+        if (!b)
+            throw new IllegalStateException(message);
+    }
+
+}
@@ -0,0 +1,90 @@
+package formats;
+
+import org.s1.web.formats.CompactList;
+import org.s1.web.formats.CompactMap;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Grigory Pykhov
+ */
+public class CompactTest {
+
+    public static void main(String[] args) throws Exception {
+        //map grows past array size, order is kept
+        Map<String, Object> m = new CompactMap<String, Object>();
+        Map<String, Object> expected = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < CompactMap.MAX_ARRAY_SIZE * 2; i++) {
+            m.put("k" + i, i);
+            expected.put("k" + i, i);
+            check(m.equals(expected) && m.size() == i + 1, "grow " + i);
+        }
+        check(m.keySet().toString().equals(expected.keySet().toString()), "order " + m.keySet());
+        m.remove("k3");
+        expected.remove("k3");
+        check(m.equals(expected), "remove");
+
+        //entry of array iterator after map is upgraded
+        Map<String, Object> small = new CompactMap<String, Object>();
+        for (int i = 0; i < CompactMap.MAX_ARRAY_SIZE; i++) {
+            small.put("k" + i, i);
+        }
+        Map.Entry<String, Object> e = small.entrySet().iterator().next();
+        small.put("big", 1);
+        e.setValue("x");
+        check("x".equals(small.get("k0")) && small.size() == CompactMap.MAX_ARRAY_SIZE + 1, "entry after upgrade");
+
+        //entry after removal of previous key is bound to its key
+        small = new CompactMap<String, Object>();
+        small.put("a", 1);
+        small.put("b", 2);
+        Iterator<Map.Entry<String, Object>> it = small.entrySet().iterator();
+        it.next();
+        e = it.next();
+        small.remove("a");
+        e.setValue(3);
+        check(small.get("b").equals(3) && small.size() == 1, "entry after remove");
+
+        //fail-fast iterator
+        it = small.entrySet().iterator();
+        small.put("c", 4);
+        try {
+            it.next();
+            check(false, "concurrent modification expected");
+        } catch (ConcurrentModificationException ex) {
+            //ok
+        }
+        it = small.entrySet().iterator();
+        it.next();
+        it.remove();
+        check(it.hasNext() && it.next().getKey().equals("c") && !it.hasNext() && small.size() == 1, "iterator remove");
+
+        //list changes element type
+        List<Object> l = new CompactList<Object>();
+        l.add(1);
+        l.add(2);
+        check(l.get(1) instanceof Integer, "int");
+        l.add(3000000000L);
+        //element types are kept
+        check(l.get(0).equals(1) && l.get(2).equals(3000000000L), "long " + l);
+        l.add(1.5);
+        check(l.get(3).equals(1.5) && l.size() == 4, "double " + l);
+        l.set(0, "a");
+        l.add(null);
+        check(l.get(0).equals("a") && l.get(3).equals(1.5) && l.get(4) == null && l.size() == 5, "object " + l);
+        l.remove(0);
+        check(l.size() == 4 && l.get(l.size() - 1) == null, "list remove " + l);
+
+        System.out.println("OK");
+    }
+
+    private static void check(boolean b, String message) {
+        if (!b)
+            throw new IllegalStateException(message);
+    }
+
+}
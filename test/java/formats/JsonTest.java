@@ -0,0 +1,148 @@
+package formats;
+
+import org.s1.web.formats.Codec;
+import org.s1.web.formats.Codecs;
+import org.s1.web.formats.Json;
+import org.s1.web.formats.JsonArrayParser;
+import org.s1.web.formats.JsonBinding;
+import org.s1.web.formats.JsonIndex;
+import org.s1.web.formats.JsonReader;
+import org.s1.web.formats.Maps;
+import org.s1.web.formats.Types;
+import org.s1.web.services.formats.JSONData;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Grigory Pykhov
+ */
+public class JsonTest {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, Object> m = Maps.newSOHashMap(
+                "str", "a\"b\\c\n\u0001 \u043a\u0438\u0440 \ud83d\ude00",
+                "int", 1, "long", 10000000000L, "big", new java.math.BigInteger("123456789012345678901234567890"),
+                "dec", new java.math.BigDecimal("1.5"), "bool", true, "null", null,
+                "date", new Date(1400000000000L),
+                "list", Maps.newArrayList(1, "2", Maps.newSOHashMap("a", Maps.newArrayList())));
+
+        String json = Json.toJSON(m);
+        System.out.println(json);
+        Map<String, Object> m2 = Json.read(json);
+        check(m.equals(m2), "roundtrip " + m2);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Json.write(m, bos, "windows-1251");
+        check(m.equals(Json.read(new ByteArrayInputStream(bos.toByteArray()), "windows-1251")), "windows-1251");
+
+        //streaming: newline-delimited values
+        JsonReader r = new JsonReader(new ByteArrayInputStream("{\"a\":1}\n{\"a\":2}\n".getBytes("UTF-8")));
+        int n = 0;
+        while (r.next() != JsonReader.END) {
+            Map<String, Object> it = (Map<String, Object>) r.readValue(r.getToken());
+            n += (Integer) it.get("a");
+        }
+        check(n == 3, "ndjson");
+
+        for (String bad : new String[]{"{", "{\"a\" 1}", "[1,]", "{\"a\":1} x", "\"abc", "-", "\"a\tb\""}) {
+            try {
+                Json.read(bad);
+                check(false, "error expected for " + bad);
+            } catch (IllegalArgumentException e) {
+                System.out.println(bad + ": " + e.getMessage());
+            }
+        }
+        //lazy index
+        JsonIndex index = new JsonIndex(json.getBytes("UTF-8"));
+        for (String bad : new String[]{"{\"a\" \"b\" 1}", "{\"a\":1,,}", "[1 2]", "{\"a\",1}", "[1:2]", "[,1]", "[1,]", "{\"a\":1,}", "1,2", "{} {}"}) {
+            try {
+                new JsonIndex(bad.getBytes("UTF-8"));
+                check(false, "index error expected for " + bad);
+            } catch (IllegalArgumentException e) {
+                System.out.println(bad + ": " + e.getMessage());
+            }
+        }
+        check(new JsonIndex(" { \"a\" : [ 1 , { } , [ ] ] , \"b\":{\"c\":\"d\"} } ".getBytes("UTF-8")).get("b.c", null).equals("d"), "index separators");
+        for (String path : new String[]{"str", "date", "list[2].a", "list[1]", "big", "none", "list[5]"}) {
+            check(Types.equals(index.get(path, null), Maps.get(m, path)), "index " + path);
+        }
+
+        List<Object> l = Json.read("[\"/Date(-1)/\", \"/date(x)/\", 2147483648, -2147483648, 1e2]");
+        System.out.println(l);
+        check(l.get(0) instanceof Date && l.get(1) instanceof String && l.get(2) instanceof Long
+                && l.get(3) instanceof Integer, "types");
+
+        //parallel array parsing
+        int minParallelSize = JsonArrayParser.getMinParallelSize();
+        JsonArrayParser.setMinParallelSize(0);
+        try {
+            List<Object> rows = Maps.newArrayList(m, "[\"]", Maps.newArrayList(m, m), 1, null);
+            List<Object> parsed = JsonArrayParser.parse(Json.toBytes(rows), null);
+            check(rows.equals(parsed), "parallel");
+            parsed.add(2);
+            check(parsed.size() == rows.size() + 1, "parallel result is modifiable");
+        } finally {
+            JsonArrayParser.setMinParallelSize(minParallelSize);
+            JsonArrayParser.shutdown();
+        }
+
+        //binary formats
+        for (String type : new String[]{"application/cbor", "application/msgpack"}) {
+            Codec codec = Codecs.get(type);
+            bos.reset();
+            codec.write(m, bos, null);
+            Map<String, Object> m3 = (Map<String, Object>) codec.read(new ByteArrayInputStream(bos.toByteArray()), null);
+            check(Types.equals(m.get("date"), m3.get("date")) && m.get("list").equals(m3.get("list")) && m.get("str").equals(m3.get("str")), type);
+        }
+        check(Codecs.isDefault(Codecs.forAccept("application/json, application/cbor;q=0.5"))
+                && Codecs.forAccept("application/msgpack, */*;q=0.1") == Codecs.get("application/msgpack"), "accept");
+
+        //bean binding
+        Bean b = JsonBinding.read("{\"id\":5,\"x\":[1],\"items\":[{\"id\":\"6\",\"tags\":{\"a\":[\"b\"]}}]}".getBytes("UTF-8"), Bean.class);
+        check(b.id == 5 && b.getItems().get(0).id == 6 && b.getItems().get(0).tags.get("a").get(0).equals("b"), "binding");
+        check(Json.read(Json.toJSON(b)).equals(Json.read("{\"items\":[{\"items\":null,\"id\":6,\"tags\":{\"a\":[\"b\"]}}],\"id\":5,\"tags\":null}")), "bean " + Json.toJSON(b));
+        for (Class<?> c : new Class<?>[]{String.class, Integer.class, Date.class, List.class, int[].class}) {
+            try {
+                JsonBinding.read("{\"a\":1}".getBytes("UTF-8"), c);
+                check(false, "error expected for " + c);
+            } catch (IllegalArgumentException e) {
+                System.out.println(c.getSimpleName() + ": " + e.getMessage());
+            }
+        }
+        Map<String, String> sm = new HashMap<String, String>();
+        sm.put("a", "b");
+        check(new JSONData(sm).getData().equals(sm), "map data");
+        check(new JSONData(b).getData().get("id").equals(5L), "bean data");
+        try {
+            new JSONData(Maps.newArrayList(1, 2));
+            check(false, "error expected for list data");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    public static class Bean {
+        public long id;
+        public Map<String, List<String>> tags;
+        private List<Bean> items;
+
+        public List<Bean> getItems() {
+            return items;
+        }
+
+        public void setItems(List<Bean> items) {
+            this.items = items;
+        }
+    }
+
+    private static void check(boolean b, String message) {
+        if (!b)
+            throw new IllegalStateException(message);
+    }
+
+}
@@ -0,0 +1,95 @@
+package formats;
+
+import org.s1.web.formats.JsonReader;
+import org.s1.web.formats.KeyTable;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author Grigory Pykhov
+ */
+public class KeyTableTest {
+
+    public static void main(String[] args) throws Exception {
+        //repeated keys are one instance
+        KeyTable t = new KeyTable(16);
+        byte[] b = "xxnamexx".getBytes("US-ASCII");
+        String s = t.get(b, 2, 4);
+        check("name".equals(s), "key " + s);
+        check(t.get("name".getBytes("US-ASCII"), 0, 4) == s, "same instance from bytes");
+        check(t.intern(new String("name")) == s, "same instance from string");
+        check(t.get(new byte[0], 0, 0).isEmpty(), "empty key");
+
+        //long keys are not stored
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i <= KeyTable.MAX_KEY_LENGTH; i++) {
+            sb.append('k');
+        }
+        byte[] longKey = sb.toString().getBytes("US-ASCII");
+        String l1 = t.get(longKey, 0, longKey.length);
+        check(sb.toString().equals(l1) && t.get(longKey, 0, longKey.length) != l1, "long key is not stored");
+
+        //small table: keys replace each other, but lookups are always correct
+        KeyTable small = new KeyTable(4);
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 100; i++) {
+                byte[] k = ("key" + i).getBytes("US-ASCII");
+                check(("key" + i).equals(small.get(k, 0, k.length)), "collision " + i);
+                check(("key" + i).equals(small.intern("key" + i)), "intern collision " + i);
+            }
+        }
+
+        //parser shares keys between documents
+        JsonReader r = new JsonReader(new ByteArrayInputStream("{\"id\":1}\n{\"id\":2}".getBytes("UTF-8")));
+        r.setKeyTable(t);
+        Map<String, Object> m1 = (Map<String, Object>) r.readValue();
+        Map<String, Object> m2 = (Map<String, Object>) r.readValue();
+        check(firstKey(m1) == firstKey(m2) && firstKey(m1) == t.intern("id"), "parser keys");
+
+        //shared between threads
+        final KeyTable shared = new KeyTable(64);
+        ExecutorService ex = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int n = 0; n < 8; n++) {
+                results.add(ex.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        for (int i = 0; i < 100000; i++) {
+                            String key = "k" + (i % 500);
+                            byte[] k = key.getBytes("US-ASCII");
+                            if (!key.equals(shared.get(k, 0, k.length)) || !key.equals(shared.intern(key)))
+                                return false;
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> f : results) {
+                check(f.get(), "concurrent lookups");
+            }
+        } finally {
+            ex.shutdownNow();
+        }
+        System.out.println("OK");
+    }
+
+    private static String firstKey(Map<String, Object> m) {
+        Iterator<String> it = m.keySet().iterator();
+        return it.next();
+    }
+
+    private static void check(boolean b, String message) {
+        if (!b)
+            throw new IllegalStateException(message);
+    }
+
+}
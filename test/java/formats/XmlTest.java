@@ -0,0 +1,220 @@
+package formats;
+
+import org.s1.web.formats.Xml;
+import org.s1.web.formats.XmlCursor;
+import org.s1.web.formats.XmlExtractor;
+import org.s1.web.formats.XmlPath;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author Grigory Pykhov
+ */
+public class XmlTest {
+
+    private static final String XML = "<s:r xmlns:s='urn:s' xmlns:m='urn:m' id='7'>"
+            + "<s:a x='1'><b>1</b><b>2</b><m:b m:y='3'>3</m:b></s:a>"
+            + "<s:a><b>4</b><b> 5 </b></s:a><c>t<d>q</d>u</c><e/></s:r>";
+
+    private static final String[] PATHS = {"a", "s:a", "a[1]", "a.b", "a.b[1]", "a[1].b[1]", "a.m:b", "s:a.m:b",
+            "a.m:b.@m:y", "a.@x", "@id", "a[1].b", "*", "*[2]", "*.*[2]", "c", "c.d", "m:*", "a.m:*", "nope", "a.b[2]",
+            "e", "a[1].@x"};
+
+    //path - value of Xml.get, as it was before paths were compiled
+    private static final String[][] VALUES = {{"a", "123"}, {"a[1]", "4 5 "}, {"a[-1]", "4 5 "}, {"a.b[1]", "2"},
+            {"a.b[-1]", "3"}, {"a[1].b[1]", " 5 "}, {"a.m:b.@m:y", "3"}, {"@id", "7"}, {"*[2]", "tqu"},
+            {"*.*[2]", "3"}, {"*[-1]", ""}, {"m:*", "123"}, {"a.m:*", "1"}, {"nope", null}, {"a[1].@x", "4 5 "},
+            {"a.@nope", "123"}, {"x:a", "123"}};
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> ns = new HashMap<String, String>();
+        ns.put("s", "urn:s");
+        ns.put("m", "urn:m");
+        Element root = Xml.fromXMLString(XML).getDocumentElement();
+
+        //compiled paths
+        for (String[] v : VALUES) {
+            String actual = Xml.get(root, v[0], ns);
+            check(v[1] == null ? actual == null : v[1].equals(actual), "get " + v[0] + ": " + actual);
+        }
+        for (String path : PATHS) {
+            XmlPath p = Xml.compile(path, ns);
+            String v = Xml.get(root, path, ns);
+            check(v == null ? p.get(root) == null : v.equals(p.get(root)), "compiled get " + path);
+            check(p.getElement(root) == Xml.getElement(root, path, ns), "compiled element " + path);
+            check(p.getElementList(root).equals(Xml.getElementList(root, path, ns)), "compiled list " + path);
+        }
+        List<String> texts = new ArrayList<String>();
+        for (Element e : Xml.getElementList(root, "a.b", ns)) {
+            texts.add(e.getTextContent());
+        }
+        check(texts.toString().equals("[1, 2, 3, 4,  5 ]"), "element list " + texts);
+        check(Xml.getElementList(root, "a[1].b[1]", ns).size() == 1 && Xml.getElementList(root, "nope", ns).isEmpty()
+                && Xml.getElementList(root, "@id", ns).isEmpty(), "element list");
+
+        //indexed document gives the same results
+        Document indexed = Xml.fromXMLString(XML);
+        Xml.setIndexed(indexed, true);
+        check(Xml.isIndexed(indexed), "indexed");
+        for (String path : PATHS) {
+            Element ir = indexed.getDocumentElement();
+            String v = Xml.get(root, path, ns);
+            check(v == null ? Xml.get(ir, path, ns) == null : v.equals(Xml.get(ir, path, ns)), "indexed get " + path);
+            List<String> expected = new ArrayList<String>();
+            for (Element e : Xml.getElementList(root, path, ns)) {
+                expected.add(describe(e));
+            }
+            List<String> actual = new ArrayList<String>();
+            for (Element e : Xml.getElementList(ir, path, ns)) {
+                actual.add(describe(e));
+            }
+            check(expected.equals(actual), "indexed list " + path + ": " + actual);
+        }
+        //children of element added after indexing are looked up without index, index is rebuilt
+        Element added = indexed.createElementNS(null, "f");
+        indexed.getDocumentElement().appendChild(added);
+        Element child = indexed.createElementNS(null, "g");
+        added.appendChild(child);
+        check(Xml.getElement(added, "g") == child, "element without index");
+        Xml.setIndexed(indexed, true);
+        check(Xml.getElement(indexed.getDocumentElement(), "*[-1]") == added
+                && Xml.getElement(indexed.getDocumentElement(), "f") == added, "rebuilt index");
+        Xml.setIndexed(indexed, false);
+        check(!Xml.isIndexed(indexed) && Xml.getElement(indexed.getDocumentElement(), "f") == added, "not indexed");
+        //document which is not namespace aware has no local names
+        Document plain = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream("<r><a/><b/><a/></r>".getBytes("UTF-8")));
+        Xml.setIndexed(plain, true);
+        check(Xml.getChildElementList(plain.getDocumentElement(), null, null).size() == 3
+                && Xml.getChildElement(-1, plain.getDocumentElement(), null, null).getTagName().equals("a"), "not namespace aware");
+
+        //streaming extraction and cursor give the same results as DOM
+        Map<String, String> values = XmlExtractor.extract(new ByteArrayInputStream(XML.getBytes("UTF-8")), null, ns, PATHS);
+        for (String path : PATHS) {
+            String v = Xml.get(root, path, ns);
+            check(v == null ? values.get(path) == null : v.equals(values.get(path)), "extract " + path + ": " + values.get(path));
+            if (path.contains("@"))
+                continue;
+            List<String> expected = new ArrayList<String>();
+            for (Element e : Xml.getElementList(root, path, ns)) {
+                expected.add(describe(e));
+            }
+            List<String> actual = new ArrayList<String>();
+            for (Element e : new XmlCursor(new ByteArrayInputStream(XML.getBytes("UTF-8")), null, path, ns)) {
+                actual.add(describe(e));
+            }
+            check(expected.equals(actual), "cursor " + path + ": " + actual);
+        }
+        try {
+            new XmlCursor(new ByteArrayInputStream(XML.getBytes("UTF-8")), null, "a[-1]", ns);
+            check(false, "error expected for last index");
+        } catch (IllegalArgumentException e) {
+            //ok
+        }
+
+        //external entities and DTDs are not loaded
+        File secret = File.createTempFile("xml-test", ".txt");
+        secret.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(secret);
+        fos.write("SECRET".getBytes("UTF-8"));
+        fos.close();
+        String xxe = "<?xml version=\"1.0\"?><!DOCTYPE r [<!ENTITY e SYSTEM \"" + secret.toURI() + "\">]><r><a>&e;</a></r>";
+        check("".equals(Xml.get(Xml.fromXMLString(xxe).getDocumentElement(), "a")), "external entity is loaded");
+        check("".equals(XmlExtractor.extract(new ByteArrayInputStream(xxe.getBytes("UTF-8")), null, null, "a").get("a")),
+                "external entity is loaded in streaming mode");
+        String dtd = "<?xml version=\"1.0\"?><!DOCTYPE r SYSTEM \"" + secret.toURI() + "\"><r><a>1</a></r>";
+        check("1".equals(Xml.get(Xml.fromXMLString(dtd).getDocumentElement(), "a")), "external dtd");
+        check("1".equals(XmlExtractor.extract(new ByteArrayInputStream(dtd.getBytes("UTF-8")), null, null, "a").get("a")),
+                "external dtd in streaming mode");
+
+        //internal entities are expanded the same way in DOM and streaming mode
+        String internal = "<!DOCTYPE r [<!ENTITY co \"ACME Corp\">]><r><a>Hello &co;!</a></r>";
+        check("Hello ACME Corp!".equals(Xml.get(Xml.fromXMLString(internal).getDocumentElement(), "a")), "internal entity");
+        check("Hello ACME Corp!".equals(XmlExtractor.extract(new ByteArrayInputStream(internal.getBytes("UTF-8")), null, null, "a").get("a")),
+                "internal entity in streaming mode");
+        for (Element e : new XmlCursor(new ByteArrayInputStream(internal.getBytes("UTF-8")), null, "a", null)) {
+            check("Hello ACME Corp!".equals(e.getTextContent()), "internal entity in cursor");
+        }
+
+        //pooled builders and transformers are used from several threads
+        ExecutorService ex = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 200; i++) {
+                final int n = i;
+                results.add(ex.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        String xml = "<r id=\"" + n + "\"><a>ж" + n + "</a></r>";
+                        Document d = Xml.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")), "UTF-8");
+                        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                        Xml.write(d.getDocumentElement(), bos, "windows-1251");
+                        Document d2 = Xml.parse(new ByteArrayInputStream(bos.toByteArray()), null);
+                        return Xml.get(d2.getDocumentElement(), "a").equals("ж" + n)
+                                && Xml.get(d2.getDocumentElement(), "@id").equals("" + n);
+                    }
+                }));
+            }
+            for (Future<Boolean> f : results) {
+                check(f.get(), "pooled parse");
+            }
+        } finally {
+            ex.shutdown();
+        }
+        try {
+            Xml.fromXMLString("<r><a></r>");
+            check(false, "error expected");
+        } catch (IllegalArgumentException e) {
+            //builder is reset after error
+        }
+        check("b".equals(Xml.get(Xml.fromXMLString("<r><a>b</a></r>").getDocumentElement(), "a")), "parse after error");
+
+        System.out.println("OK");
+    }
+
+    /**
+     * Element as string, attribute order and namespace declarations are ignored
+     */
+    private static String describe(Element el) {
+        StringBuilder sb = new StringBuilder("{").append(el.getNamespaceURI()).append('}').append(el.getLocalName());
+        NamedNodeMap attrs = el.getAttributes();
+        TreeSet<String> a = new TreeSet<String>();
+        for (int i = 0; i < attrs.getLength(); i++) {
+            Attr at = (Attr) attrs.item(i);
+            if (!"http://www.w3.org/2000/xmlns/".equals(at.getNamespaceURI()))
+                a.add("{" + at.getNamespaceURI() + "}" + at.getLocalName() + "=" + at.getValue());
+        }
+        sb.append(a).append('[');
+        for (Node n = el.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n instanceof Element)
+                sb.append(describe((Element) n));
+            else
+                sb.append(n.getTextContent());
+        }
+        return sb.append(']').toString();
+    }
+
+    private static void check(boolean b, String message) {
+        if (!b)
+            throw new IllegalStateException(message);
+    }
+
+}
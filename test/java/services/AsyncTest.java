@@ -0,0 +1,77 @@
+package services;
+
+import org.s1.web.services.OperationSettings;
+import org.s1.web.services.ServiceDispatcherServlet;
+import org.s1.web.services.WebOperation;
+import org.s1.web.services.WebOperationInput;
+import org.s1.web.services.WebOperationOutput;
+import org.s1.web.services.formats.TextData;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Grigory Pykhov
+ */
+public class AsyncTest {
+
+    public static void main(String[] args) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ServiceDispatcherServlet.getOperations()
+                .add("async/fast", new WebOperation() {
+                    @Override
+                    protected WebOperationOutput process(WebOperationInput input) {
+                        return new TextData("fast");
+                    }
+                }, new OperationSettings().setExecutor(executor))
+                .add("async/slow", new WebOperation() {
+                    @Override
+                    protected WebOperationOutput process(WebOperationInput input) {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        return new TextData("slow");
+                    }
+                }, new OperationSettings().setExecutor(executor));
+        Servlets.Dispatcher dispatcher = new Servlets.Dispatcher();
+        try {
+            //output is rendered by executor thread, request is completed once
+            Servlets.Request req = new Servlets.Request("GET", "async/fast");
+            req.asyncSupported = true;
+            Servlets.Response resp = dispatcher.handle(req);
+            check(req.async != null, "async started");
+            check(req.async.awaitComplete(5000), "fast request completed");
+            check(resp.status == 200 && "fast".equals(resp.getBody()), "fast response " + resp.status);
+
+            //timeout while operation is running: 503 is rendered and request is completed by listener
+            req = new Servlets.Request("GET", "async/slow");
+            req.asyncSupported = true;
+            resp = dispatcher.handle(req);
+            check(started.await(5, TimeUnit.SECONDS), "slow operation started");
+            req.async.fireTimeout();
+            check(req.async.completed == 1, "completed on timeout");
+            check(resp.status == 503, "timeout status " + resp.status);
+            release.countDown();
+            executor.shutdown();
+            check(executor.awaitTermination(5, TimeUnit.SECONDS), "worker finished");
+            check(req.async.completed == 1, "worker does not complete request again");
+            check(resp.status == 503 && resp.getBody().isEmpty(), "output of timed out operation is dropped");
+        } finally {
+            executor.shutdownNow();
+        }
+        System.out.println("OK");
+    }
+
+    private static void check(boolean b, String message) {
+        if (!b)
+            throw new IllegalStateException(message);
+    }
+
+}
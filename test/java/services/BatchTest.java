@@ -0,0 +1,97 @@
+package services;
+
+import org.s1.web.formats.Json;
+import org.s1.web.services.BatchWebOperation;
+import org.s1.web.services.ServiceDispatcherServlet;
+import org.s1.web.services.WebOperation;
+import org.s1.web.services.WebOperationInput;
+import org.s1.web.services.WebOperationOutput;
+import org.s1.web.services.formats.JSONData;
+import org.s1.web.services.formats.TextData;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Grigory Pykhov
+ */
+public class BatchTest {
+
+    public static void main(String[] args) throws Exception {
+        BatchWebOperation small = new BatchWebOperation(1, 3);
+        ServiceDispatcherServlet.getOperations()
+                .add("batch/echo", new WebOperation() {
+                    @Override
+                    protected WebOperationOutput process(WebOperationInput input) {
+                        Map<String, Object> m = new HashMap<String, Object>(input.asJSON().getData());
+                        m.put("method", input.getRequest().getMethod());
+                        return new JSONData(m);
+                    }
+                })
+                .add("batch/text", new WebOperation() {
+                    @Override
+                    protected WebOperationOutput process(WebOperationInput input) {
+                        input.getResponse().setHeader("X-Item", "text");
+                        return new TextData("t");
+                    }
+                })
+                .add("batch/fail", new WebOperation() {
+                    @Override
+                    protected WebOperationOutput process(WebOperationInput input) {
+                        throw new IllegalStateException("test");
+                    }
+                })
+                .add("batch/small", small);
+        Servlets.Dispatcher dispatcher = new Servlets.Dispatcher();
+
+        //results are in request order, each item has its own status
+        String items = "[{\"operation\":\"batch/echo\",\"method\":\"post\",\"params\":{\"a\":1}},"
+                + "{\"operation\":\"batch/text\"},{\"operation\":\"batch/fail\"},"
+                + "{\"operation\":\"batch/missing\"},{\"operation\":\"_batch\"}]";
+        Servlets.Response resp = dispatcher.handle(new Servlets.Request("POST", BatchWebOperation.NAME)
+                .body("application/json", items));
+        check(resp.status == 200, "batch status " + resp.status);
+        List<Map<String, Object>> results = Json.read(resp.getBody());
+        check(results.size() == 5, "results " + results);
+        int[] statuses = {200, 200, 500, 404, 400};
+        for (int i = 0; i < statuses.length; i++) {
+            check(((Integer) i).equals(results.get(i).get("index")), "index " + results.get(i));
+            check(((Integer) statuses[i]).equals(results.get(i).get("status")), "status " + results.get(i));
+        }
+        Map<String, Object> echo = (Map<String, Object>) results.get(0).get("body");
+        check(((Integer) 1).equals(echo.get("a")) && "POST".equals(echo.get("method")), "JSON body is embedded " + echo);
+        check("t".equals(results.get(1).get("body")), "text body " + results.get(1));
+        check("text".equals(resp.headers.get("X-Item")), "headers are shared with batch response");
+
+        //streamed results are in completion order
+        Servlets.Request req = new Servlets.Request("POST", BatchWebOperation.NAME).body("application/json", items);
+        req.query = "stream=true";
+        results = Json.read(dispatcher.handle(req).getBody());
+        check(results.size() == 5, "streamed results " + results);
+
+        //bad requests
+        check(dispatcher.handle(new Servlets.Request("POST", BatchWebOperation.NAME)
+                .body("application/json", "{\"operation\":\"batch/text\"}")).status == 400, "not an array");
+        check(dispatcher.handle(new Servlets.Request("POST", BatchWebOperation.NAME)
+                .body("application/json", "[{\"params\":{}}]")).status == 400, "no operation");
+        check(dispatcher.handle(new Servlets.Request("POST", "batch/small")
+                .body("application/json", "[{\"operation\":\"batch/text\"},{\"operation\":\"batch/text\"},"
+                        + "{\"operation\":\"batch/text\"},{\"operation\":\"batch/text\"}]")).status == 400, "too many items");
+
+        //items rejected by pool are answered with 503
+        small.shutdown();
+        resp = dispatcher.handle(new Servlets.Request("POST", "batch/small")
+                .body("application/json", "[{\"operation\":\"batch/text\"},{\"operation\":\"batch/echo\"}]"));
+        results = Json.read(resp.getBody());
+        check(results.size() == 2 && ((Integer) 503).equals(results.get(0).get("status"))
+                && ((Integer) 503).equals(results.get(1).get("status")), "rejected " + results);
+        System.out.println("OK");
+    }
+
+    private static void check(boolean b, String message) {
+        if (!b)
+            throw new IllegalStateException(message);
+    }
+
+}
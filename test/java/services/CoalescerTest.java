@@ -0,0 +1,192 @@
+package services;
+
+import com.hazelcast.core.HazelcastInstance;
+import org.s1.web.services.Coalescer;
+import org.s1.web.services.formats.RenderedData;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Grigory Pykhov
+ */
+public class CoalescerTest {
+
+    public static void main(String[] args) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            //leader and followers share one execution
+            final Coalescer coalescer = new Coalescer();
+            final AtomicInteger calls = new AtomicInteger();
+            final CountDownLatch release = new CountDownLatch(1);
+            final RenderedData data = new RenderedData(200, "text/plain", "UTF-8", "x".getBytes("UTF-8"), null);
+            List<Future<RenderedData>> results = new ArrayList<Future<RenderedData>>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<RenderedData>() {
+                    @Override
+                    public RenderedData call() throws Exception {
+                        return coalescer.execute("key", new Callable<RenderedData>() {
+                            @Override
+                            public RenderedData call() throws Exception {
+                                calls.incrementAndGet();
+                                release.await();
+                                return data;
+                            }
+                        });
+                    }
+                }));
+            }
+            waitFor(coalescer, 1);
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<RenderedData> f : results) {
+                check(f.get() == data, "follower result");
+            }
+            check(calls.get() == 1, "single execution " + calls.get());
+            check(coalescer.getInFlight() == 0, "in flight");
+
+            //leader error is thrown to followers
+            final CountDownLatch fail = new CountDownLatch(1);
+            Future<RenderedData> leader = executor.submit(new Callable<RenderedData>() {
+                @Override
+                public RenderedData call() throws Exception {
+                    return coalescer.execute("err", new Callable<RenderedData>() {
+                        @Override
+                        public RenderedData call() throws Exception {
+                            fail.await();
+                            throw new IllegalStateException("failed");
+                        }
+                    });
+                }
+            });
+            waitFor(coalescer, 1);
+            Future<RenderedData> follower = executor.submit(new Callable<RenderedData>() {
+                @Override
+                public RenderedData call() throws Exception {
+                    return coalescer.execute("err", new Callable<RenderedData>() {
+                        @Override
+                        public RenderedData call() throws Exception {
+                            throw new AssertionError("follower must not execute");
+                        }
+                    });
+                }
+            });
+            Thread.sleep(100);
+            fail.countDown();
+            check(causeOf(leader) instanceof IllegalStateException, "leader error");
+            check(causeOf(follower) instanceof IllegalStateException, "follower error");
+
+            //leader Error is thrown to followers too, not a null result
+            final CountDownLatch oom = new CountDownLatch(1);
+            Future<RenderedData> errorLeader = executor.submit(new Callable<RenderedData>() {
+                @Override
+                public RenderedData call() throws Exception {
+                    return coalescer.execute("error", new Callable<RenderedData>() {
+                        @Override
+                        public RenderedData call() throws Exception {
+                            oom.await();
+                            throw new OutOfMemoryError("test");
+                        }
+                    });
+                }
+            });
+            waitFor(coalescer, 1);
+            Future<RenderedData> errorFollower = executor.submit(new Callable<RenderedData>() {
+                @Override
+                public RenderedData call() throws Exception {
+                    return coalescer.execute("error", new Callable<RenderedData>() {
+                        @Override
+                        public RenderedData call() throws Exception {
+                            throw new AssertionError("follower must not execute");
+                        }
+                    });
+                }
+            });
+            Thread.sleep(100);
+            oom.countDown();
+            check(causeOf(errorLeader) instanceof OutOfMemoryError, "leader Error");
+            Throwable followerError = causeOf(errorFollower);
+            check(followerError instanceof ExecutionException && followerError.getCause() instanceof OutOfMemoryError,
+                    "follower Error " + followerError);
+            check(coalescer.getInFlight() == 0, "in flight after Error");
+
+            //follower executes by itself after timeout
+            final Coalescer fast = new Coalescer(null, 50, 0);
+            final CountDownLatch slow = new CountDownLatch(1);
+            Future<RenderedData> slowLeader = executor.submit(new Callable<RenderedData>() {
+                @Override
+                public RenderedData call() throws Exception {
+                    return fast.execute("slow", new Callable<RenderedData>() {
+                        @Override
+                        public RenderedData call() throws Exception {
+                            slow.await();
+                            return data;
+                        }
+                    });
+                }
+            });
+            waitFor(fast, 1);
+            final RenderedData own = new RenderedData(200, "text/plain", "UTF-8", "y".getBytes("UTF-8"), null);
+            long t = System.currentTimeMillis();
+            RenderedData r = fast.execute("slow", new Callable<RenderedData>() {
+                @Override
+                public RenderedData call() throws Exception {
+                    return own;
+                }
+            });
+            check(r == own && System.currentTimeMillis() - t >= 50, "timeout");
+            slow.countDown();
+            check(slowLeader.get() == data, "slow leader");
+
+            //IMap TTL 0 means "never expire", it is allowed only for local coalescing
+            new Coalescer(null, 1000, 0);
+            try {
+                new Coalescer(newInstanceStub(), 1000, 0);
+                check(false, "non-positive TTL accepted");
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        System.out.println("OK");
+    }
+
+    private static HazelcastInstance newInstanceStub() {
+        return (HazelcastInstance) Proxy.newProxyInstance(CoalescerTest.class.getClassLoader(),
+                new Class[]{HazelcastInstance.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static void waitFor(Coalescer c, int inFlight) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (c.getInFlight() < inFlight && System.currentTimeMillis() < end) {
+            Thread.sleep(1);
+        }
+        check(c.getInFlight() >= inFlight, "leader started");
+    }
+
+    private static Throwable causeOf(Future<?> f) throws InterruptedException {
+        try {
+            f.get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    private static void check(boolean b, String message) {
+        if (!b)
+            throw new IllegalStateException(message);
+    }
+
+}
@@ -0,0 +1,105 @@
+package services;
+
+import org.s1.web.services.OperationSettings;
+import org.s1.web.services.ServiceDispatcherServlet;
+import org.s1.web.services.WebOperation;
+import org.s1.web.services.WebOperationInput;
+import org.s1.web.services.WebOperationOutput;
+import org.s1.web.services.formats.TextData;
+import org.s1.web.services.metrics.Metrics;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Grigory Pykhov
+ */
+public class DeadlineTest {
+
+    public static void main(String[] args) throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicLong remaining = new AtomicLong();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch release = new CountDownLatch(1);
+        ServiceDispatcherServlet.getOperations()
+                .add("deadline/sync", new WebOperation() {
+                    @Override
+                    protected WebOperationOutput process(WebOperationInput input) {
+                        calls.incrementAndGet();
+                        remaining.set(input.getRemainingTime());
+                        return new TextData("ok");
+                    }
+                }, new OperationSettings().setDeadline(1000))
+                .add("deadline/busy", new WebOperation() {
+                    @Override
+                    protected WebOperationOutput process(WebOperationInput input) {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        return new TextData("busy");
+                    }
+                }, new OperationSettings().setExecutor(executor))
+                .add("deadline/async", new WebOperation() {
+                    @Override
+                    protected WebOperationOutput process(WebOperationInput input) {
+                        calls.incrementAndGet();
+                        return new TextData("async");
+                    }
+                }, new OperationSettings().setExecutor(executor).setDeadline(50));
+        Servlets.Dispatcher dispatcher = new Servlets.Dispatcher();
+        try {
+            //deadline is counted from request start header
+            long now = System.currentTimeMillis();
+            Servlets.Response resp = dispatcher.handle(new Servlets.Request("GET", "deadline/sync")
+                    .header("X-Request-Start", "t=" + (now - 100)));
+            check(resp.status == 200 && calls.get() == 1, "in time " + resp.status);
+            check(remaining.get() > 0 && remaining.get() <= 900, "remaining time " + remaining.get());
+
+            //requests out of deadline are shed without processing, in any header format
+            long rejected = Metrics.get("deadline/sync").getRejected();
+            String[] starts = {"" + (now - 2000), "t=" + (now - 2000) * 1000, "t=" + (now - 2000) / 1000.0,
+                    "" + (now - 2000) / 1000};
+            for (String start : starts) {
+                resp = dispatcher.handle(new Servlets.Request("GET", "deadline/sync").header("X-Request-Start", start));
+                check(resp.status == 503, "shed " + start + ": " + resp.status);
+            }
+            check(calls.get() == 1, "shed request is not processed");
+            check(Metrics.get("deadline/sync").getRejected() == rejected + starts.length, "rejected metric");
+
+            //start time in future and bad header are ignored
+            resp = dispatcher.handle(new Servlets.Request("GET", "deadline/sync")
+                    .header("X-Request-Start", "" + (now + 60000)));
+            check(resp.status == 200 && remaining.get() <= 1000, "future start " + remaining.get());
+            resp = dispatcher.handle(new Servlets.Request("GET", "deadline/sync").header("X-Request-Start", "x"));
+            check(resp.status == 200, "bad header " + resp.status);
+
+            //async request which waited in executor queue past its deadline is not processed
+            Servlets.Request busy = new Servlets.Request("GET", "deadline/busy");
+            busy.asyncSupported = true;
+            dispatcher.handle(busy);
+            Servlets.Request queued = new Servlets.Request("GET", "deadline/async");
+            queued.asyncSupported = true;
+            resp = dispatcher.handle(queued);
+            check(queued.async.timeout <= 50, "async timeout is limited by deadline " + queued.async.timeout);
+            Thread.sleep(100);
+            release.countDown();
+            check(queued.async.awaitComplete(5000), "queued request completed");
+            check(resp.status == 503 && calls.get() == 3, "queued past deadline " + resp.status + " " + calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+        System.out.println("OK");
+    }
+
+    private static void check(boolean b, String message) {
+        if (!b)
+            throw new IllegalStateException(message);
+    }
+
+}
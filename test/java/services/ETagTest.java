@@ -0,0 +1,86 @@
+package services;
+
+import org.s1.web.services.OperationSettings;
+import org.s1.web.services.OutputCache;
+import org.s1.web.services.ServiceDispatcherServlet;
+import org.s1.web.services.WebOperation;
+import org.s1.web.services.WebOperationInput;
+import org.s1.web.services.WebOperationOutput;
+import org.s1.web.services.formats.TextData;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Grigory Pykhov
+ */
+public class ETagTest {
+
+    public static void main(String[] args) throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        ServiceDispatcherServlet.getOperations()
+                .add("etag/version", new WebOperation() {
+                    @Override
+                    protected WebOperationOutput process(WebOperationInput input) {
+                        return new TextData("versioned").setVersion("v1");
+                    }
+                })
+                .add("etag/hash", new WebOperation() {
+                    @Override
+                    protected WebOperationOutput process(WebOperationInput input) {
+                        return new TextData("hashed").setETag(true);
+                    }
+                })
+                .add("etag/cached", new WebOperation() {
+                    @Override
+                    protected WebOperationOutput process(WebOperationInput input) {
+                        calls.incrementAndGet();
+                        return new TextData("cached").setETag(true);
+                    }
+                }, new OperationSettings().setCache(new OutputCache(10, 60000)));
+        Servlets.Dispatcher dispatcher = new Servlets.Dispatcher();
+
+        //version is quoted ETag
+        Servlets.Response resp = dispatcher.handle(new Servlets.Request("GET", "etag/version"));
+        check(resp.status == 200 && "\"v1\"".equals(resp.headers.get("ETag")) && "versioned".equals(resp.getBody()),
+                "version " + resp.headers);
+        resp = dispatcher.handle(new Servlets.Request("GET", "etag/version").header("If-None-Match", "\"v0\", W/\"v1\""));
+        check(resp.status == 304 && resp.getBody().isEmpty(), "not modified " + resp.status);
+        resp = dispatcher.handle(new Servlets.Request("GET", "etag/version").header("If-None-Match", "\"v0\""));
+        check(resp.status == 200 && "versioned".equals(resp.getBody()), "modified " + resp.status);
+        resp = dispatcher.handle(new Servlets.Request("POST", "etag/version").header("If-None-Match", "*"));
+        check(resp.status == 200, "POST is not conditional " + resp.status);
+
+        //ETag from rendered bytes
+        resp = dispatcher.handle(new Servlets.Request("GET", "etag/hash"));
+        String etag = resp.headers.get("ETag");
+        check(resp.status == 200 && etag != null && etag.startsWith("\"") && "hashed".equals(resp.getBody()), "hash " + etag);
+        check(etag.equals(dispatcher.handle(new Servlets.Request("GET", "etag/hash")).headers.get("ETag")), "stable hash");
+        resp = dispatcher.handle(new Servlets.Request("GET", "etag/hash").header("If-None-Match", etag));
+        check(resp.status == 304 && etag.equals(resp.headers.get("ETag")), "hash not modified " + resp.status);
+
+        //cached output is checked by dispatcher
+        resp = dispatcher.handle(new Servlets.Request("GET", "etag/cached"));
+        etag = resp.headers.get("ETag");
+        check(resp.status == 200 && etag != null && "cached".equals(resp.getBody()), "cached " + etag);
+        resp = dispatcher.handle(new Servlets.Request("GET", "etag/cached").header("If-None-Match", etag));
+        check(resp.status == 304 && etag.equals(resp.headers.get("ETag")), "cached not modified " + resp.status);
+        check(calls.get() == 1, "output is cached " + calls.get());
+
+        //versions which cannot be quoted
+        for (String bad : new String[]{"", "a b", "a\"b", "ж"}) {
+            try {
+                new TextData("x").setVersion(bad);
+                check(false, "error expected for '" + bad + "'");
+            } catch (IllegalArgumentException e) {
+                //ok
+            }
+        }
+        System.out.println("OK");
+    }
+
+    private static void check(boolean b, String message) {
+        if (!b)
+            throw new IllegalStateException(message);
+    }
+
+}
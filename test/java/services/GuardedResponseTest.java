@@ -0,0 +1,117 @@
+package services;
+
+import org.s1.web.services.GuardedResponse;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Grigory Pykhov
+ */
+public class GuardedResponseTest {
+
+    public static void main(String[] args) throws Exception {
+        //output passes until response is closed
+        Servlets.Response resp = new Servlets.Response();
+        GuardedResponse guarded = new GuardedResponse(resp.proxy());
+        guarded.setStatus(201);
+        guarded.setHeader("X-A", "1");
+        guarded.getOutputStream().write("ab".getBytes("UTF-8"));
+        check(resp.status == 201 && "1".equals(resp.headers.get("X-A")) && "ab".equals(resp.getBody()), "passed");
+        check(guarded.close(0), "closed");
+        check(!guarded.close(503), "closed once");
+        guarded.setStatus(500);
+        guarded.setHeader("X-B", "1");
+        guarded.getOutputStream().write("cd".getBytes("UTF-8"));
+        guarded.reset();
+        check(resp.status == 201 && resp.headers.get("X-B") == null && "ab".equals(resp.getBody()), "dropped");
+        check(guarded.isClosed() && guarded.isCommitted(), "committed after close");
+
+        //close sets status of not committed response
+        resp = new Servlets.Response();
+        guarded = new GuardedResponse(resp.proxy());
+        PrintWriter w = guarded.getWriter();
+        w.print("partial");
+        check(guarded.close(503), "closed with status");
+        w.print("more");
+        w.flush();
+        check(resp.status == 503 && resp.getBody().isEmpty(), "status on close " + resp.status);
+
+        //close waits for write in progress
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final GuardedResponse slow = new GuardedResponse(blockingResponse(writing, release));
+        ExecutorService ex = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> write = ex.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    slow.getOutputStream().write(new byte[10], 0, 10);
+                    return null;
+                }
+            });
+            check(writing.await(5, TimeUnit.SECONDS), "write started");
+            Future<Boolean> close = ex.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return slow.close(503);
+                }
+            });
+            Thread.sleep(100);
+            check(!close.isDone(), "close waits for write");
+            release.countDown();
+            write.get(5, TimeUnit.SECONDS);
+            check(close.get(5, TimeUnit.SECONDS), "close after write");
+        } finally {
+            ex.shutdownNow();
+        }
+        System.out.println("OK");
+    }
+
+    private static HttpServletResponse blockingResponse(final CountDownLatch writing, final CountDownLatch release) {
+        final ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+        return (HttpServletResponse) Proxy.newProxyInstance(GuardedResponseTest.class.getClassLoader(),
+                new Class[]{HttpServletResponse.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("getOutputStream".equals(method.getName()))
+                            return out;
+                        if ("isCommitted".equals(method.getName()))
+                            return true;
+                        return null;
+                    }
+                });
+    }
+
+    private static void check(boolean b, String message) {
+        if (!b)
+            throw new IllegalStateException(message);
+    }
+
+}
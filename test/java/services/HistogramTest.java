@@ -0,0 +1,71 @@
+package services;
+
+import org.s1.web.services.metrics.Histogram;
+
+import java.util.Random;
+
+/**
+ * @author Grigory Pykhov
+ */
+public class HistogramTest {
+
+    public static void main(String[] args) throws Exception {
+        Histogram empty = new Histogram();
+        check(empty.getValueAtPercentile(50) == 0 && empty.getMean() == 0 && empty.getMax() == 0, "empty");
+
+        //upper bound of bucket: exact for small values, relative error up to 1/32
+        long[] values = new long[]{0, 1, 31, 32, 33, 63, 64, 65, 100, 127, 128, 1000, 1023, 1024, 1025,
+                999999, 1L << 20, (1L << 20) + 1, (1L << 39) + 12345, (1L << 40) - 1};
+        for (long v : values) {
+            Histogram h = new Histogram();
+            h.record(v);
+            h.record(Long.MAX_VALUE);
+            long upper = h.getValueAtPercentile(50);
+            check(upper >= v && upper - v <= v / 32, "bucket of " + v + ": " + upper);
+            if (v < 64)
+                check(upper == v, "exact " + v + ": " + upper);
+        }
+        Random r = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            long v = r.nextLong() >>> (24 + r.nextInt(40));
+            Histogram h = new Histogram();
+            h.record(v);
+            h.record(Long.MAX_VALUE);
+            long upper = h.getValueAtPercentile(50);
+            check(upper >= v && upper - v <= v / 32, "bucket of " + v + ": " + upper);
+        }
+
+        //percentiles of uniform values
+        Histogram h = new Histogram();
+        for (int i = 1; i <= 100000; i++) {
+            h.record(i);
+        }
+        check(h.getCount() == 100000 && h.getSum() == 5000050000L && h.getMax() == 100000, "totals " + h);
+        for (int p : new int[]{1, 50, 90, 99}) {
+            long v = h.getValueAtPercentile(p);
+            long expected = p * 1000L;
+            check(v >= expected && v - expected <= expected / 32, "p" + p + ": " + v);
+        }
+        check(h.getValueAtPercentile(100) == 100000 && h.getValueAtPercentile(0) == 1, "bounds");
+
+        //negative values are recorded as 0, values greater than 2^40 - in the last bucket
+        Histogram o = new Histogram();
+        o.record(-5);
+        o.record(1L << 50);
+        check(o.getValueAtPercentile(1) == 0 && o.getValueAtPercentile(100) == (1L << 40) - 1
+                && o.getMax() == 1L << 50 && o.getSum() == 1L << 50, "range " + o);
+
+        //merge
+        Histogram m = new Histogram().merge(h).merge(o);
+        check(m.getCount() == h.getCount() + o.getCount() && m.getSum() == h.getSum() + o.getSum()
+                && m.getMax() == 1L << 50 && m.getValueAtPercentile(50) == h.getValueAtPercentile(50), "merge " + m);
+
+        System.out.println("OK");
+    }
+
+    private static void check(boolean b, String message) {
+        if (!b)
+            throw new IllegalStateException(message);
+    }
+
+}
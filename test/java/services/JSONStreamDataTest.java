@@ -0,0 +1,97 @@
+package services;
+
+import org.s1.web.formats.Json;
+import org.s1.web.formats.Maps;
+import org.s1.web.services.formats.JSONStreamData;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Grigory Pykhov
+ */
+public class JSONStreamDataTest {
+
+    public static void main(String[] args) throws Exception {
+        //rows array
+        Servlets.Response resp = new Servlets.Response();
+        new JSONStreamData(Arrays.asList(Maps.newSOHashMap("a", 1), Maps.newSOHashMap("a", new Date(5))))
+                .render(resp.proxy());
+        check("application/json".equals(resp.contentType), "content type " + resp.contentType);
+        check("[{\"a\":1},{\"a\":\"/Date(5)/\"}]".equals(resp.getBody()), "rows " + resp.getBody());
+
+        //envelope, rows field of envelope is replaced
+        resp = new Servlets.Response();
+        new JSONStreamData(Maps.newSOHashMap("total", 2, "items", "x"), "items", Arrays.asList(1, 2)).render(resp.proxy());
+        Map<String, Object> m = Json.read(resp.getBody());
+        check(m.size() == 2 && m.get("total").equals(2) && m.get("items").equals(Arrays.asList(1, 2)), "envelope " + m);
+
+        //empty rows, other encoding
+        resp = new Servlets.Response();
+        new JSONStreamData(Arrays.asList()).render(resp.proxy());
+        check("[]".equals(resp.getBody()), "empty " + resp.getBody());
+        resp = new Servlets.Response();
+        new JSONStreamData(Arrays.asList("кир")).setEncoding("windows-1251").render(resp.proxy());
+        List<Object> l = Json.read(resp.getBody());
+        check("windows-1251".equals(resp.encoding) && l.equals(Arrays.asList("кир")), "encoding " + l);
+
+        //rows are read lazily and iterator is closed
+        Rows rows = new Rows(250);
+        resp = new Servlets.Response();
+        new JSONStreamData(rows).setFlushRows(100).render(resp.proxy());
+        l = Json.read(resp.getBody());
+        check(l.size() == 250 && rows.closed, "rows " + l.size());
+
+        //iterator is closed on error too
+        rows = new Rows(-1);
+        try {
+            new JSONStreamData(rows).render(new Servlets.Response().proxy());
+            check(false, "error expected");
+        } catch (IllegalStateException e) {
+            check(rows.closed, "closed on error");
+        }
+        System.out.println("OK");
+    }
+
+    private static class Rows implements Iterator<Object>, Closeable {
+        private final int size;
+        private int i;
+        private boolean closed;
+
+        private Rows(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return size < 0 || i < size;
+        }
+
+        @Override
+        public Object next() {
+            if (size < 0)
+                throw new IllegalStateException("test");
+            return i++;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static void check(boolean b, String message) {
+        if (!b)
+            throw new IllegalStateException(message);
+    }
+
+}
@@ -0,0 +1,78 @@
+package services;
+
+import org.s1.web.services.formats.JSONStream;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * @author Grigory Pykhov
+ */
+public class JSONStreamTest {
+
+    public static void main(String[] args) throws Exception {
+        //top-level array
+        List<Object> l = read("[{\"a\":1},{\"a\":2},[3]]", "application/json");
+        check(l.size() == 3 && ((Map) l.get(1)).get("a").equals(2) && l.get(2).equals(Arrays.asList(3)), "array " + l);
+        check(read("[]", "application/json").isEmpty(), "empty array");
+        check(read("", null).isEmpty(), "empty body");
+
+        //newline-delimited values without array
+        l = read("{\"a\":1}\n{\"a\":2}\n", "application/json");
+        check(l.size() == 2, "objects " + l);
+
+        //NDJSON Content-Type: records may be arrays
+        l = read("[1,2]\n[3,4]\n", "application/x-ndjson; charset=UTF-8");
+        check(l.size() == 2 && l.get(0).equals(Arrays.asList(1, 2)) && l.get(1).equals(Arrays.asList(3, 4)),
+                "NDJSON arrays " + l);
+        l = read("[1]\n{\"a\":1}\n", "application/ndjson");
+        check(l.size() == 2, "NDJSON mixed " + l);
+
+        //beans, dates, other encoding
+        JSONStream<Bean> beans = new JSONStream<Bean>(new ByteArrayInputStream(
+                "[{\"name\":\"к\",\"created\":\"/Date(5)/\"}]".getBytes("windows-1251")), "windows-1251", Bean.class);
+        Bean b = beans.next();
+        check("к".equals(b.name) && b.created.getTime() == 5, "bean " + b.name);
+        check(!beans.hasNext() && beans.getCount() == 1, "count");
+        try {
+            beans.next();
+            check(false, "no more elements");
+        } catch (NoSuchElementException e) {
+            //ok
+        }
+
+        //data after array
+        try {
+            read("[1] 2", null);
+            check(false, "error expected");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        }
+        System.out.println("OK");
+    }
+
+    private static List<Object> read(String body, String contentType) throws Exception {
+        Servlets.Request req = new Servlets.Request("POST", "stream").body(contentType, body);
+        List<Object> l = new ArrayList<Object>();
+        for (Object o : new JSONStream<Object>(req.proxy(new Servlets.Response().proxy()), null)) {
+            l.add(o);
+        }
+        return l;
+    }
+
+    public static class Bean {
+        public String name;
+        public Date created;
+    }
+
+    private static void check(boolean b, String message) {
+        if (!b)
+            throw new IllegalStateException(message);
+    }
+
+}
@@ -0,0 +1,101 @@
+package services;
+
+import org.s1.web.services.limits.AimdLimit;
+import org.s1.web.services.limits.ConcurrencyLimit;
+import org.s1.web.services.limits.FixedLimit;
+import org.s1.web.services.limits.GradientLimit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Grigory Pykhov
+ */
+public class LimitTest {
+
+    public static void main(String[] args) throws Exception {
+        //fixed
+        ConcurrencyLimit fixed = new FixedLimit(2);
+        check(fixed.tryAcquire() && fixed.tryAcquire() && !fixed.tryAcquire(), "fixed limit");
+        check(fixed.getInFlight() == 2 && fixed.getAccepted() == 2 && fixed.getRejected() == 1, "fixed counters " + fixed);
+        fixed.release(System.nanoTime(), false);
+        check(fixed.getInFlight() == 1 && fixed.tryAcquire() && fixed.getLimit() == 2, "fixed release");
+
+        //aimd: 6 requests in flight, limit 10
+        ConcurrencyLimit aimd = new AimdLimit(10, 2, 12, 100, 0.5);
+        acquire(aimd, 6);
+        sample(aimd, 1, false);
+        check(aimd.getLimit() == 11, "aimd increase " + aimd);
+        sample(aimd, 1, false);
+        sample(aimd, 1, false);
+        check(aimd.getLimit() == 12, "aimd max " + aimd);
+        release(aimd, 200, false);
+        check(aimd.getLimit() == 6, "aimd timeout backoff " + aimd);
+        release(aimd, 1, true);
+        check(aimd.getLimit() == 3, "aimd drop backoff " + aimd);
+        release(aimd, 1, true);
+        check(aimd.getLimit() == 2, "aimd min " + aimd);
+        //limit is not used
+        ConcurrencyLimit idle = new AimdLimit(10, 1, 100, 100, 0.9);
+        acquire(idle, 1);
+        sample(idle, 1, false);
+        check(idle.getLimit() == 10, "aimd idle " + idle);
+
+        //gradient: stable latency, limit grows
+        ConcurrencyLimit gradient = new GradientLimit(20, 5, 40);
+        acquire(gradient, 20);
+        for (int i = 0; i < 20; i++) {
+            sample(gradient, 10, false);
+        }
+        int grown = gradient.getLimit();
+        check(grown > 20 && grown <= 40, "gradient increase " + gradient);
+        //latency grows, limit decreases
+        for (int i = 0; i < 10; i++) {
+            sample(gradient, 50, false);
+        }
+        check(gradient.getLimit() < grown, "gradient decrease " + gradient);
+        int slow = gradient.getLimit();
+        release(gradient, 10, true);
+        check(gradient.getLimit() < slow && gradient.getLimit() >= 5, "gradient drop " + gradient);
+        //limit is not used
+        ConcurrencyLimit idleGradient = new GradientLimit(20, 5, 100);
+        acquire(idleGradient, 1);
+        for (int i = 0; i < 10; i++) {
+            sample(idleGradient, 10, false);
+        }
+        check(idleGradient.getLimit() == 20, "gradient idle " + idleGradient);
+
+        for (int[] bounds : new int[][]{{0, 10}, {10, 5}}) {
+            try {
+                new GradientLimit(5, bounds[0], bounds[1]);
+                check(false, "error expected");
+            } catch (IllegalArgumentException e) {
+                //ok
+            }
+        }
+        System.out.println("OK");
+    }
+
+    private static void acquire(ConcurrencyLimit limit, int n) {
+        for (int i = 0; i < n; i++) {
+            check(limit.tryAcquire(), "acquire " + limit);
+        }
+    }
+
+    /**
+     * Release one permit with given duration and take it again, requests in flight count is not changed
+     */
+    private static void sample(ConcurrencyLimit limit, long rttMillis, boolean dropped) {
+        release(limit, rttMillis, dropped);
+        check(limit.tryAcquire(), "reacquire " + limit);
+    }
+
+    private static void release(ConcurrencyLimit limit, long rttMillis, boolean dropped) {
+        limit.release(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(rttMillis), dropped);
+    }
+
+    private static void check(boolean b, String message) {
+        if (!b)
+            throw new IllegalStateException(message);
+    }
+
+}
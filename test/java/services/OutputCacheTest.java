@@ -0,0 +1,78 @@
+package services;
+
+import org.s1.web.services.OutputCache;
+import org.s1.web.services.formats.RenderedData;
+
+/**
+ * @author Grigory Pykhov
+ */
+public class OutputCacheTest {
+
+    public static void main(String[] args) throws Exception {
+        RenderedData a = new RenderedData(200, "text/plain", "UTF-8", "a".getBytes("UTF-8"), null);
+        RenderedData b = new RenderedData(200, "text/plain", "UTF-8", "b".getBytes("UTF-8"), null);
+
+        //hit and miss
+        OutputCache cache = new OutputCache(2, 10000);
+        check(cache.get("k1") == null, "empty");
+        cache.put("k1", a, "t1");
+        check(cache.get("k1") == a, "hit");
+        check(cache.getLocalHits() == 1 && cache.getMisses() == 1, "counters " + cache);
+
+        //LRU eviction
+        cache.put("k2", b);
+        cache.get("k1");
+        cache.put("k3", b);
+        check(cache.get("k2") == null, "eldest is evicted");
+        check(cache.get("k1") == a, "recently used is kept");
+        check(cache.getSize() == 2 && cache.getEvictions() == 1, "size " + cache);
+
+        //invalidation by key and by tag
+        cache.invalidate("k1");
+        check(cache.get("k1") == null, "invalidated by key");
+        cache.put("k1", a, "t1");
+        cache.put("k3", b, "t2");
+        cache.invalidateTag("t1");
+        check(cache.get("k1") == null, "invalidated by tag");
+        check(cache.get("k3") == b, "other tag");
+
+        //output computed during invalidation is not stored
+        OutputCache.Stamp stamp = cache.stamp("k4", "t3");
+        cache.invalidate("k4");
+        cache.put("k4", a, stamp);
+        check(cache.get("k4") == null, "stale put after invalidation by key");
+        stamp = cache.stamp("k4", "t3");
+        cache.invalidateTag("t3");
+        cache.put("k4", a, stamp);
+        check(cache.get("k4") == null, "stale put after invalidation by tag");
+        cache.put("k4", a, cache.stamp("k4", "t3"));
+        check(cache.get("k4") == a, "put after invalidation");
+
+        //TTL
+        OutputCache shortLived = new OutputCache(10, 20);
+        shortLived.put("k", a);
+        check(shortLived.get("k") == a, "before TTL");
+        Thread.sleep(50);
+        check(shortLived.get("k") == null, "after TTL");
+
+        //key versions live for TTL only (like records computed before invalidation)
+        OutputCache small = new OutputCache(2, 20);
+        OutputCache.Stamp old = small.stamp("k0");
+        small.invalidate("k0");
+        small.invalidate("k1");
+        Thread.sleep(50);
+        small.invalidate("k2");
+        small.put("k0", a, old);
+        check(small.get("k0") == a, "expired key version is removed");
+
+        cache.clear();
+        check(cache.getSize() == 0, "clear");
+        System.out.println("OK");
+    }
+
+    private static void check(boolean b, String message) {
+        if (!b)
+            throw new IllegalStateException(message);
+    }
+
+}
@@ -0,0 +1,79 @@
+package services;
+
+import org.s1.web.services.ServiceDispatcherServlet;
+import org.s1.web.services.WebOperation;
+import org.s1.web.services.WebOperationInput;
+import org.s1.web.services.WebOperationOutput;
+import org.s1.web.services.formats.TextData;
+
+import java.util.TreeMap;
+
+/**
+ * RouteTrie is package-private, it is tested through dispatcher routing
+ *
+ * @author Grigory Pykhov
+ */
+public class RouteTrieTest {
+
+    public static void main(String[] args) throws Exception {
+        String[] templates = {"users", "users/{id}", "users/me", "users/{id}/orders", "users/me/settings",
+                "users/{id}/orders/{order}", "files/{name}/raw", "files/list/{page}"};
+        for (String it : templates) {
+            add(it);
+        }
+        Servlets.Dispatcher d = new Servlets.Dispatcher();
+
+        check(route(d, "users").equals("users {}"), "static");
+        check(route(d, "users/me").equals("users/me {}"), "static has priority");
+        check(route(d, "users/5").equals("users/{id} {id=5}"), "param");
+
+        //static 'me' has no 'orders' child, lookup backtracks to parameter
+        check(route(d, "users/me/orders").equals("users/{id}/orders {id=me}"), "backtrack");
+        check(route(d, "users/me/settings").equals("users/me/settings {}"), "static deep");
+        check(route(d, "users/me/orders/7").equals("users/{id}/orders/{order} {id=me, order=7}"), "backtrack params");
+
+        //'list' is static, but only 'files/list/{page}' exists under it
+        check(route(d, "files/list/raw").equals("files/list/{page} {page=raw}"), "static first");
+        check(route(d, "files/other/raw").equals("files/{name}/raw {name=other}"), "param branch");
+
+        check(route(d, "files/list") == null, "intermediate node");
+        check(route(d, "users//orders") == null, "empty param");
+        check(route(d, "nope") == null, "not found");
+        check(route(d, "users/5/orders/7/x") == null, "too deep");
+
+        //decoding
+        check(route(d, "users/a%20b+c").equals("users/{id} {id=a b+c}"), "decode");
+        check(route(d, "users/%zz").equals("users/{id} {id=%zz}"), "bad escape");
+
+        //hash collision: "Aa" and "BB" have equal hashCode
+        add("h/Aa");
+        add("h/BB");
+        check(route(d, "h/Aa").equals("h/Aa {}") && route(d, "h/BB").equals("h/BB {}"), "collision");
+
+        //operations added later are routed
+        add("users/{id}/profile");
+        check(route(d, "users/5/profile").equals("users/{id}/profile {id=5}"), "added later");
+
+        System.out.println("OK");
+    }
+
+    private static void add(final String template) {
+        ServiceDispatcherServlet.getOperations().add(template, new WebOperation() {
+            @Override
+            protected WebOperationOutput process(WebOperationInput input) {
+                return new TextData(template + " " + new TreeMap<String, String>(input.getPathParameters()));
+            }
+        });
+    }
+
+    private static String route(Servlets.Dispatcher d, String path) throws Exception {
+        Servlets.Response resp = d.handle(new Servlets.Request("GET", path));
+        return resp.status == 404 ? null : resp.getBody();
+    }
+
+    private static void check(boolean b, String message) {
+        if (!b)
+            throw new IllegalStateException(message);
+    }
+
+}
@@ -0,0 +1,352 @@
+package services;
+
+import org.s1.web.services.ServiceDispatcherServlet;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory request, response and async context for dispatcher tests
+ *
+ * @author Grigory Pykhov
+ */
+public class Servlets {
+
+    /**
+     * Request to <code>/services/{path}</code>
+     */
+    public static class Request {
+        public String method = "GET";
+        public String path;
+        public String query;
+        public String contentType;
+        public String encoding;
+        public byte[] body = new byte[0];
+        public boolean asyncSupported;
+        public Async async;
+        public final Map<String, String> headers = new HashMap<String, String>();
+        public final Map<String, Object> attributes = new HashMap<String, Object>();
+
+        public Request(String method, String path) {
+            this.method = method;
+            this.path = path;
+        }
+
+        public Request header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        public Request body(String contentType, String body) {
+            this.contentType = contentType;
+            this.body = body.getBytes(Charset.forName("UTF-8"));
+            return this;
+        }
+
+        public HttpServletRequest proxy(final HttpServletResponse response) {
+            final HttpServletRequest[] self = new HttpServletRequest[1];
+            self[0] = (HttpServletRequest) Proxy.newProxyInstance(Servlets.class.getClassLoader(),
+                    new Class[]{HttpServletRequest.class}, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+                            String n = m.getName();
+                            if ("getMethod".equals(n))
+                                return method;
+                            if ("getRequestURI".equals(n))
+                                return "/services/" + path;
+                            if ("getContextPath".equals(n))
+                                return "";
+                            if ("getServletPath".equals(n))
+                                return "/services";
+                            if ("getQueryString".equals(n))
+                                return query;
+                            if ("getContentType".equals(n))
+                                return contentType;
+                            if ("getCharacterEncoding".equals(n))
+                                return encoding;
+                            if ("setCharacterEncoding".equals(n)) {
+                                encoding = (String) args[0];
+                                return null;
+                            }
+                            if ("getParameter".equals(n) && query != null) {
+                                for (String p : query.split("&")) {
+                                    if (p.startsWith(args[0] + "="))
+                                        return URLDecoder.decode(p.substring(p.indexOf('=') + 1), "UTF-8");
+                                }
+                                return null;
+                            }
+                            if ("getHeader".equals(n))
+                                return headers.get(args[0]);
+                            if ("getHeaderNames".equals(n))
+                                return Collections.enumeration(headers.keySet());
+                            if ("getAttribute".equals(n))
+                                return attributes.get(args[0]);
+                            if ("setAttribute".equals(n)) {
+                                attributes.put((String) args[0], args[1]);
+                                return null;
+                            }
+                            if ("removeAttribute".equals(n)) {
+                                attributes.remove(args[0]);
+                                return null;
+                            }
+                            if ("getCookies".equals(n))
+                                return new Cookie[]{new Cookie("S1_ID", "test")};
+                            if ("getInputStream".equals(n)) {
+                                final ByteArrayInputStream is = new ByteArrayInputStream(body);
+                                return new ServletInputStream() {
+                                    @Override
+                                    public int read() throws IOException {
+                                        return is.read();
+                                    }
+
+                                    @Override
+                                    public int read(byte[] b, int off, int len) throws IOException {
+                                        return is.read(b, off, len);
+                                    }
+                                };
+                            }
+                            if ("isAsyncSupported".equals(n))
+                                return asyncSupported;
+                            if ("startAsync".equals(n)) {
+                                async = new Async(self[0], args == null ? response : (HttpServletResponse) args[1]);
+                                return async.proxy();
+                            }
+                            if ("toString".equals(n))
+                                return "Request " + method + " " + path;
+                            return defaultValue(m);
+                        }
+                    });
+            return self[0];
+        }
+    }
+
+    /**
+     * Response written to memory
+     */
+    public static class Response {
+        public volatile int status = 200;
+        public volatile boolean committed;
+        public String contentType;
+        public String encoding;
+        public final Map<String, String> headers = Collections.synchronizedMap(new HashMap<String, String>());
+        public final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private PrintWriter writer;
+
+        public String getBody() {
+            if (writer != null)
+                writer.flush();
+            return new String(body.toByteArray(), Charset.forName(encoding == null ? "UTF-8" : encoding));
+        }
+
+        public HttpServletResponse proxy() {
+            return (HttpServletResponse) Proxy.newProxyInstance(Servlets.class.getClassLoader(),
+                    new Class[]{HttpServletResponse.class}, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+                            String n = m.getName();
+                            synchronized (Response.this) {
+                                if ("setStatus".equals(n) || "sendError".equals(n)) {
+                                    status = (Integer) args[0];
+                                    if ("sendError".equals(n))
+                                        committed = true;
+                                    return null;
+                                }
+                                if ("getStatus".equals(n))
+                                    return status;
+                                if ("setHeader".equals(n) || "addHeader".equals(n)) {
+                                    headers.put((String) args[0], (String) args[1]);
+                                    return null;
+                                }
+                                if ("getHeader".equals(n))
+                                    return headers.get(args[0]);
+                                if ("setContentType".equals(n)) {
+                                    contentType = (String) args[0];
+                                    return null;
+                                }
+                                if ("getContentType".equals(n))
+                                    return contentType;
+                                if ("setCharacterEncoding".equals(n)) {
+                                    encoding = (String) args[0];
+                                    return null;
+                                }
+                                if ("getCharacterEncoding".equals(n))
+                                    return encoding == null ? "ISO-8859-1" : encoding;
+                                if ("isCommitted".equals(n))
+                                    return committed;
+                                if ("flushBuffer".equals(n)) {
+                                    committed = true;
+                                    return null;
+                                }
+                                if ("reset".equals(n) || "resetBuffer".equals(n)) {
+                                    if (committed)
+                                        throw new IllegalStateException("Response is committed");
+                                    body.reset();
+                                    if ("reset".equals(n)) {
+                                        status = 200;
+                                        headers.clear();
+                                        contentType = null;
+                                    }
+                                    return null;
+                                }
+                                if ("getOutputStream".equals(n)) {
+                                    return new ServletOutputStream() {
+                                        @Override
+                                        public void write(int b) {
+                                            synchronized (Response.this) {
+                                                body.write(b);
+                                            }
+                                        }
+
+                                        @Override
+                                        public void write(byte[] b, int off, int len) {
+                                            synchronized (Response.this) {
+                                                body.write(b, off, len);
+                                            }
+                                        }
+                                    };
+                                }
+                                if ("getWriter".equals(n)) {
+                                    if (writer == null) {
+                                        //not buffered, so reset discards everything written
+                                        writer = new PrintWriter(new Writer() {
+                                            @Override
+                                            public void write(char[] cbuf, int off, int len) throws IOException {
+                                                synchronized (Response.this) {
+                                                    body.write(new String(cbuf, off, len).getBytes(
+                                                            encoding == null ? "ISO-8859-1" : encoding));
+                                                }
+                                            }
+
+                                            @Override
+                                            public void flush() {
+                                            }
+
+                                            @Override
+                                            public void close() {
+                                            }
+                                        });
+                                    }
+                                    return writer;
+                                }
+                                if ("toString".equals(n))
+                                    return "Response " + status;
+                                return defaultValue(m);
+                            }
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Async context, timeout is fired by test
+     */
+    public static class Async {
+        public final HttpServletRequest request;
+        public final HttpServletResponse response;
+        public final List<AsyncListener> listeners = new ArrayList<AsyncListener>();
+        public volatile int completed;
+        public volatile long timeout;
+
+        public Async(HttpServletRequest request, HttpServletResponse response) {
+            this.request = request;
+            this.response = response;
+        }
+
+        public void fireTimeout() throws IOException {
+            for (AsyncListener l : listeners) {
+                l.onTimeout(new AsyncEvent(proxy()));
+            }
+        }
+
+        public AsyncContext proxy() {
+            return (AsyncContext) Proxy.newProxyInstance(Servlets.class.getClassLoader(),
+                    new Class[]{AsyncContext.class}, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+                            String n = m.getName();
+                            if ("getRequest".equals(n))
+                                return request;
+                            if ("getResponse".equals(n))
+                                return response;
+                            if ("addListener".equals(n)) {
+                                listeners.add((AsyncListener) args[0]);
+                                return null;
+                            }
+                            if ("setTimeout".equals(n)) {
+                                timeout = (Long) args[0];
+                                return null;
+                            }
+                            if ("getTimeout".equals(n))
+                                return timeout;
+                            if ("complete".equals(n)) {
+                                synchronized (Async.this) {
+                                    if (completed > 0)
+                                        throw new IllegalStateException("Request is already completed");
+                                    completed++;
+                                    Async.this.notifyAll();
+                                }
+                                for (AsyncListener l : listeners) {
+                                    l.onComplete(new AsyncEvent(proxy()));
+                                }
+                                return null;
+                            }
+                            return defaultValue(m);
+                        }
+                    });
+        }
+
+        public synchronized boolean awaitComplete(long timeout) throws InterruptedException {
+            long end = System.currentTimeMillis() + timeout;
+            while (completed == 0 && System.currentTimeMillis() < end) {
+                wait(Math.max(1, end - System.currentTimeMillis()));
+            }
+            return completed > 0;
+        }
+    }
+
+    /**
+     * Dispatcher with public entry point
+     */
+    public static class Dispatcher extends ServiceDispatcherServlet {
+        public Response handle(Request request) throws ServletException, IOException {
+            Response response = new Response();
+            HttpServletResponse resp = response.proxy();
+            process(request.proxy(resp), resp);
+            return response;
+        }
+    }
+
+    private static Object defaultValue(Method m) {
+        Class<?> c = m.getReturnType();
+        if (c == boolean.class)
+            return false;
+        if (c == int.class)
+            return 0;
+        if (c == long.class)
+            return 0L;
+        return null;
+    }
+
+}
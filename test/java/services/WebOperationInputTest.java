@@ -0,0 +1,63 @@
+package services;
+
+import org.s1.web.formats.MessagePackCodec;
+import org.s1.web.formats.Maps;
+import org.s1.web.services.ServiceDispatcherServlet;
+import org.s1.web.services.WebOperation;
+import org.s1.web.services.WebOperationInput;
+import org.s1.web.services.WebOperationOutput;
+import org.s1.web.services.formats.TextData;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * @author Grigory Pykhov
+ */
+public class WebOperationInputTest {
+
+    public static void main(String[] args) throws Exception {
+        ServiceDispatcherServlet.getOperations().add("input/bean", new WebOperation() {
+            @Override
+            protected WebOperationOutput process(WebOperationInput input) {
+                Bean b = input.as(Bean.class);
+                return new TextData(b.name + ":" + b.count);
+            }
+        });
+        Servlets.Dispatcher dispatcher = new Servlets.Dispatcher();
+
+        //codec is chosen by Content-Type
+        Servlets.Response resp = dispatcher.handle(new Servlets.Request("POST", "input/bean")
+                .body("application/json; charset=UTF-8", "{\"name\":\"a\",\"count\":1}"));
+        check(resp.status == 200 && "a:1".equals(resp.getBody()), "JSON " + resp.status);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new MessagePackCodec().write(Maps.newSOHashMap("name", "b", "count", 2), out, null);
+        Servlets.Request req = new Servlets.Request("POST", "input/bean");
+        req.contentType = "application/msgpack";
+        req.body = out.toByteArray();
+        resp = dispatcher.handle(req);
+        check(resp.status == 200 && "b:2".equals(resp.getBody()), "MessagePack " + resp.status);
+
+        //JSON without Content-Type
+        req = new Servlets.Request("POST", "input/bean").body(null, "{\"name\":\"c\",\"count\":3}");
+        resp = dispatcher.handle(req);
+        check(resp.status == 200 && "c:3".equals(resp.getBody()), "no Content-Type " + resp.status);
+
+        //unknown Content-Type is not read as JSON
+        resp = dispatcher.handle(new Servlets.Request("POST", "input/bean")
+                .body("text/csv", "{\"name\":\"d\",\"count\":4}"));
+        check(resp.status == 415 && resp.getBody().isEmpty(), "unsupported Content-Type " + resp.status);
+        System.out.println("OK");
+    }
+
+    public static class Bean {
+        public String name;
+        public int count;
+    }
+
+    private static void check(boolean b, String message) {
+        if (!b)
+            throw new IllegalStateException(message);
+    }
+
+}
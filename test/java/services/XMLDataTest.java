@@ -0,0 +1,80 @@
+package services;
+
+import org.s1.web.formats.Xml;
+import org.s1.web.services.formats.XMLData;
+import org.w3c.dom.Document;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Grigory Pykhov
+ */
+public class XMLDataTest {
+
+    public static void main(String[] args) throws Exception {
+        String text = "Привет ✓ <&>";
+        Document doc = Xml.fromXMLString("<r a=\"" + text.replace("&", "&amp;").replace("<", "&lt;") + "\"><b>"
+                + text.replace("&", "&amp;").replace("<", "&lt;") + "</b></r>");
+
+        for (String encoding : new String[]{"UTF-8", "windows-1251", "ISO-8859-1"}) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            Map<String, Object> calls = new HashMap<String, Object>();
+            new XMLData(doc, encoding).setBufferSize(1024).render(response(bos, calls));
+            byte[] b = bos.toByteArray();
+            check(encoding.equals(calls.get("setCharacterEncoding")) && "text/xml".equals(calls.get("setContentType"))
+                    && Integer.valueOf(1024).equals(calls.get("setBufferSize")), "headers " + calls);
+
+            //declaration names target encoding, document is parsed back with it
+            String head = new String(b, 0, Math.min(b.length, 60), "ISO-8859-1");
+            check(head.toLowerCase().contains("encoding=\"" + encoding.toLowerCase() + "\""), "declaration " + head);
+            Document d = Xml.parse(new ByteArrayInputStream(b), null);
+            check(text.equals(Xml.get(d.getDocumentElement(), "b")) && text.equals(Xml.get(d.getDocumentElement(), "@a")),
+                    encoding + ": " + Xml.get(d.getDocumentElement(), "b"));
+        }
+
+        //characters which charset cannot represent are written as references
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new XMLData(doc, "windows-1251").render(response(bos, new HashMap<String, Object>()));
+        String s = new String(bos.toByteArray(), "windows-1251");
+        check(s.contains("Привет") && s.contains("&#10003;"), s);
+
+        System.out.println("OK");
+    }
+
+    private static HttpServletResponse response(final ByteArrayOutputStream bos, final Map<String, Object> calls) {
+        return (HttpServletResponse) Proxy.newProxyInstance(XMLDataTest.class.getClassLoader(),
+                new Class[]{HttpServletResponse.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if (name.equals("getOutputStream")) {
+                            return new ServletOutputStream() {
+                                @Override
+                                public void write(int b) {
+                                    bos.write(b);
+                                }
+                            };
+                        }
+                        if (name.equals("isCommitted"))
+                            return false;
+                        if (args != null && args.length == 1)
+                            calls.put(name, args[0]);
+                        return null;
+                    }
+                });
+    }
+
+    private static void check(boolean b, String message) {
+        if (!b)
+            throw new IllegalStateException(message);
+    }
+
+}